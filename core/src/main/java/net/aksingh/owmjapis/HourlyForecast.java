@@ -77,6 +77,13 @@ public class HourlyForecast extends AbstractForecast {
         }
     }
 
+    /**
+     * @return Number of Forecast instances in the list.
+     */
+    public int getForecastListSize() {
+        return this.forecastList.size();
+    }
+
     /**
      * @param index Index of Forecast instance in the list.
      * @return Forecast instance if available, otherwise <code>null</code>.
@@ -107,6 +114,8 @@ public class HourlyForecast extends AbstractForecast {
          */
         private static final String JSON_SYS = "sys";
         private static final String JSON_DT_TEXT = "dt_txt";
+        private static final String JSON_RAIN = "rain";
+        private static final String JSON_SNOW = "snow";
 
         /*
         Instance Variables
@@ -117,6 +126,8 @@ public class HourlyForecast extends AbstractForecast {
         private final Main main;
         private final Sys sys;
         private final Wind wind;
+        private final CurrentWeather.Rain rain;
+        private final CurrentWeather.Snow snow;
 
         /*
         Constructor
@@ -137,6 +148,12 @@ public class HourlyForecast extends AbstractForecast {
 
             JSONObject jsonObjWind = (jsonObj != null) ? jsonObj.optJSONObject(JSON_WIND) : null;
             this.wind = (jsonObjWind != null) ? new Wind(jsonObjWind) : null;
+
+            JSONObject jsonObjRain = (jsonObj != null) ? jsonObj.optJSONObject(JSON_RAIN) : null;
+            this.rain = (jsonObjRain != null) ? new CurrentWeather.Rain(jsonObjRain) : null;
+
+            JSONObject jsonObjSnow = (jsonObj != null) ? jsonObj.optJSONObject(JSON_SNOW) : null;
+            this.snow = (jsonObjSnow != null) ? new CurrentWeather.Snow(jsonObjSnow) : null;
         }
 
         public boolean hasDateTimeText() {
@@ -171,6 +188,20 @@ public class HourlyForecast extends AbstractForecast {
             return wind != null;
         }
 
+        /**
+         * @return <code>true</code> if Rain instance is available, otherwise <code>false</code>.
+         */
+        public boolean hasRainInstance() {
+            return rain != null;
+        }
+
+        /**
+         * @return <code>true</code> if Snow instance is available, otherwise <code>false</code>.
+         */
+        public boolean hasSnowInstance() {
+            return snow != null;
+        }
+
         public String getDateTimeText() {
             return this.dateTimeText;
         }
@@ -203,6 +234,20 @@ public class HourlyForecast extends AbstractForecast {
             return this.wind;
         }
 
+        /**
+         * @return Rain instance if available, otherwise <code>null</code>.
+         */
+        public CurrentWeather.Rain getRainInstance() {
+            return this.rain;
+        }
+
+        /**
+         * @return Snow instance if available, otherwise <code>null</code>.
+         */
+        public CurrentWeather.Snow getSnowInstance() {
+            return this.snow;
+        }
+
         /**
          * <p>
          * Parses clouds data and provides methods to get/access the same information.
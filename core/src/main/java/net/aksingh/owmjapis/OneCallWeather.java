@@ -0,0 +1,217 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.aksingh.owmjapis;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.Serializable;
+
+/**
+ * <p>
+ * Parses the response of the One Call API, which combines current weather, hourly forecasts and
+ * daily forecasts in a single response. Each part is converted to the format of its separate API
+ * and parsed into the existing {@link CurrentWeather}, {@link HourlyForecast} and
+ * {@link DailyForecast} classes. Parts that were excluded from the request are <code>null</code>.
+ * </p>
+ *
+ * @see <a href="https://openweathermap.org/api/one-call-api">OWM's One Call API</a>
+ */
+public class OneCallWeather implements Serializable {
+    /*
+    JSON Keys
+     */
+    private static final String JSON_LATITUDE = "lat";
+    private static final String JSON_LONGITUDE = "lon";
+    private static final String JSON_TIMEZONE_OFFSET = "timezone_offset";
+    private static final String JSON_CURRENT = OpenWeatherMap.ONE_CALL_CURRENT;
+    private static final String JSON_HOURLY = OpenWeatherMap.ONE_CALL_HOURLY;
+    private static final String JSON_DAILY = OpenWeatherMap.ONE_CALL_DAILY;
+
+    /*
+    Instance variables
+     */
+    private final float latitude;
+    private final float longitude;
+    private final int timezoneOffset;
+    private final CurrentWeather currentWeather;
+    private final HourlyForecast hourlyForecast;
+    private final DailyForecast dailyForecast;
+
+    /*
+    Constructors
+     */
+    OneCallWeather(JSONObject jsonObj) throws JSONException {
+        this.latitude = (jsonObj != null) ? (float) jsonObj.optDouble(JSON_LATITUDE, Double.NaN) : Float.NaN;
+        this.longitude = (jsonObj != null) ? (float) jsonObj.optDouble(JSON_LONGITUDE, Double.NaN) : Float.NaN;
+        this.timezoneOffset = (jsonObj != null) ? jsonObj.optInt(JSON_TIMEZONE_OFFSET, Integer.MIN_VALUE) : Integer.MIN_VALUE;
+
+        JSONObject coord = new JSONObject()
+                .put(JSON_LATITUDE, (double) latitude)
+                .put(JSON_LONGITUDE, (double) longitude);
+
+        JSONObject currentObj = (jsonObj != null) ? jsonObj.optJSONObject(JSON_CURRENT) : null;
+        this.currentWeather = (currentObj != null) ? new CurrentWeather(toCurrentWeather(currentObj, coord)) : null;
+
+        JSONArray hourlyArr = (jsonObj != null) ? jsonObj.optJSONArray(JSON_HOURLY) : null;
+        this.hourlyForecast = (hourlyArr != null) ? new HourlyForecast(toHourlyForecast(hourlyArr, coord)) : null;
+
+        JSONArray dailyArr = (jsonObj != null) ? jsonObj.optJSONArray(JSON_DAILY) : null;
+        this.dailyForecast = (dailyArr != null) ? new DailyForecast(toDailyForecast(dailyArr, coord)) : null;
+    }
+
+    /** Converts the current weather part to the format of the current weather API. */
+    private static JSONObject toCurrentWeather(JSONObject current, JSONObject coord) throws JSONException {
+        return toWeather(current)
+                .put("cod", 200)
+                .put("coord", coord)
+                .putOpt("rain", current.optJSONObject("rain"))
+                .putOpt("snow", current.optJSONObject("snow"))
+                .put("sys", new JSONObject()
+                        .putOpt("sunrise", current.opt("sunrise"))
+                        .putOpt("sunset", current.opt("sunset")))
+                .put("wind", toWind(current)
+                        .putOpt("gust", current.opt("wind_gust")));
+    }
+
+    /** Converts the hourly part to the format of the hourly forecast API. */
+    private static JSONObject toHourlyForecast(JSONArray hourly, JSONObject coord) throws JSONException {
+        JSONArray list = new JSONArray();
+        for (int i = 0; i < hourly.length(); i++) {
+            JSONObject hour = hourly.optJSONObject(i);
+            if (hour != null) {
+                list.put(toWeather(hour)
+                        .put("wind", toWind(hour))
+                        .putOpt("rain", hour.optJSONObject("rain"))
+                        .putOpt("snow", hour.optJSONObject("snow")));
+            }
+        }
+        return toForecast(list, coord);
+    }
+
+    /** Converts the daily part to the format of the daily forecast API. */
+    private static JSONObject toDailyForecast(JSONArray daily, JSONObject coord) throws JSONException {
+        JSONArray list = new JSONArray();
+        for (int i = 0; i < daily.length(); i++) {
+            JSONObject day = daily.optJSONObject(i);
+            if (day != null) {
+                list.put(new JSONObject()
+                        .putOpt("dt", day.opt("dt"))
+                        .putOpt("temp", day.optJSONObject("temp"))
+                        .putOpt("pressure", day.opt("pressure"))
+                        .putOpt("humidity", day.opt("humidity"))
+                        .putOpt("speed", day.opt("wind_speed"))
+                        .putOpt("deg", day.opt("wind_deg"))
+                        .putOpt("clouds", day.opt("clouds"))
+                        .putOpt("rain", day.opt("rain"))
+                        .putOpt("snow", day.opt("snow"))
+                        .putOpt("weather", day.optJSONArray("weather")));
+            }
+        }
+        return toForecast(list, coord);
+    }
+
+    private static JSONObject toWeather(JSONObject obj) throws JSONException {
+        return new JSONObject()
+                .putOpt("dt", obj.opt("dt"))
+                .putOpt("weather", obj.optJSONArray("weather"))
+                .put("main", new JSONObject()
+                        .putOpt("temp", obj.opt("temp"))
+                        .putOpt("pressure", obj.opt("pressure"))
+                        .putOpt("humidity", obj.opt("humidity")))
+                .put("clouds", new JSONObject()
+                        .putOpt("all", obj.opt("clouds")));
+    }
+
+    private static JSONObject toWind(JSONObject obj) throws JSONException {
+        return new JSONObject()
+                .putOpt("speed", obj.opt("wind_speed"))
+                .putOpt("deg", obj.opt("wind_deg"));
+    }
+
+    private static JSONObject toForecast(JSONArray list, JSONObject coord) throws JSONException {
+        return new JSONObject()
+                .put("cod", 200)
+                .put("cnt", list.length())
+                .put("list", list)
+                .put("city", new JSONObject().put("coord", coord));
+    }
+
+    /**
+     * @return <code>true</code> if the response contains any weather data, otherwise <code>false</code>.
+     */
+    public boolean isValid() {
+        return this.currentWeather != null || this.hourlyForecast != null || this.dailyForecast != null;
+    }
+
+    /**
+     * @return <code>true</code> if coordinates are available, otherwise <code>false</code>.
+     */
+    public boolean hasCoordinates() {
+        return !Float.isNaN(this.latitude) && !Float.isNaN(this.longitude);
+    }
+
+    /**
+     * @return Latitude if available, otherwise <code>Float.NaN</code>.
+     */
+    public float getLatitude() {
+        return this.latitude;
+    }
+
+    /**
+     * @return Longitude if available, otherwise <code>Float.NaN</code>.
+     */
+    public float getLongitude() {
+        return this.longitude;
+    }
+
+    /**
+     * @return <code>true</code> if the timezone offset is available, otherwise <code>false</code>.
+     */
+    public boolean hasTimezoneOffset() {
+        return this.timezoneOffset != Integer.MIN_VALUE;
+    }
+
+    /**
+     * @return Offset of the local timezone from UTC in seconds if available, otherwise <code>Integer.MIN_VALUE</code>.
+     */
+    public int getTimezoneOffset() {
+        return this.timezoneOffset;
+    }
+
+    /**
+     * @return Current weather if it was requested, otherwise <code>null</code>.
+     */
+    public CurrentWeather getCurrentWeather() {
+        return this.currentWeather;
+    }
+
+    /**
+     * @return Hourly forecast if it was requested, otherwise <code>null</code>.
+     */
+    public HourlyForecast getHourlyForecast() {
+        return this.hourlyForecast;
+    }
+
+    /**
+     * @return Daily forecast if it was requested, otherwise <code>null</code>.
+     */
+    public DailyForecast getDailyForecast() {
+        return this.dailyForecast;
+    }
+}
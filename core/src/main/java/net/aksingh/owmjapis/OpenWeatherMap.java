@@ -0,0 +1,1020 @@
+/*
+ * Copyright (c) 2013-2015 Ashutosh Kumar Singh <me@aksingh.net>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.aksingh.owmjapis;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.Collection;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.CacheControl;
+import okhttp3.Call;
+import okhttp3.ConnectionPool;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.ForwardingSource;
+import okio.Okio;
+
+/**
+ * <p>
+ *     <b>The starting point for all API operations.</b>
+ *     If you're new to this API, read the docs for this class first.
+ * </p>
+ * <p>
+ * Lets you access data from OpenWeatherMap.org using its Weather APIs.
+ * Henceforth, it's shortened as OWM.org to ease commenting.
+ * </p>
+ * <p>
+ * <b>Sample code:</b><br>
+ * <code>OpenWeatherMap.org owm = new OpenWeatherMap("your-api-key");</code><br>
+ * <code>OpenWeatherMap.org owm = new OpenWeatherMap(your-units, "your-api-key");</code><br>
+ * <code>OpenWeatherMap.org owm = new OpenWeatherMap(your-units, your-language, "your-api-key");</code>
+ * </p>
+ * <p>
+ * Instances can be shared between threads. Use the <code>with</code> methods to get a client
+ * with different options that shares the same HTTP client, rather than the deprecated setters.
+ * For many concurrent requests, use {@link #sharedHttpClient()}.
+ * </p>
+ *
+ * @author Ashutosh Kumar Singh &lt;me@aksingh.net&gt;
+ * @version 2015-01-17
+ * @see <a href="http://openweathermap.org/">OpenWeatherMap.org</a>
+ * @see <a href="http://openweathermap.org/api">OpenWeatherMap.org API</a>
+ * @since 2.5.0.1
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class OpenWeatherMap {
+    private static final Logger logger = LoggerFactory.getLogger(OpenWeatherMap.class);
+
+    /*
+    URLs and parameters for OWM.org
+     */
+    public static final String URL_API = "http://api.openweathermap.org/data/2.5/";
+    private static final String URL_CURRENT = "weather?";
+    private static final String URL_HOURLY_FORECAST = "forecast?";
+    private static final String URL_DAILY_FORECAST = "forecast/daily?";
+    private static final String URL_ONE_CALL = "onecall?";
+
+    private static final String PARAM_COUNT = "cnt=";
+    private static final String PARAM_CITY_NAME = "q=";
+    private static final String PARAM_CITY_ID = "id=";
+    private static final String PARAM_LATITUDE = "lat=";
+    private static final String PARAM_LONGITUDE = "lon=";
+    private static final String PARAM_MODE = "mode=";
+    private static final String PARAM_UNITS = "units=";
+    private static final String PARAM_APPID = "appId=";
+    private static final String PARAM_LANG = "lang=";
+    private static final String PARAM_EXCLUDE = "exclude=";
+
+    /**
+     * Languages that can be set for getting data from OWM.org
+     *
+     * @since 2.5.0.3
+     */
+    public static final String LANGUAGE_ENGLISH = "en";
+    public static final String LANGUAGE_RUSSIAN = "ru";
+    public static final String LANGUAGE_ITALIAN = "it";
+    public static final String LANGUAGE_SPANISH = "es";
+    public static final String LANGUAGE_UKRAINIAN = "uk";
+    public static final String LANGUAGE_GERMAN = "de";
+    public static final String LANGUAGE_PORTUGUESE = "pt";
+    public static final String LANGUAGE_ROMANIAN = "ro";
+    public static final String LANGUAGE_POLISH = "pl";
+    public static final String LANGUAGE_FINNISH = "fi";
+    public static final String LANGUAGE_DUTCH = "nl";
+    public static final String LANGUAGE_FRENCH = "FR";
+    public static final String LANGUAGE_BULGARIAN = "bg";
+    public static final String LANGUAGE_SWEDISH = "sv";
+    public static final String LANGUAGE_CHINESE_TRADITIONAL = "zh_tw";
+    public static final String LANGUAGE_CHINESE_SIMPLIFIED = "zh";
+    public static final String LANGUAGE_TURKISH = "tr";
+    public static final String LANGUAGE_CROATIAN = "hr";
+    public static final String LANGUAGE_CATALAN = "ca";
+
+    /**
+     * Units that can be set for getting data from OWM.org
+     *
+     * @since 2.5.0.3
+     */
+    public static final String UNITS_METRIC = "metric";
+    public static final String UNITS_IMPERIAL = "imperial";
+
+    /**
+     * Parts of the One Call API response. Parts that are not requested are excluded from the
+     * response, to keep it small.
+     */
+    public static final String ONE_CALL_CURRENT = "current";
+    public static final String ONE_CALL_MINUTELY = "minutely";
+    public static final String ONE_CALL_HOURLY = "hourly";
+    public static final String ONE_CALL_DAILY = "daily";
+    public static final String ONE_CALL_ALERTS = "alerts";
+    private static final String[] ONE_CALL_PARTS = {ONE_CALL_CURRENT, ONE_CALL_MINUTELY,
+            ONE_CALL_HOURLY, ONE_CALL_DAILY, ONE_CALL_ALERTS};
+
+    private static OkHttpClient sharedHttpClient;
+
+    /*
+    Instance Variables
+     */
+    private volatile OWMAddress owmAddress;
+    private volatile OWMResponse owmResponse;
+    private final RequestListener listener;
+
+    /**
+     * Constructor
+     *
+     * @param apiKey API key from OWM.org
+     * @see <a href="http://openweathermap.org/appid">OWM.org API Key</a>
+     */
+    public OpenWeatherMap(String apiKey, OkHttpClient client) {
+        this(UNITS_IMPERIAL, "en", apiKey, client);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param units  Any constant from Units
+     * @param apiKey API key from OWM.org
+     * @see <a href="http://openweathermap.org/appid">OWM.org API Key</a>
+     */
+    public OpenWeatherMap(String units, String apiKey, OkHttpClient client) {
+        this(units, "en", apiKey, client);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param units  Any constant from Units
+     * @param lang   Any constant from Language
+     * @param apiKey API key from OWM.org
+     * @see <a href="http://openweathermap.org/current#multi">OWM.org's Multilingual support</a>
+     * @see <a href="http://openweathermap.org/appid">OWM.org's API Key</a>
+     */
+    public OpenWeatherMap(String units, String lang, String apiKey, OkHttpClient client) {
+        this(URL_API, units, lang, apiKey, client);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param baseUrl Base URL of the OWM.org compatible API, ending with a slash
+     * @param units  Any constant from Units
+     * @param lang   Any constant from Language
+     * @param apiKey API key from OWM.org
+     * @see <a href="http://openweathermap.org/current#multi">OWM.org's Multilingual support</a>
+     * @see <a href="http://openweathermap.org/appid">OWM.org's API Key</a>
+     */
+    public OpenWeatherMap(String baseUrl, String units, String lang, String apiKey, OkHttpClient client) {
+        this(baseUrl, units, lang, apiKey, client, null);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param baseUrl Base URL of the OWM.org compatible API, ending with a slash
+     * @param units  Any constant from Units
+     * @param lang   Any constant from Language
+     * @param apiKey API key from OWM.org
+     * @param listener Listener for request performance, may be <code>null</code>
+     * @see <a href="http://openweathermap.org/current#multi">OWM.org's Multilingual support</a>
+     * @see <a href="http://openweathermap.org/appid">OWM.org's API Key</a>
+     */
+    public OpenWeatherMap(String baseUrl, String units, String lang, String apiKey, OkHttpClient client, RequestListener listener) {
+        this(new OWMAddress(baseUrl, units, lang, apiKey), client, listener);
+    }
+
+    private OpenWeatherMap(OWMAddress owmAddress, OkHttpClient client, RequestListener listener) {
+        this.owmAddress = owmAddress;
+        this.owmResponse = new OWMResponse(client, owmAddress, listener);
+        this.listener = listener;
+    }
+
+    /**
+     * HTTP client for many concurrent requests to OWM.org, with a single connection pool. All
+     * clients created with {@link OkHttpClient#newBuilder()} from this client share its connection
+     * pool. Requests are made synchronously on the calling thread, so their concurrency is bounded
+     * by the executor of the caller, not by the dispatcher of the client.
+     *
+     * @return shared HTTP client
+     */
+    public static synchronized OkHttpClient sharedHttpClient() {
+        if (sharedHttpClient == null) {
+            sharedHttpClient = new OkHttpClient.Builder()
+                    .connectionPool(new ConnectionPool(64, 5, TimeUnit.MINUTES))
+                    .connectTimeout(10, TimeUnit.SECONDS)
+                    .readTimeout(10, TimeUnit.SECONDS)
+                    .writeTimeout(10, TimeUnit.SECONDS)
+                    .build();
+        }
+        return sharedHttpClient;
+    }
+
+    /*
+    Getters
+     */
+    public OWMAddress getOwmAddressInstance() {
+        return owmAddress;
+    }
+
+    public String getApiKey() {
+        return owmAddress.getAppId();
+    }
+
+    public String getUnits() {
+        return owmAddress.getUnits();
+    }
+
+    public String getMode() {
+        return owmAddress.getMode();
+    }
+
+    public String getLang() {
+        return owmAddress.getLang();
+    }
+
+    public String getBaseUrl() {
+        return owmAddress.getBaseUrl();
+    }
+
+    /*
+    Options
+     */
+
+    /**
+     * Get a client that uses different units, sharing the same HTTP client.
+     *
+     * @param units Any constant from Units
+     * @return new client
+     */
+    public OpenWeatherMap withUnits(String units) {
+        return new OpenWeatherMap(owmAddress.getBaseUrl(), units, owmAddress.getLang(),
+                owmAddress.getAppId(), owmResponse.client, listener);
+    }
+
+    /**
+     * Get a client that uses a different API key, sharing the same HTTP client.
+     *
+     * @param appId API key from OWM.org
+     * @return new client
+     * @see <a href="http://openweathermap.org/appid">OWM.org's API Key</a>
+     */
+    public OpenWeatherMap withApiKey(String appId) {
+        return new OpenWeatherMap(owmAddress.getBaseUrl(), owmAddress.getUnits(),
+                owmAddress.getLang(), appId, owmResponse.client, listener);
+    }
+
+    /**
+     * Get a client that uses a different language, sharing the same HTTP client.
+     *
+     * @param lang Any constant from Language
+     * @return new client
+     * @see <a href="http://openweathermap.org/current#multi">OWM.org's Multilingual support</a>
+     */
+    public OpenWeatherMap withLang(String lang) {
+        return new OpenWeatherMap(owmAddress.getBaseUrl(), owmAddress.getUnits(), lang,
+                owmAddress.getAppId(), owmResponse.client, listener);
+    }
+
+    /**
+     * Set units for getting data from OWM.org
+     *
+     * @param units Any constant from Units
+     * @deprecated changes the options of all users of this instance; use {@link #withUnits(String)}
+     */
+    @Deprecated
+    public void setUnits(String units) {
+        setAddress(new OWMAddress(owmAddress.getBaseUrl(), units, owmAddress.getLang(),
+                owmAddress.getAppId()));
+    }
+
+    /**
+     * Set API key for getting data from OWM.org
+     *
+     * @param appId API key from OWM.org
+     * @see <a href="http://openweathermap.org/appid">OWM.org's API Key</a>
+     * @deprecated changes the options of all users of this instance; use {@link #withApiKey(String)}
+     */
+    @Deprecated
+    public void setApiKey(String appId) {
+        setAddress(new OWMAddress(owmAddress.getBaseUrl(), owmAddress.getUnits(),
+                owmAddress.getLang(), appId));
+    }
+
+    /**
+     * Set language for getting data from OWM.org
+     *
+     * @param lang Any constant from Language
+     * @see <a href="http://openweathermap.org/current#multi">OWM.org's Multilingual support</a>
+     * @deprecated changes the options of all users of this instance; use {@link #withLang(String)}
+     */
+    @Deprecated
+    public void setLang(String lang) {
+        setAddress(new OWMAddress(owmAddress.getBaseUrl(), owmAddress.getUnits(), lang,
+                owmAddress.getAppId()));
+    }
+
+    private synchronized void setAddress(OWMAddress address) {
+        owmResponse = new OWMResponse(owmResponse.client, address, listener);
+        owmAddress = address;
+    }
+
+    /**
+     * Opens a connection to the OWM.org host, so that DNS lookup and connection setup are
+     * not part of the first actual request. The connection is kept in the connection pool of
+     * the HTTP client.
+     *
+     * @throws IOException if the host cannot be reached
+     */
+    public void warmUp() throws IOException {
+        owmResponse.warmUp();
+    }
+
+    public CurrentWeather currentWeatherByCityName(String cityName)
+            throws IOException, JSONException {
+        String response = owmResponse.currentWeatherByCityName(cityName);
+        return this.currentWeatherFromRawResponse(response);
+    }
+
+    public CurrentWeather currentWeatherByCityName(String cityName, String countryCode)
+            throws IOException, JSONException {
+        String response = owmResponse.currentWeatherByCityName(cityName, countryCode);
+        return this.currentWeatherFromRawResponse(response);
+    }
+
+    public CurrentWeather currentWeatherByCityCode(long cityCode)
+            throws JSONException {
+        String response = owmResponse.currentWeatherByCityCode(cityCode);
+        return this.currentWeatherFromRawResponse(response);
+    }
+
+    /**
+     * Current weather by city code, cancelling the request if it takes longer than the timeout.
+     *
+     * @param cityCode city code of OpenWeatherMap
+     * @param timeout maximum time for the request, including connecting and reading the response
+     * @param unit unit of the timeout
+     * @return current weather, which is not valid if the request failed or timed out
+     */
+    public CurrentWeather currentWeatherByCityCode(long cityCode, long timeout, TimeUnit unit)
+            throws JSONException {
+        String response = owmResponse.currentWeatherByCityCode(cityCode, unit.toNanos(timeout));
+        return this.currentWeatherFromRawResponse(response);
+    }
+
+    public CurrentWeather currentWeatherByCoordinates(float latitude, float longitude)
+            throws JSONException {
+        String response = owmResponse.currentWeatherByCoordinates(latitude, longitude);
+        return this.currentWeatherFromRawResponse(response);
+    }
+
+    /**
+     * Current weather by coordinates, cancelling the request if it takes longer than the timeout.
+     *
+     * @param latitude latitude
+     * @param longitude longitude
+     * @param timeout maximum time for the request, including connecting and reading the response
+     * @param unit unit of the timeout
+     * @return current weather, which is not valid if the request failed or timed out
+     */
+    public CurrentWeather currentWeatherByCoordinates(float latitude, float longitude, long timeout, TimeUnit unit)
+            throws JSONException {
+        String response = owmResponse.currentWeatherByCoordinates(latitude, longitude, unit.toNanos(timeout));
+        return this.currentWeatherFromRawResponse(response);
+    }
+
+    public CurrentWeather currentWeatherFromRawResponse(String response)
+            throws JSONException {
+        long startTime = System.nanoTime();
+        JSONObject jsonObj = (response != null) ? new JSONObject(response) : null;
+        CurrentWeather result = new CurrentWeather(jsonObj);
+        onParsed(startTime);
+        return result;
+    }
+
+    public HourlyForecast hourlyForecastByCityName(String cityName)
+            throws IOException, JSONException {
+        String response = owmResponse.hourlyForecastByCityName(cityName);
+        return this.hourlyForecastFromRawResponse(response);
+    }
+
+    public HourlyForecast hourlyForecastByCityName(String cityName, String countryCode)
+            throws IOException, JSONException {
+        String response = owmResponse.hourlyForecastByCityName(cityName, countryCode);
+        return this.hourlyForecastFromRawResponse(response);
+    }
+
+    public HourlyForecast hourlyForecastByCityCode(long cityCode)
+            throws JSONException {
+        String response = owmResponse.hourlyForecastByCityCode(cityCode);
+        return this.hourlyForecastFromRawResponse(response);
+    }
+
+    public HourlyForecast hourlyForecastByCoordinates(float latitude, float longitude)
+            throws JSONException {
+        String response = owmResponse.hourlyForecastByCoordinates(latitude, longitude);
+        return this.hourlyForecastFromRawResponse(response);
+    }
+
+    /**
+     * Hourly forecast by coordinates, cancelling the request if it takes longer than the timeout.
+     *
+     * @param latitude latitude
+     * @param longitude longitude
+     * @param timeout maximum time for the request, including connecting and reading the response
+     * @param unit unit of the timeout
+     * @return hourly forecast, which is not valid if the request failed or timed out
+     */
+    public HourlyForecast hourlyForecastByCoordinates(float latitude, float longitude, long timeout, TimeUnit unit)
+            throws JSONException {
+        String response = owmResponse.hourlyForecastByCoordinates(latitude, longitude, unit.toNanos(timeout));
+        return this.hourlyForecastFromRawResponse(response);
+    }
+
+    public HourlyForecast hourlyForecastFromRawResponse(String response)
+            throws JSONException {
+        long startTime = System.nanoTime();
+        JSONObject jsonObj = (response != null) ? new JSONObject(response) : null;
+        HourlyForecast result = new HourlyForecast(jsonObj);
+        onParsed(startTime);
+        return result;
+    }
+
+    public DailyForecast dailyForecastByCityName(String cityName, byte count)
+            throws IOException, JSONException {
+        String response = owmResponse.dailyForecastByCityName(cityName, count);
+        return this.dailyForecastFromRawResponse(response);
+    }
+
+    public DailyForecast dailyForecastByCityName(String cityName, String countryCode, byte count)
+            throws IOException, JSONException {
+        String response = owmResponse.dailyForecastByCityName(cityName, countryCode, count);
+        return this.dailyForecastFromRawResponse(response);
+    }
+
+    public DailyForecast dailyForecastByCityCode(long cityCode, byte count)
+            throws JSONException {
+        String response = owmResponse.dailyForecastByCityCode(cityCode, count);
+        return this.dailyForecastFromRawResponse(response);
+    }
+
+    public DailyForecast dailyForecastByCoordinates(float latitude, float longitude, byte count)
+            throws JSONException {
+        String response = owmResponse.dailyForecastByCoordinates(latitude, longitude, count);
+        return this.dailyForecastFromRawResponse(response);
+    }
+
+    public DailyForecast dailyForecastFromRawResponse(String response)
+            throws JSONException {
+        long startTime = System.nanoTime();
+        JSONObject jsonObj = (response != null) ? new JSONObject(response) : null;
+        DailyForecast result = new DailyForecast(jsonObj);
+        onParsed(startTime);
+        return result;
+    }
+
+    /**
+     * Current weather and forecasts by coordinates in a single request to the One Call API.
+     *
+     * @param latitude latitude
+     * @param longitude longitude
+     * @param parts parts to include in the response, from the <code>ONE_CALL_*</code> constants.
+     *              All other parts are excluded.
+     * @return weather, which is not valid if the request failed
+     */
+    public OneCallWeather oneCallByCoordinates(float latitude, float longitude, Collection<String> parts)
+            throws JSONException {
+        String response = owmResponse.oneCallByCoordinates(latitude, longitude, parts, Long.MAX_VALUE);
+        return this.oneCallFromRawResponse(response);
+    }
+
+    /**
+     * Current weather and forecasts by coordinates in a single request to the One Call API,
+     * cancelling the request if it takes longer than the timeout.
+     *
+     * @param latitude latitude
+     * @param longitude longitude
+     * @param parts parts to include in the response, from the <code>ONE_CALL_*</code> constants.
+     *              All other parts are excluded.
+     * @param timeout maximum time for the request, including connecting and reading the response
+     * @param unit unit of the timeout
+     * @return weather, which is not valid if the request failed or timed out
+     */
+    public OneCallWeather oneCallByCoordinates(float latitude, float longitude, Collection<String> parts,
+            long timeout, TimeUnit unit) throws JSONException {
+        String response = owmResponse.oneCallByCoordinates(latitude, longitude, parts, unit.toNanos(timeout));
+        return this.oneCallFromRawResponse(response);
+    }
+
+    public OneCallWeather oneCallFromRawResponse(String response)
+            throws JSONException {
+        long startTime = System.nanoTime();
+        JSONObject jsonObj = (response != null) ? new JSONObject(response) : null;
+        OneCallWeather result = new OneCallWeather(jsonObj);
+        onParsed(startTime);
+        return result;
+    }
+
+    private void onParsed(long startTime) {
+        if (listener != null) {
+            listener.onParsed(System.nanoTime() - startTime);
+        }
+    }
+
+    /**
+     * Listener for the performance of requests to OWM.org. Methods are called on the thread that
+     * makes the request.
+     */
+    public interface RequestListener {
+        /**
+         * A response was received.
+         *
+         * @param code HTTP status code
+         * @param bytes number of compressed response body bytes received from the network
+         * @param durationNanos time from sending the request until the body was read
+         * @param fromCache whether the response was served from the HTTP cache
+         */
+        void onResponse(int code, long bytes, long durationNanos, boolean fromCache);
+
+        /**
+         * A request failed without a response.
+         *
+         * @param ex cause of the failure
+         * @param durationNanos time from sending the request until the failure
+         */
+        void onFailure(IOException ex, long durationNanos);
+
+        /**
+         * A response was parsed.
+         *
+         * @param durationNanos time taken to parse the response
+         */
+        void onParsed(long durationNanos);
+    }
+
+    /**
+     * Generates addresses for accessing the information from OWM.org
+     *
+     * @since 2.5.0.3
+     */
+    @SuppressWarnings({"unused", "WeakerAccess"})
+    public static class OWMAddress {
+        private static final String MODE = "json";
+        private static final String ENCODING = "UTF-8";
+
+        private final String baseUrl;
+        private final String mode;
+        private final String units;
+        private final String appId;
+        private final String lang;
+
+        /*
+        Constructors
+         */
+        private OWMAddress(String appId) {
+            this(UNITS_IMPERIAL, "en", appId);
+        }
+
+        private OWMAddress(String units, String appId) {
+            this(units, "en", appId);
+        }
+
+        private OWMAddress(String units, String lang, String appId) {
+            this(URL_API, units, lang, appId);
+        }
+
+        private OWMAddress(String baseUrl, String units, String lang, String appId) {
+            this.baseUrl = baseUrl;
+            this.mode = MODE;
+            this.units = units;
+            this.lang = lang;
+            this.appId = appId;
+        }
+
+        /*
+        Getters
+         */
+        private String getAppId() {
+            return this.appId;
+        }
+
+        private String getUnits() {
+            return this.units;
+        }
+
+        private String getMode() {
+            return this.mode;
+        }
+
+        private String getLang() {
+            return this.lang;
+        }
+
+        private String getBaseUrl() {
+            return this.baseUrl;
+        }
+
+        /*
+        Addresses for current weather
+         */
+        public String currentWeatherByCityName(String cityName) throws UnsupportedEncodingException {
+            return this.baseUrl + URL_CURRENT +
+                    PARAM_CITY_NAME + URLEncoder.encode(cityName, ENCODING) + "&" +
+                    PARAM_MODE + this.mode + "&" +
+                    PARAM_UNITS + this.units + "&" +
+                    PARAM_LANG + this.lang + "&" +
+                    PARAM_APPID + this.appId;
+        }
+
+        public String currentWeatherByCityName(String cityName, String countryCode) throws UnsupportedEncodingException {
+            return currentWeatherByCityName(cityName + "," + countryCode);
+        }
+
+        public String currentWeatherByCityCode(long cityCode) {
+            return this.baseUrl + URL_CURRENT +
+                    PARAM_CITY_ID + Long.toString(cityCode) + "&" +
+                    PARAM_MODE + this.mode + "&" +
+                    PARAM_UNITS + this.units + "&" +
+                    PARAM_LANG + this.lang + "&" +
+                    PARAM_APPID + this.appId;
+        }
+
+        public String currentWeatherByCoordinates(float latitude, float longitude) {
+            return this.baseUrl + URL_CURRENT +
+                    PARAM_LATITUDE + Float.toString(latitude) + "&" +
+                    PARAM_LONGITUDE + Float.toString(longitude) + "&" +
+                    PARAM_MODE + this.mode + "&" +
+                    PARAM_UNITS + this.units + "&" +
+                    PARAM_APPID + this.appId;
+        }
+
+        /*
+        Addresses for hourly forecasts
+         */
+        public String hourlyForecastByCityName(String cityName) throws UnsupportedEncodingException {
+            return this.baseUrl + URL_HOURLY_FORECAST +
+                    PARAM_CITY_NAME + URLEncoder.encode(cityName, ENCODING) + "&" +
+                    PARAM_MODE + this.mode + "&" +
+                    PARAM_UNITS + this.units + "&" +
+                    PARAM_LANG + this.lang + "&" +
+                    PARAM_APPID + this.appId;
+        }
+
+        public String hourlyForecastByCityName(String cityName, String countryCode) throws UnsupportedEncodingException {
+            return hourlyForecastByCityName(cityName + "," + countryCode);
+        }
+
+        public String hourlyForecastByCityCode(long cityCode) {
+            return this.baseUrl + URL_HOURLY_FORECAST +
+                    PARAM_CITY_ID + Long.toString(cityCode) + "&" +
+                    PARAM_MODE + this.mode + "&" +
+                    PARAM_UNITS + this.units + "&" +
+                    PARAM_LANG + this.lang + "&" +
+                    PARAM_APPID + this.appId;
+        }
+
+        public String hourlyForecastByCoordinates(float latitude, float longitude) {
+            return this.baseUrl + URL_HOURLY_FORECAST +
+                    PARAM_LATITUDE + Float.toString(latitude) + "&" +
+                    PARAM_LONGITUDE + Float.toString(longitude) + "&" +
+                    PARAM_MODE + this.mode + "&" +
+                    PARAM_UNITS + this.units + "&" +
+                    PARAM_LANG + this.lang + "&" +
+                    PARAM_APPID + this.appId;
+        }
+
+        /*
+        Addresses for daily forecasts
+         */
+        public String dailyForecastByCityName(String cityName, byte count) throws UnsupportedEncodingException {
+            return this.baseUrl + URL_DAILY_FORECAST +
+                    PARAM_CITY_NAME + URLEncoder.encode(cityName, ENCODING) + "&" +
+                    PARAM_COUNT + Byte.toString(count) + "&" +
+                    PARAM_MODE + this.mode + "&" +
+                    PARAM_UNITS + this.units + "&" +
+                    PARAM_LANG + this.lang + "&" +
+                    PARAM_APPID + this.appId;
+        }
+
+        public String dailyForecastByCityName(String cityName, String countryCode, byte count) throws UnsupportedEncodingException {
+            return dailyForecastByCityName(cityName + "," + countryCode, count);
+        }
+
+        public String dailyForecastByCityCode(long cityCode, byte count) {
+            return this.baseUrl + URL_DAILY_FORECAST +
+                    PARAM_CITY_ID + Long.toString(cityCode) + "&" +
+                    PARAM_COUNT + Byte.toString(count) + "&" +
+                    PARAM_MODE + this.mode + "&" +
+                    PARAM_UNITS + this.units + "&" +
+                    PARAM_LANG + this.lang + "&" +
+                    PARAM_APPID + this.appId;
+        }
+
+        public String dailyForecastByCoordinates(float latitude, float longitude, byte count) {
+            return this.baseUrl + URL_DAILY_FORECAST +
+                    PARAM_LATITUDE + Float.toString(latitude) + "&" +
+                    PARAM_LONGITUDE + Float.toString(longitude) + "&" +
+                    PARAM_COUNT + Byte.toString(count) + "&" +
+                    PARAM_MODE + this.mode + "&" +
+                    PARAM_UNITS + this.units + "&" +
+                    PARAM_LANG + this.lang + "&" +
+                    PARAM_APPID + this.appId;
+        }
+
+        /*
+        Addresses for the One Call API
+         */
+        public String oneCallByCoordinates(float latitude, float longitude, Collection<String> parts) {
+            StringBuilder exclude = new StringBuilder();
+            for (String part : ONE_CALL_PARTS) {
+                if (!parts.contains(part)) {
+                    if (exclude.length() > 0) {
+                        exclude.append(',');
+                    }
+                    exclude.append(part);
+                }
+            }
+            return this.baseUrl + URL_ONE_CALL +
+                    PARAM_LATITUDE + Float.toString(latitude) + "&" +
+                    PARAM_LONGITUDE + Float.toString(longitude) + "&" +
+                    (exclude.length() > 0 ? PARAM_EXCLUDE + exclude + "&" : "") +
+                    PARAM_UNITS + this.units + "&" +
+                    PARAM_LANG + this.lang + "&" +
+                    PARAM_APPID + this.appId;
+        }
+    }
+
+    /**
+     * Requests OWM.org for data and provides back the incoming response.
+     *
+     * @since 2.5.0.3
+     */
+    @SuppressWarnings("WeakerAccess")
+    private static class OWMResponse {
+        private static ScheduledExecutorService cancelScheduler;
+
+        private final OWMAddress owmAddress;
+        private final OkHttpClient client;
+        private final RequestListener listener;
+
+        public OWMResponse(OkHttpClient client, OWMAddress owmAddress, RequestListener listener) {
+            this.owmAddress = owmAddress;
+            // the derived client shares the connection pool and dispatcher of the given client
+            this.client = listener != null
+                    && !client.networkInterceptors().contains(NETWORK_BYTE_COUNTER)
+                    ? client.newBuilder().addNetworkInterceptor(NETWORK_BYTE_COUNTER).build()
+                    : client;
+            this.listener = listener;
+        }
+
+        /**
+         * Counts the bytes of a response body as they are received from the network, before
+         * they are decompressed. Only counts requests that have a {@link ByteCounter} tag.
+         */
+        private static final Interceptor NETWORK_BYTE_COUNTER = chain -> {
+            Response response = chain.proceed(chain.request());
+            Object tag = chain.request().tag();
+            ResponseBody body = response.body();
+            if (!(tag instanceof ByteCounter) || body == null) {
+                return response;
+            }
+            final ByteCounter counter = (ByteCounter) tag;
+            ForwardingSource source = new ForwardingSource(body.source()) {
+                @Override
+                public long read(Buffer sink, long byteCount) throws IOException {
+                    long numRead = super.read(sink, byteCount);
+                    if (numRead > 0) {
+                        counter.bytes += numRead;
+                    }
+                    return numRead;
+                }
+            };
+            return response.newBuilder()
+                    .body(ResponseBody.create(body.contentType(), body.contentLength(),
+                            Okio.buffer(source)))
+                    .build();
+        };
+
+        /** Number of response body bytes received from the network for a single request. */
+        private static final class ByteCounter {
+            private volatile long bytes;
+        }
+
+        /**
+         * Opens a connection to the API host with a HEAD request. The response itself is
+         * discarded.
+         */
+        public void warmUp() throws IOException {
+            Request request = new Request.Builder()
+                    .head()
+                    .url(owmAddress.getBaseUrl())
+                    .cacheControl(CacheControl.FORCE_NETWORK)
+                    .build();
+
+            try (Response response = client.newCall(request).execute()) {
+                logger.debug("Warmed up connection to {} (HTTP code {})",
+                        owmAddress.getBaseUrl(), response.code());
+            }
+        }
+
+        /*
+        Responses for current weather
+         */
+        public String currentWeatherByCityName(String cityName) throws UnsupportedEncodingException {
+            String address = owmAddress.currentWeatherByCityName(cityName);
+            return httpGET(address);
+        }
+
+        public String currentWeatherByCityName(String cityName, String countryCode) throws UnsupportedEncodingException {
+            String address = owmAddress.currentWeatherByCityName(cityName, countryCode);
+            return httpGET(address);
+        }
+
+        public String currentWeatherByCityCode(long cityCode) {
+            String address = owmAddress.currentWeatherByCityCode(cityCode);
+            return httpGET(address);
+        }
+
+        public String currentWeatherByCityCode(long cityCode, long timeoutNanos) {
+            String address = owmAddress.currentWeatherByCityCode(cityCode);
+            return httpGET(address, timeoutNanos);
+        }
+
+        public String currentWeatherByCoordinates(float latitude, float longitude) {
+            String address = owmAddress.currentWeatherByCoordinates(latitude, longitude);
+            return httpGET(address);
+        }
+
+        public String currentWeatherByCoordinates(float latitude, float longitude, long timeoutNanos) {
+            String address = owmAddress.currentWeatherByCoordinates(latitude, longitude);
+            return httpGET(address, timeoutNanos);
+        }
+
+        /*
+        Responses for hourly forecasts
+         */
+        public String hourlyForecastByCityName(String cityName) throws UnsupportedEncodingException {
+            String address = owmAddress.hourlyForecastByCityName(cityName);
+            return httpGET(address);
+        }
+
+        public String hourlyForecastByCityName(String cityName, String countryCode) throws UnsupportedEncodingException {
+            String address = owmAddress.hourlyForecastByCityName(cityName, countryCode);
+            return httpGET(address);
+        }
+
+        public String hourlyForecastByCityCode(long cityCode) {
+            String address = owmAddress.hourlyForecastByCityCode(cityCode);
+            return httpGET(address);
+        }
+
+        public String hourlyForecastByCoordinates(float latitude, float longitude) {
+            String address = owmAddress.hourlyForecastByCoordinates(latitude, longitude);
+            return httpGET(address);
+        }
+
+        public String hourlyForecastByCoordinates(float latitude, float longitude, long timeoutNanos) {
+            String address = owmAddress.hourlyForecastByCoordinates(latitude, longitude);
+            return httpGET(address, timeoutNanos);
+        }
+
+        /*
+        Responses for daily forecasts
+         */
+        public String dailyForecastByCityName(String cityName, byte count) throws UnsupportedEncodingException {
+            String address = owmAddress.dailyForecastByCityName(cityName, count);
+            return httpGET(address);
+        }
+
+        public String dailyForecastByCityName(String cityName, String countryCode, byte count) throws UnsupportedEncodingException {
+            String address = owmAddress.dailyForecastByCityName(cityName, countryCode, count);
+            return httpGET(address);
+        }
+
+        public String dailyForecastByCityCode(long cityCode, byte count) {
+            String address = owmAddress.dailyForecastByCityCode(cityCode, count);
+            return httpGET(address);
+        }
+
+        public String dailyForecastByCoordinates(float latitude, float longitude, byte count) {
+            String address = owmAddress.dailyForecastByCoordinates(latitude, longitude, count);
+            return httpGET(address);
+        }
+
+        /*
+        Responses for the One Call API
+         */
+        public String oneCallByCoordinates(float latitude, float longitude, Collection<String> parts, long timeoutNanos) {
+            String address = owmAddress.oneCallByCoordinates(latitude, longitude, parts);
+            return httpGET(address, timeoutNanos);
+        }
+
+        /**
+         * Implements HTTP's GET method
+         *
+         * @param requestAddress Address to be loaded
+         * @return Response if successful, else <code>null</code>
+         * @see <a href="http://www.w3.org/Protocols/rfc2616/rfc2616-sec9.html">HTTP - (9.3) GET</a>
+         */
+        private String httpGET(String requestAddress) {
+            return httpGET(requestAddress, Long.MAX_VALUE);
+        }
+
+        /**
+         * Implements HTTP's GET method, cancelling the request after a timeout.
+         *
+         * @param requestAddress Address to be loaded
+         * @param timeoutNanos Maximum duration of the request, or <code>Long.MAX_VALUE</code> for
+         *                     no limit other than the timeouts of the HTTP client.
+         * @return Response if successful, else <code>null</code>
+         */
+        private String httpGET(String requestAddress, long timeoutNanos) {
+            if (timeoutNanos <= 0) {
+                logger.error("No time left to call OpenWeatherMap API");
+                return null;
+            }
+            ByteCounter byteCounter = new ByteCounter();
+            Request request = new Request.Builder()
+                    .get()
+                    .url(requestAddress)
+                    .cacheControl(CacheControl.FORCE_NETWORK)
+                    .tag(byteCounter)
+                    .build();
+
+            long startTime = System.nanoTime();
+            Call call = client.newCall(request);
+            ScheduledFuture<?> timeout = timeoutNanos != Long.MAX_VALUE
+                    ? cancelScheduler().schedule(call::cancel, timeoutNanos, TimeUnit.NANOSECONDS)
+                    : null;
+            try (Response response = call.execute()) {
+                ResponseBody body = response.body();
+                String responseString = body != null ? body.string() : null;
+                if (listener != null) {
+                    listener.onResponse(response.code(), byteCounter.bytes,
+                            System.nanoTime() - startTime, response.networkResponse() == null);
+                }
+                if (!response.isSuccessful() || responseString == null) {
+                    logger.error("Failed to request body (HTTP code {}): {}", response.code(), responseString);
+                    return null;
+                }
+                return responseString;
+            } catch (IOException e) {
+                if (listener != null) {
+                    listener.onFailure(e, System.nanoTime() - startTime);
+                }
+                logger.error("Failed to call OpenWeatherMap API", e);
+                return null;
+            } finally {
+                if (timeout != null) {
+                    timeout.cancel(false);
+                }
+            }
+        }
+
+        /** Scheduler that cancels calls when their timeout passes. */
+        private static synchronized ScheduledExecutorService cancelScheduler() {
+            if (cancelScheduler == null) {
+                ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+                    Thread thread = new Thread(runnable, "OpenWeatherMap-timeout");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                scheduler.setRemoveOnCancelPolicy(true);
+                cancelScheduler = scheduler;
+            }
+            return cancelScheduler;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.weather;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Dns;
+
+/**
+ * DNS resolver that caches lookups of a delegate resolver. Android does not reliably cache DNS
+ * lookups between infrequent requests, so without it every weather request starts with a DNS
+ * lookup. If a lookup fails, for example because the network just came up, a cached result is
+ * used even if it has expired.
+ */
+public class CachingDns implements Dns {
+    private static final Logger logger = LoggerFactory.getLogger(CachingDns.class);
+
+    private final Dns delegate;
+    private final long ttlNanos;
+    private final NanoClock clock;
+    private final ConcurrentMap<String, Entry> cache;
+
+    /**
+     * Caching resolver.
+     * @param delegate resolver to look up hosts that are not cached
+     * @param ttl time to keep a lookup result
+     * @param unit unit of the time to live
+     */
+    public CachingDns(Dns delegate, long ttl, TimeUnit unit) {
+        this(delegate, ttl, unit, NanoClock.SYSTEM);
+    }
+
+    /**
+     * Caching resolver.
+     * @param delegate resolver to look up hosts that are not cached
+     * @param ttl time to keep a lookup result
+     * @param unit unit of the time to live
+     * @param clock clock to expire lookups with. It should keep running while the device
+     *              sleeps, so that lookups do not outlive their time to live.
+     */
+    public CachingDns(Dns delegate, long ttl, TimeUnit unit, NanoClock clock) {
+        this.delegate = delegate;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.clock = clock;
+        this.cache = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+        long now = clock.nanoTime();
+        Entry entry = cache.get(hostname);
+        if (entry != null && now - entry.expiryTime < 0) {
+            return entry.addresses;
+        }
+        try {
+            List<InetAddress> addresses = delegate.lookup(hostname);
+            cache.put(hostname, new Entry(addresses, clock.nanoTime() + ttlNanos));
+            return addresses;
+        } catch (UnknownHostException ex) {
+            if (entry == null) {
+                throw ex;
+            }
+            logger.debug("Failed to look up {}, using expired addresses {}", hostname, entry.addresses);
+            return entry.addresses;
+        }
+    }
+
+    /** Remove all cached lookups. */
+    public void clear() {
+        cache.clear();
+    }
+
+    private static class Entry {
+        private final List<InetAddress> addresses;
+        private final long expiryTime;
+
+        private Entry(List<InetAddress> addresses, long expiryTime) {
+            this.addresses = addresses;
+            this.expiryTime = expiryTime;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.weather;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persistent mapping from grid cells to city IDs of a weather provider. Once a location has been
+ * resolved to a city, later requests in the same cell can query the city directly. Cells are
+ * small compared to cities, so many cells map to the same city. If the maximum number of cells is
+ * exceeded, the least recently used cell is removed. The mapping is stored in a small binary file.
+ * New cells are written at most once per store interval, and pending cells are written by
+ * {@link #flush()}.
+ */
+public class CityIdCache {
+    private static final Logger logger = LoggerFactory.getLogger(CityIdCache.class);
+    private static final int FORMAT_VERSION = 1;
+    private static final long DEFAULT_STORE_INTERVAL_MINUTES = 5L;
+
+    private final double cellSize;
+    private final int maxEntries;
+    private final File file;
+    private final long storeIntervalNanos;
+    private final NanoClock clock;
+    private final Map<Long, Long> cityIds;
+    private boolean isLoaded;
+    private boolean isDirty;
+    private long lastStoreTime;
+
+    /**
+     * City ID cache that writes new cells at most every five minutes.
+     * @param cellSize size of a grid cell in degrees
+     * @param maxEntries maximum number of cells to keep
+     * @param file file to store the mapping in, or {@code null} to keep it in memory only.
+     */
+    public CityIdCache(double cellSize, int maxEntries, File file) {
+        this(cellSize, maxEntries, file, DEFAULT_STORE_INTERVAL_MINUTES, TimeUnit.MINUTES,
+                NanoClock.SYSTEM);
+    }
+
+    /**
+     * City ID cache.
+     * @param cellSize size of a grid cell in degrees
+     * @param maxEntries maximum number of cells to keep
+     * @param file file to store the mapping in, or {@code null} to keep it in memory only.
+     * @param storeInterval minimum time between two writes of the file. The first new cell is
+     *                      written immediately.
+     * @param unit unit of the store interval
+     * @param clock clock to measure the store interval with
+     */
+    public CityIdCache(double cellSize, final int maxEntries, File file, long storeInterval,
+            TimeUnit unit, NanoClock clock) {
+        this.cellSize = cellSize;
+        this.maxEntries = maxEntries;
+        this.file = file;
+        this.storeIntervalNanos = unit.toNanos(storeInterval);
+        this.clock = clock;
+        this.lastStoreTime = clock.nanoTime() - storeIntervalNanos;
+        this.cityIds = new LinkedHashMap<Long, Long>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Long> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * City ID of a location.
+     * @param latitude WGS84 latitude
+     * @param longitude WGS84 longitude
+     * @return city ID or {@code null} if the location was not resolved before.
+     */
+    public synchronized Long get(double latitude, double longitude) {
+        load();
+        return cityIds.get(cellKey(latitude, longitude));
+    }
+
+    /**
+     * Store the city ID of a location. The file is written if the store interval has passed
+     * since the last write.
+     * @param latitude WGS84 latitude
+     * @param longitude WGS84 longitude
+     * @param cityId city ID that the provider resolved the location to
+     */
+    public synchronized void put(double latitude, double longitude, long cityId) {
+        load();
+        Long previous = cityIds.put(cellKey(latitude, longitude), cityId);
+        if (previous == null || previous != cityId) {
+            isDirty = true;
+            if (clock.nanoTime() - lastStoreTime >= storeIntervalNanos) {
+                store();
+            }
+        }
+    }
+
+    /** Write cells that were added since the last write. */
+    public synchronized void flush() {
+        if (isDirty) {
+            store();
+        }
+    }
+
+    /** Number of cells with a city ID. */
+    public synchronized int size() {
+        load();
+        return cityIds.size();
+    }
+
+    /** Remove all cells, including the stored ones. */
+    public synchronized void clear() {
+        cityIds.clear();
+        isLoaded = true;
+        isDirty = false;
+        if (file != null && file.exists() && !file.delete()) {
+            logger.warn("Cannot delete city ID cache {}", file);
+        }
+    }
+
+    /** Load the stored cells on first use. */
+    private void load() {
+        if (isLoaded) {
+            return;
+        }
+        isLoaded = true;
+        if (file == null || !file.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FORMAT_VERSION) {
+                logger.warn("Ignoring city ID cache {} with unknown format", file);
+                return;
+            }
+            int size = in.readInt();
+            for (int i = 0; i < size && i < maxEntries; i++) {
+                cityIds.put(in.readLong(), in.readLong());
+            }
+        } catch (EOFException ex) {
+            logger.warn("City ID cache {} is truncated. Using {} cells.", file, cityIds.size());
+        } catch (IOException ex) {
+            logger.warn("Cannot read city ID cache {}: {}", file, ex.toString());
+        }
+    }
+
+    /** Write all cells, replacing the stored file atomically where the file system allows it. */
+    private void store() {
+        isDirty = false;
+        lastStoreTime = clock.nanoTime();
+        if (file == null) {
+            return;
+        }
+        File tmpFile = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(cityIds.size());
+            for (Map.Entry<Long, Long> entry : cityIds.entrySet()) {
+                out.writeLong(entry.getKey());
+                out.writeLong(entry.getValue());
+            }
+        } catch (IOException ex) {
+            logger.warn("Cannot write city ID cache {}: {}", file, ex.toString());
+            return;
+        }
+        if (!tmpFile.renameTo(file) && !(file.delete() && tmpFile.renameTo(file))) {
+            logger.warn("Cannot replace city ID cache {}", file);
+        }
+    }
+
+    private Long cellKey(double latitude, double longitude) {
+        long latitudeIndex = (long) Math.floor((latitude + 90d) / cellSize);
+        long longitudeIndex = (long) Math.floor((longitude + 180d) / cellSize);
+        return (latitudeIndex << 32) | (longitudeIndex & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.weather;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Offline index of cities for nearest-city lookups. The index is a file with a regular grid of
+ * latitude and longitude cells, each pointing to the cities in it. The file is memory-mapped, so
+ * the index does not take heap space, and lookups only touch the cells near the location.
+ * Index files are created by {@link CityListImporter}.
+ *
+ * <p>File layout, big-endian: magic number, format version, cell size in degrees (double),
+ * number of rows and columns, number of cities, the index of the first city of each cell
+ * followed by the number of cities, and finally the cities as ID (int), latitude (float) and
+ * longitude (float), sorted by cell.
+ */
+public class CityIndex implements Closeable {
+    static final int MAGIC = 0x43495459;
+    static final int FORMAT_VERSION = 1;
+    static final int HEADER_SIZE = 4 + 4 + 8 + 4 + 4 + 4;
+    static final int RECORD_SIZE = 4 + 4 + 4;
+    private static final double METERS_PER_DEGREE = 111_320d;
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final double cellSize;
+    private final int rows;
+    private final int columns;
+    private final int size;
+    private final int recordsOffset;
+
+    private CityIndex(RandomAccessFile file, MappedByteBuffer buffer) throws IOException {
+        this.file = file;
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a city index file");
+        }
+        if (buffer.getInt(4) != FORMAT_VERSION) {
+            throw new IOException("Unsupported city index version " + buffer.getInt(4));
+        }
+        cellSize = buffer.getDouble(8);
+        rows = buffer.getInt(16);
+        columns = buffer.getInt(20);
+        size = buffer.getInt(24);
+        recordsOffset = HEADER_SIZE + 4 * (rows * columns + 1);
+        if (cellSize <= 0 || rows <= 0 || columns <= 0 || size < 0
+                || buffer.capacity() != recordsOffset + (long) size * RECORD_SIZE) {
+            throw new IOException("Corrupt city index file");
+        }
+    }
+
+    /**
+     * Open an index file.
+     * @param indexFile file created by {@link CityListImporter}
+     * @return index
+     * @throws IOException if the file cannot be read or is not a valid index
+     */
+    public static CityIndex open(File indexFile) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(indexFile, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new CityIndex(file, buffer);
+        } catch (IOException ex) {
+            file.close();
+            throw ex;
+        }
+    }
+
+    /** Number of cities in the index. */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Find the city nearest to a location.
+     * @param latitude WGS84 latitude
+     * @param longitude WGS84 longitude
+     * @param maxDistance maximum distance to the city in meters
+     * @return position of the city in the index, or -1 if no city is within the maximum distance.
+     */
+    public int findNearest(double latitude, double longitude, double maxDistance) {
+        int row = rowIndex(latitude);
+        int column = columnIndex(longitude);
+        int best = -1;
+        double bestDistance = maxDistance;
+        int maxRing = Math.max(rows, columns / 2);
+
+        for (int ring = 0; ring <= maxRing; ring++) {
+            if (ring > 0) {
+                // cells in this ring are at least (ring - 1) cells away from the location
+                double bound = (ring - 1) * cellSize * METERS_PER_DEGREE;
+                if (2 * ring - 1 < columns) {
+                    // the ring also contains columns that were not visited yet, which are
+                    // closer together towards the poles, up to the latitude within reach
+                    int reachableRows = Math.min(ring, rowsWithin(bestDistance));
+                    double edgeLatitude = Math.min(90d, Math.abs(latitude) + reachableRows * cellSize);
+                    bound *= Math.cos(Math.toRadians(edgeLatitude));
+                }
+                if (bound > bestDistance) {
+                    break;
+                }
+            }
+            for (int r = row - ring; r <= row + ring; r++) {
+                if (r < 0 || r >= rows || Math.abs(r - row) > rowsWithin(bestDistance)) {
+                    continue;
+                }
+                boolean isEdgeRow = r == row - ring || r == row + ring;
+                int step = isEdgeRow ? 1 : 2 * ring;
+                for (int c = column - ring; c <= column + ring; c += Math.max(step, 1)) {
+                    int cell = r * columns + floorMod(c, columns);
+                    int end = buffer.getInt(HEADER_SIZE + 4 * (cell + 1));
+                    for (int i = buffer.getInt(HEADER_SIZE + 4 * cell); i < end; i++) {
+                        double distance = distance(latitude, longitude, getLatitude(i), getLongitude(i));
+                        if (distance < bestDistance) {
+                            best = i;
+                            bestDistance = distance;
+                        }
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * City ID at a position in the index.
+     * @param index position returned by {@link #findNearest(double, double, double)}
+     * @return city ID
+     */
+    public int getCityId(int index) {
+        return buffer.getInt(recordsOffset + index * RECORD_SIZE);
+    }
+
+    /** Latitude of the city at a position in the index. */
+    public double getLatitude(int index) {
+        return buffer.getFloat(recordsOffset + index * RECORD_SIZE + 4);
+    }
+
+    /** Longitude of the city at a position in the index. */
+    public double getLongitude(int index) {
+        return buffer.getFloat(recordsOffset + index * RECORD_SIZE + 8);
+    }
+
+    /** Number of rows that a distance may span, in addition to the row of the location. */
+    private int rowsWithin(double distance) {
+        return (int) Math.min(rows, Math.ceil(distance / (cellSize * METERS_PER_DEGREE)));
+    }
+
+    private int rowIndex(double latitude) {
+        int row = (int) Math.floor((latitude + 90d) / cellSize);
+        return Math.max(0, Math.min(rows - 1, row));
+    }
+
+    private int columnIndex(double longitude) {
+        return floorMod((int) Math.floor((longitude + 180d) / cellSize), columns);
+    }
+
+    static int cellIndex(double latitude, double longitude, double cellSize, int rows, int columns) {
+        int row = Math.max(0, Math.min(rows - 1, (int) Math.floor((latitude + 90d) / cellSize)));
+        int column = floorMod((int) Math.floor((longitude + 180d) / cellSize), columns);
+        return row * columns + column;
+    }
+
+    /** Approximate distance in meters, accurate for the short distances to nearby cities. */
+    static double distance(double lat1, double lon1, double lat2, double lon2) {
+        double longitudeDifference = lon2 - lon1;
+        if (longitudeDifference > 180d) {
+            longitudeDifference -= 360d;
+        } else if (longitudeDifference < -180d) {
+            longitudeDifference += 360d;
+        }
+        double x = longitudeDifference * Math.cos(Math.toRadians((lat1 + lat2) / 2d));
+        double y = lat2 - lat1;
+        return Math.sqrt(x * x + y * y) * METERS_PER_DEGREE;
+    }
+
+    private static int floorMod(int value, int modulus) {
+        int result = value % modulus;
+        return result < 0 ? result + modulus : result;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.weather;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Imports the OpenWeatherMap bulk city list into a {@link CityIndex} file. The city list is a
+ * JSON array of objects with an {@code id} and a {@code coord} object with {@code lat} and
+ * {@code lon}. It is parsed one city at a time, so the JSON document is never held in memory.
+ * Only the ID and coordinates of each city are kept, in primitive arrays.
+ */
+public final class CityListImporter {
+    private static final Logger logger = LoggerFactory.getLogger(CityListImporter.class);
+
+    /** Default cell size of the index in degrees. */
+    public static final double DEFAULT_CELL_SIZE = 1d;
+
+    private CityListImporter() {
+        // utility class
+    }
+
+    /**
+     * Import a city list into an index file.
+     * @param cityList JSON city list, read until the end of the array
+     * @param indexFile file to write the index to. It is replaced only if the import succeeds.
+     * @param cellSize cell size of the index in degrees
+     * @return number of cities in the index
+     * @throws IOException if the city list cannot be read or parsed, or the index cannot be
+     *                     written
+     */
+    public static int importCityList(InputStream cityList, File indexFile, double cellSize)
+            throws IOException {
+        int rows = (int) Math.ceil(180d / cellSize);
+        int columns = (int) Math.ceil(360d / cellSize);
+
+        int size = 0;
+        int[] ids = new int[1024];
+        float[] latitudes = new float[1024];
+        float[] longitudes = new float[1024];
+
+        Reader reader = new InputStreamReader(cityList, StandardCharsets.UTF_8);
+        try {
+            JSONTokener tokener = new JSONTokener(reader);
+            if (tokener.nextClean() != '[') {
+                throw new IOException("City list is not a JSON array");
+            }
+            char next = tokener.nextClean();
+            if (next != ']') {
+                tokener.back();
+            }
+            while (next != ']') {
+                Object value = tokener.nextValue();
+                if (!(value instanceof JSONObject)) {
+                    throw new IOException("City list contains a value that is not an object");
+                }
+                JSONObject city = (JSONObject) value;
+                JSONObject coord = city.optJSONObject("coord");
+                long id = city.optLong("id", -1L);
+                if (coord == null || id < 0 || id > Integer.MAX_VALUE) {
+                    logger.debug("Skipping city without valid ID or coordinates: {}", city);
+                } else {
+                    if (size == ids.length) {
+                        int capacity = size * 2;
+                        ids = Arrays.copyOf(ids, capacity);
+                        latitudes = Arrays.copyOf(latitudes, capacity);
+                        longitudes = Arrays.copyOf(longitudes, capacity);
+                    }
+                    ids[size] = (int) id;
+                    latitudes[size] = (float) coord.optDouble("lat", Double.NaN);
+                    longitudes[size] = (float) coord.optDouble("lon", Double.NaN);
+                    if (!Float.isNaN(latitudes[size]) && !Float.isNaN(longitudes[size])) {
+                        size++;
+                    }
+                }
+                next = tokener.nextClean();
+                if (next != ',' && next != ']') {
+                    throw new IOException("Expected ',' or ']' in city list, got '" + next + "'");
+                }
+            }
+        } catch (JSONException ex) {
+            throw new IOException("Cannot parse city list after " + size + " cities", ex);
+        }
+
+        // counting sort of the cities by cell
+        int cells = rows * columns;
+        int[] cellOf = new int[size];
+        int[] offsets = new int[cells + 1];
+        for (int i = 0; i < size; i++) {
+            cellOf[i] = CityIndex.cellIndex(latitudes[i], longitudes[i], cellSize, rows, columns);
+            offsets[cellOf[i] + 1]++;
+        }
+        for (int cell = 0; cell < cells; cell++) {
+            offsets[cell + 1] += offsets[cell];
+        }
+        int[] order = new int[size];
+        int[] position = Arrays.copyOf(offsets, cells);
+        for (int i = 0; i < size; i++) {
+            order[position[cellOf[i]]++] = i;
+        }
+
+        File tmpFile = new File(indexFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+            out.writeInt(CityIndex.MAGIC);
+            out.writeInt(CityIndex.FORMAT_VERSION);
+            out.writeDouble(cellSize);
+            out.writeInt(rows);
+            out.writeInt(columns);
+            out.writeInt(size);
+            for (int offset : offsets) {
+                out.writeInt(offset);
+            }
+            for (int i : order) {
+                out.writeInt(ids[i]);
+                out.writeFloat(latitudes[i]);
+                out.writeFloat(longitudes[i]);
+            }
+        }
+        if (!tmpFile.renameTo(indexFile)
+                && !(indexFile.delete() && tmpFile.renameTo(indexFile))) {
+            throw new IOException("Cannot write city index " + indexFile);
+        }
+        return size;
+    }
+
+    /**
+     * Import a city list file into an index file.
+     * @param args city list, optionally gzipped, and index file
+     * @throws IOException if the import fails
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: CityListImporter <city.list.json[.gz]> <index.bin>");
+            System.exit(1);
+        }
+        File input = new File(args[0]);
+        long startTime = System.nanoTime();
+        int size;
+        try (InputStream in = openCityList(input)) {
+            size = importCityList(in, new File(args[1]), DEFAULT_CELL_SIZE);
+        }
+        System.out.println("Imported " + size + " cities in "
+                + (System.nanoTime() - startTime) / 1_000_000L + " ms");
+    }
+
+    private static InputStream openCityList(File file) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+        if (file.getName().endsWith(".gz")) {
+            try {
+                return new GZIPInputStream(in);
+            } catch (IOException ex) {
+                in.close();
+                throw ex;
+            }
+        }
+        return in;
+    }
+}
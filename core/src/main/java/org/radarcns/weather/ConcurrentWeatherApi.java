@@ -0,0 +1,95 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.weather;
+
+import java.io.Closeable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dispatches blocking weather API calls on an executor, for many concurrent location queries.
+ * By default, calls run in virtual threads when available, see
+ * {@link WeatherExecutors#newFanOutExecutor(int)}.
+ */
+public class ConcurrentWeatherApi implements Closeable {
+    private final WeatherApi weatherApi;
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+
+    /**
+     * Run calls on a fan-out executor that is closed with this instance.
+     * @param weatherApi thread-safe weather API
+     * @param maxThreads maximum number of platform threads, if virtual threads are not available
+     */
+    public ConcurrentWeatherApi(WeatherApi weatherApi, int maxThreads) {
+        this(weatherApi, WeatherExecutors.newFanOutExecutor(maxThreads), true);
+    }
+
+    /**
+     * Run calls on given executor. The executor is not shut down by {@link #close()}.
+     * @param weatherApi thread-safe weather API
+     * @param executor executor to run calls on
+     */
+    public ConcurrentWeatherApi(WeatherApi weatherApi, ExecutorService executor) {
+        this(weatherApi, executor, false);
+    }
+
+    private ConcurrentWeatherApi(WeatherApi weatherApi, ExecutorService executor,
+            boolean ownsExecutor) {
+        this.weatherApi = weatherApi;
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+    }
+
+    /**
+     * Load the current weather at a set of coordinates in the background.
+     * @param latitude WGS84 latitude
+     * @param longitude WGS84 longitude
+     * @return future result. Getting it throws an
+     *         {@link java.util.concurrent.ExecutionException} if loading the weather fails.
+     */
+    public Future<WeatherApiResult> loadCurrentWeather(double latitude, double longitude) {
+        return executor.submit(() -> weatherApi.loadCurrentWeather(latitude, longitude));
+    }
+
+    /**
+     * Load the weather forecast at a set of coordinates in the background.
+     * @param latitude WGS84 latitude
+     * @param longitude WGS84 longitude
+     * @param horizon how far ahead the forecast should reach
+     * @param unit unit of the horizon
+     * @return future forecast. Getting it throws an
+     *         {@link java.util.concurrent.ExecutionException} if loading the forecast fails.
+     */
+    public Future<WeatherForecast> loadForecast(double latitude, double longitude, long horizon,
+            TimeUnit unit) {
+        return executor.submit(() -> weatherApi.loadForecast(latitude, longitude, horizon, unit));
+    }
+
+    /** Underlying weather API. */
+    public WeatherApi getWeatherApi() {
+        return weatherApi;
+    }
+
+    @Override
+    public void close() {
+        if (ownsExecutor) {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.weather;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point in time by which an operation should be finished. It is passed down to each step of the
+ * operation, so that all steps together stay within a single time budget.
+ */
+public final class Deadline {
+    /** Deadline that never expires. */
+    public static final Deadline NONE = new Deadline(0L, false);
+
+    private final long deadlineNanos;
+    private final boolean isSet;
+
+    private Deadline(long deadlineNanos, boolean isSet) {
+        this.deadlineNanos = deadlineNanos;
+        this.isSet = isSet;
+    }
+
+    /**
+     * Deadline that expires after given duration from now.
+     * @param duration duration
+     * @param unit unit of the duration
+     * @return deadline
+     */
+    public static Deadline after(long duration, TimeUnit unit) {
+        return new Deadline(System.nanoTime() + unit.toNanos(duration), true);
+    }
+
+    /** Whether this deadline can expire. */
+    public boolean isSet() {
+        return isSet;
+    }
+
+    /** Whether this deadline has passed. */
+    public boolean isExpired() {
+        return isSet && System.nanoTime() - deadlineNanos >= 0;
+    }
+
+    /**
+     * Time remaining until the deadline.
+     * @param unit unit of the returned time
+     * @return remaining time, zero if the deadline has passed, or {@link Long#MAX_VALUE} if
+     *         the deadline is not set.
+     */
+    public long remaining(TimeUnit unit) {
+        if (!isSet) {
+            return Long.MAX_VALUE;
+        }
+        return unit.convert(Math.max(0L, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Check that the deadline has not passed.
+     * @throws InterruptedIOException if the deadline has passed.
+     */
+    public void check() throws InterruptedIOException {
+        if (isExpired()) {
+            throw new InterruptedIOException("Deadline exceeded");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return isSet ? "Deadline{remaining=" + remaining(TimeUnit.MILLISECONDS) + "ms}" : "Deadline{none}";
+    }
+}
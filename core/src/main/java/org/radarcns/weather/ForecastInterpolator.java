@@ -0,0 +1,181 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.weather;
+
+/**
+ * Derives weather values at arbitrary times from a {@link WeatherForecast}. Values are
+ * interpolated on a regular time grid into arrays supplied by the caller, so generating many
+ * time points does not allocate memory. The inner loops only do arithmetic on primitive arrays.
+ *
+ * <p>Temperature, pressure, humidity and cloudiness are interpolated linearly between forecast
+ * time points. Precipitation is redistributed: each forecast amount is spread evenly over its
+ * precipitation period, and each output point gets the amount that falls within its own step.
+ * Totals are therefore preserved. Times outside the forecast give {@code NaN}.
+ */
+public final class ForecastInterpolator {
+    /** Forecast value that can be interpolated linearly. */
+    public enum Variable {
+        TEMPERATURE, PRESSURE, HUMIDITY, CLOUDINESS
+    }
+
+    private ForecastInterpolator() {
+        // utility class
+    }
+
+    /**
+     * Linearly interpolate a forecast value at a single time.
+     * @param forecast forecast to interpolate
+     * @param variable value to interpolate
+     * @param time time in seconds since the Unix Epoch
+     * @return interpolated value, or {@code NaN} if the time is outside the forecast.
+     */
+    public static float interpolate(WeatherForecast forecast, Variable variable, long time) {
+        int index = forecast.indexOf(time);
+        if (index < 0 || time > forecast.getEndTime()) {
+            return Float.NaN;
+        }
+        float[] values = values(forecast, variable);
+        if (index == forecast.size - 1) {
+            return values[index];
+        }
+        long t0 = forecast.times[index];
+        float fraction = (float) (time - t0) / (forecast.times[index + 1] - t0);
+        return values[index] + fraction * (values[index + 1] - values[index]);
+    }
+
+    /**
+     * Linearly interpolate a forecast value on a regular time grid.
+     * @param forecast forecast to interpolate
+     * @param variable value to interpolate
+     * @param startTime time of the first output point, in seconds since the Unix Epoch
+     * @param step time between output points in seconds
+     * @param out array to write the output to. Points outside the forecast are {@code NaN}.
+     * @param offset index of the first output point in {@code out}
+     * @param length number of output points
+     */
+    public static void interpolate(WeatherForecast forecast, Variable variable, long startTime,
+            int step, float[] out, int offset, int length) {
+        checkArguments(step, out, offset, length);
+        float[] values = values(forecast, variable);
+        long[] times = forecast.times;
+        int size = forecast.size;
+
+        int k = 0;
+        // before the forecast
+        while (k < length && (size == 0 || startTime + (long) k * step < times[0])) {
+            out[offset + k] = Float.NaN;
+            k++;
+        }
+        for (int i = 0; i < size - 1 && k < length; i++) {
+            long t0 = times[i];
+            long t1 = times[i + 1];
+            float v0 = values[i];
+            float slope = (values[i + 1] - v0) / (t1 - t0);
+            // all output points in [t0, t1)
+            int end = k;
+            while (end < length && startTime + (long) end * step < t1) {
+                end++;
+            }
+            for (; k < end; k++) {
+                out[offset + k] = v0 + slope * (startTime + (long) k * step - t0);
+            }
+        }
+        // at the last forecast point, and after the forecast
+        for (; k < length; k++) {
+            out[offset + k] = size > 0 && startTime + (long) k * step == times[size - 1]
+                    ? values[size - 1] : Float.NaN;
+        }
+    }
+
+    /**
+     * Redistribute forecast precipitation on a regular time grid. Each output point gets the
+     * precipitation in millimeter during the step that ends at that point, assuming a constant
+     * precipitation rate within each forecast precipitation period.
+     * @param forecast forecast to take precipitation from
+     * @param startTime time of the first output point, in seconds since the Unix Epoch
+     * @param step time between output points in seconds, which is also the period that each
+     *             output value covers
+     * @param out array to write the output to. Points whose step is not fully covered by the
+     *            forecast are {@code NaN}.
+     * @param offset index of the first output point in {@code out}
+     * @param length number of output points
+     */
+    public static void redistributePrecipitation(WeatherForecast forecast, long startTime,
+            int step, float[] out, int offset, int length) {
+        checkArguments(step, out, offset, length);
+        long[] times = forecast.times;
+        float[] precipitation = forecast.precipitation;
+        int size = forecast.size;
+        long period = forecast.precipitationPeriod;
+
+        if (size == 0) {
+            for (int k = 0; k < length; k++) {
+                out[offset + k] = Float.NaN;
+            }
+            return;
+        }
+        long coverageStart = times[0] - period;
+        long coverageEnd = times[size - 1];
+
+        int i = 0;
+        for (int k = 0; k < length; k++) {
+            long stepEnd = startTime + (long) k * step;
+            long stepStart = stepEnd - step;
+            if (stepStart < coverageStart || stepEnd > coverageEnd) {
+                out[offset + k] = Float.NaN;
+                continue;
+            }
+            // skip forecast periods that end before this step
+            while (i < size && times[i] <= stepStart) {
+                i++;
+            }
+            float total = 0f;
+            for (int j = i; j < size && times[j] - period < stepEnd; j++) {
+                long overlap = Math.min(stepEnd, times[j]) - Math.max(stepStart, times[j] - period);
+                if (overlap > 0) {
+                    total += precipitation[j] * overlap / period;
+                }
+            }
+            out[offset + k] = total;
+        }
+    }
+
+    private static float[] values(WeatherForecast forecast, Variable variable) {
+        switch (variable) {
+            case TEMPERATURE:
+                return forecast.temperature;
+            case PRESSURE:
+                return forecast.pressure;
+            case HUMIDITY:
+                return forecast.humidity;
+            case CLOUDINESS:
+                return forecast.cloudiness;
+            default:
+                throw new IllegalArgumentException("Unknown variable " + variable);
+        }
+    }
+
+    private static void checkArguments(int step, float[] out, int offset, int length) {
+        if (step <= 0) {
+            throw new IllegalArgumentException("Step must be positive");
+        }
+        if (offset < 0 || length < 0 || offset + length > out.length) {
+            throw new IndexOutOfBoundsException("Output range " + offset + " to "
+                    + (offset + length) + " is outside array of length " + out.length);
+        }
+    }
+}
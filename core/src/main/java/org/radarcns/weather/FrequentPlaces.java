@@ -0,0 +1,203 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.weather;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Learns the places where a participant spends most time, from the locations of weather cycles.
+ * Locations within a radius of an existing place are merged into it, moving its center to the
+ * mean location. Weights of places decay over time, so that places that are no longer visited
+ * are eventually forgotten. If the maximum number of places is reached, the place with the
+ * lowest weight is replaced. Nothing is stored outside memory.
+ */
+public class FrequentPlaces {
+    private static final double METERS_PER_DEGREE = 111_320d;
+
+    private final double radius;
+    private final int maxPlaces;
+    private final double halfLifeMillis;
+    private final List<Place> places;
+    private double totalWeight;
+    private long lastTime;
+
+    /**
+     * Frequent places tracker.
+     * @param radius radius of a place in meters
+     * @param maxPlaces maximum number of places to track
+     * @param halfLife time after which the weight of a visit is halved
+     * @param unit unit of the half life
+     */
+    public FrequentPlaces(double radius, int maxPlaces, long halfLife, TimeUnit unit) {
+        this.radius = radius;
+        this.maxPlaces = maxPlaces;
+        this.halfLifeMillis = unit.toMillis(halfLife);
+        this.places = new ArrayList<>(maxPlaces);
+    }
+
+    /**
+     * Record a visit to a location. Visits should be recorded at a regular interval, so that the
+     * weight of a place reflects the time spent there.
+     * @param latitude WGS84 latitude
+     * @param longitude WGS84 longitude
+     * @param time time of the visit in milliseconds
+     */
+    public synchronized void record(double latitude, double longitude, long time) {
+        decay(time);
+
+        Place nearest = null;
+        double nearestDistance = Double.POSITIVE_INFINITY;
+        for (Place place : places) {
+            double distance = distance(place.latitude, place.longitude, latitude, longitude);
+            if (distance < nearestDistance) {
+                nearest = place;
+                nearestDistance = distance;
+            }
+        }
+
+        if (nearest != null && nearestDistance <= radius) {
+            nearest.visits++;
+            double fraction = 1d / (nearest.weight + 1d);
+            nearest.latitude += (latitude - nearest.latitude) * fraction;
+            nearest.longitude += (longitude - nearest.longitude) * fraction;
+            nearest.weight += 1d;
+        } else {
+            if (places.size() >= maxPlaces) {
+                Place lightest = places.get(0);
+                for (Place place : places) {
+                    if (place.weight < lightest.weight) {
+                        lightest = place;
+                    }
+                }
+                places.remove(lightest);
+                totalWeight -= lightest.weight;
+            }
+            places.add(new Place(latitude, longitude));
+        }
+        totalWeight += 1d;
+    }
+
+    /**
+     * Most frequent places, in order of decreasing weight.
+     * @param maxCount maximum number of places to return
+     * @param minShare minimum share of the total weight that a place must have
+     * @param minVisits minimum number of visits of a place
+     * @return frequent places
+     */
+    public synchronized List<Place> getFrequentPlaces(int maxCount, double minShare,
+            int minVisits) {
+        List<Place> result = new ArrayList<>(places.size());
+        for (Place place : places) {
+            if (place.visits >= minVisits && place.weight >= minShare * totalWeight) {
+                result.add(new Place(place));
+            }
+        }
+        Collections.sort(result, new Comparator<Place>() {
+            @Override
+            public int compare(Place o1, Place o2) {
+                return Double.compare(o2.weight, o1.weight);
+            }
+        });
+        return result.size() > maxCount ? result.subList(0, maxCount) : result;
+    }
+
+    /** Number of places tracked. */
+    public synchronized int size() {
+        return places.size();
+    }
+
+    /** Forget all places. */
+    public synchronized void clear() {
+        places.clear();
+        totalWeight = 0d;
+    }
+
+    /** Decay all weights to given time. */
+    private void decay(long time) {
+        if (lastTime != 0L && time > lastTime && halfLifeMillis > 0) {
+            double factor = Math.pow(0.5, (time - lastTime) / halfLifeMillis);
+            totalWeight = 0d;
+            for (Place place : places) {
+                place.weight *= factor;
+                totalWeight += place.weight;
+            }
+        }
+        if (time > lastTime) {
+            lastTime = time;
+        }
+    }
+
+    /** Approximate distance in meters, accurate for short distances. */
+    private static double distance(double lat1, double lon1, double lat2, double lon2) {
+        double x = (lon2 - lon1) * Math.cos(Math.toRadians((lat1 + lat2) / 2d));
+        double y = lat2 - lat1;
+        return Math.sqrt(x * x + y * y) * METERS_PER_DEGREE;
+    }
+
+    /** Frequently visited place. */
+    public static final class Place {
+        private double latitude;
+        private double longitude;
+        private double weight;
+        private int visits;
+
+        private Place(double latitude, double longitude) {
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.weight = 1d;
+            this.visits = 1;
+        }
+
+        private Place(Place place) {
+            this.latitude = place.latitude;
+            this.longitude = place.longitude;
+            this.weight = place.weight;
+            this.visits = place.visits;
+        }
+
+        public double getLatitude() {
+            return latitude;
+        }
+
+        public double getLongitude() {
+            return longitude;
+        }
+
+        /** Decayed number of visits. */
+        public double getWeight() {
+            return weight;
+        }
+
+        /** Total number of visits. */
+        public int getVisits() {
+            return visits;
+        }
+
+        @Override
+        public String toString() {
+            return "Place{latitude=" + latitude
+                    + ", longitude=" + longitude
+                    + ", weight=" + weight
+                    + ", visits=" + visits
+                    + '}';
+        }
+    }
+}
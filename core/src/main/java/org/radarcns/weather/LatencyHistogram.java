@@ -0,0 +1,181 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.weather;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with logarithmic buckets. Each power of two is split into eight
+ * linear sub-buckets, so percentiles have a relative error of at most 12.5%. Values are
+ * recorded in microseconds, up to about twelve days.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    private static final int NUM_BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets;
+    private final AtomicLong count;
+    private final AtomicLong sum;
+    private final AtomicLong max;
+
+    public LatencyHistogram() {
+        buckets = new AtomicLongArray(NUM_BUCKETS);
+        count = new AtomicLong();
+        sum = new AtomicLong();
+        max = new AtomicLong();
+    }
+
+    /**
+     * Record a duration.
+     * @param duration duration
+     * @param unit unit of the duration
+     */
+    public void record(long duration, TimeUnit unit) {
+        long micros = Math.max(0L, unit.toMicros(duration));
+        buckets.incrementAndGet(bucketIndex(micros));
+        count.incrementAndGet();
+        sum.addAndGet(micros);
+
+        long currentMax = max.get();
+        while (micros > currentMax && !max.compareAndSet(currentMax, micros)) {
+            currentMax = max.get();
+        }
+    }
+
+    /**
+     * Record the time elapsed since a start time.
+     * @param startNanos start time as given by {@link System#nanoTime()}
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Current state of the histogram. Concurrent updates may be partially included.
+     * @return snapshot
+     */
+    public Snapshot snapshot() {
+        long[] values = new long[NUM_BUCKETS];
+        long total = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            values[i] = buckets.get(i);
+            total += values[i];
+        }
+        return new Snapshot(values, total, sum.get(), max.get());
+    }
+
+    private static int bucketIndex(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent > MAX_EXPONENT) {
+            return NUM_BUCKETS - 1;
+        }
+        int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = index % SUB_BUCKETS;
+        return ((SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    /** Immutable view of a histogram. */
+    public static final class Snapshot {
+        private final long[] buckets;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        private Snapshot(long[] buckets, long count, long sum, long max) {
+            this.buckets = buckets;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        /**
+         * Values recorded after an earlier snapshot of the same histogram. The maximum of the
+         * result is the overall maximum, since that cannot be computed for an interval.
+         * @param earlier earlier snapshot
+         * @return snapshot of the values recorded in between
+         */
+        public Snapshot since(Snapshot earlier) {
+            long[] values = new long[buckets.length];
+            long total = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                values[i] = Math.max(0L, buckets[i] - earlier.buckets[i]);
+                total += values[i];
+            }
+            return new Snapshot(values, total, Math.max(0L, sum - earlier.sum), max);
+        }
+
+        /** Number of recorded values. */
+        public long getCount() {
+            return count;
+        }
+
+        /** Mean recorded value in microseconds, or {@code 0} if nothing was recorded. */
+        public double getMeanMicros() {
+            return count > 0 ? sum / (double) count : 0d;
+        }
+
+        /** Maximum recorded value in microseconds. */
+        public long getMaxMicros() {
+            return max;
+        }
+
+        /**
+         * Value below which given fraction of recorded values falls.
+         * @param quantile fraction between 0 and 1
+         * @return upper bound of the matching bucket in microseconds, or {@code 0} if nothing was
+         *         recorded.
+         */
+        public long getPercentileMicros(double quantile) {
+            if (count == 0) {
+                return 0L;
+            }
+            long rank = Math.max(1L, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return Math.min(bucketUpperBound(i), max);
+                }
+            }
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return "{count=" + count
+                    + ", mean=" + Math.round(getMeanMicros()) + "us"
+                    + ", p50=" + getPercentileMicros(0.5) + "us"
+                    + ", p95=" + getPercentileMicros(0.95) + "us"
+                    + ", max=" + max + "us}";
+        }
+    }
+}
@@ -16,20 +16,18 @@
 
 package org.radarcns.weather;
 
-import java.io.IOException;
-
-public interface WeatherApi {
-    /**
-     * Loads current weather at a set of coordinates.
-     * @param latitude WGS84 latitude
-     * @param longitude WGS84 longitude
-     * @throws IOException if loading the current weather fails.
-     */
-    WeatherApiResult loadCurrentWeather(double latitude, double longitude) throws IOException;
+/**
+ * Monotonic clock in nanoseconds, for measuring when cached values expire. On Android, pass
+ * {@code SystemClock::elapsedRealtimeNanos}, which keeps counting while the device is in deep
+ * sleep, unlike {@link System#nanoTime()}.
+ */
+public interface NanoClock {
+    /** Clock of {@link System#nanoTime()}. */
+    NanoClock SYSTEM = System::nanoTime;
 
     /**
-     * Returns name of the source where the weather data was requested.
-     * @return source name or {@code null} if none is set
+     * Current time of the clock. Only differences between times are meaningful.
+     * @return time in nanoseconds
      */
-    String getSourceName();
+    long nanoTime();
 }
@@ -0,0 +1,601 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.weather;
+
+import android.support.annotation.NonNull;
+
+import net.aksingh.owmjapis.CurrentWeather;
+import net.aksingh.owmjapis.HourlyForecast;
+import net.aksingh.owmjapis.OneCallWeather;
+import net.aksingh.owmjapis.OpenWeatherMap;
+
+import org.json.JSONException;
+import org.radarcns.passive.weather.WeatherCondition;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+
+import static org.radarcns.weather.WeatherRequestPlanner.DataType.CURRENT;
+import static org.radarcns.weather.WeatherRequestPlanner.DataType.DAILY_FORECAST;
+import static org.radarcns.weather.WeatherRequestPlanner.DataType.HOURLY_FORECAST;
+
+class OpenWeatherMapApi implements WeatherApi {
+    private static final String SOURCE_NAME = "OpenWeatherMap";
+    /** One Call parts needed for the current weather. Sunrise and sunset are part of it. */
+    private static final List<String> CURRENT_WEATHER_PARTS = Collections.singletonList(OpenWeatherMap.ONE_CALL_CURRENT);
+    /** One Call parts needed for the forecast, in steps of one hour. */
+    private static final List<String> FORECAST_PARTS = Collections.singletonList(OpenWeatherMap.ONE_CALL_HOURLY);
+    private static final int ONE_CALL_FORECAST_STEP = (int) TimeUnit.HOURS.toSeconds(1);
+    private static final int FORECAST_STEP = (int) TimeUnit.HOURS.toSeconds(3);
+    /** Time that a result for a city is shared with other locations in the same city. */
+    private static final long CITY_RESULT_TTL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    private static final int CITY_RESULT_MAX_ENTRIES = 64;
+    /** Maximum distance to a city in the offline index to query its weather instead. */
+    private static final double CITY_INDEX_MAX_DISTANCE_METERS = 10_000d;
+
+    private final OpenWeatherMap owm;
+    private final boolean useOneCall;
+    private final List<WeatherRequestPlanner.Endpoint> endpoints;
+    private final CityIdCache cityIds;
+    private final CityIndex cityIndex;
+    private final Map<Long, CityResult> cityResults;
+
+    OpenWeatherMapApi(String apiKey, OkHttpClient client) {
+        this(OpenWeatherMap.URL_API, apiKey, client, null, false, null, null);
+    }
+
+    /**
+     * OpenWeatherMap API.
+     * @param url base URL of the API
+     * @param apiKey API key
+     * @param client HTTP client
+     * @param metrics metrics to record requests in, may be {@code null}
+     * @param useOneCall whether to use the One Call API instead of the current weather API.
+     * @param cityIds cache of city IDs to query the current weather by, may be {@code null}.
+     *                City IDs are not used with the One Call API, which does not return them.
+     * @param cityIndex offline index to resolve locations that are not in the city ID cache yet,
+     *                  may be {@code null}.
+     */
+    OpenWeatherMapApi(String url, String apiKey, OkHttpClient client, WeatherMetrics metrics,
+            boolean useOneCall, CityIdCache cityIds, CityIndex cityIndex) {
+        owm = new OpenWeatherMap(url, OpenWeatherMap.UNITS_METRIC,
+                OpenWeatherMap.LANGUAGE_ENGLISH, apiKey, client,
+                metrics != null ? new MetricsListener(metrics) : null);
+        this.useOneCall = useOneCall;
+        this.cityIds = useOneCall ? null : cityIds;
+        this.cityIndex = this.cityIds != null ? cityIndex : null;
+        this.cityResults = new LinkedHashMap<Long, CityResult>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, CityResult> eldest) {
+                return size() > CITY_RESULT_MAX_ENTRIES;
+            }
+        };
+        if (useOneCall) {
+            endpoints = Collections.singletonList(new WeatherRequestPlanner.Endpoint("onecall",
+                    CURRENT, HOURLY_FORECAST, DAILY_FORECAST));
+        } else {
+            endpoints = Collections.unmodifiableList(Arrays.asList(
+                    new WeatherRequestPlanner.Endpoint("weather", CURRENT),
+                    new WeatherRequestPlanner.Endpoint("forecast", HOURLY_FORECAST),
+                    new WeatherRequestPlanner.Endpoint("forecast/daily", DAILY_FORECAST)));
+        }
+    }
+
+    @Override
+    public List<WeatherRequestPlanner.Endpoint> getEndpoints() {
+        return endpoints;
+    }
+
+    @Override
+    public void warmUp() throws IOException {
+        owm.warmUp();
+    }
+
+    @Override
+    public OpenWeatherMapApiResult loadCurrentWeather(double latitude, double longitude) throws IOException {
+        return loadCurrentWeather(latitude, longitude, Deadline.NONE);
+    }
+
+    @Override
+    public OpenWeatherMapApiResult loadCurrentWeather(double latitude, double longitude,
+            Deadline deadline) throws IOException {
+        deadline.check();
+        Long cityId = cityIds != null ? cityIds.get(latitude, longitude) : null;
+        if (cityId == null && cityIndex != null) {
+            int index = cityIndex.findNearest(latitude, longitude, CITY_INDEX_MAX_DISTANCE_METERS);
+            if (index >= 0) {
+                cityId = (long) cityIndex.getCityId(index);
+                cityIds.put(latitude, longitude, cityId);
+            }
+        }
+        if (cityId != null) {
+            OpenWeatherMapApiResult result = getCityResult(cityId);
+            if (result != null) {
+                return result;
+            }
+        }
+        CurrentWeather cw;
+        try {
+            if (useOneCall) {
+                cw = owm.oneCallByCoordinates((float) latitude, (float) longitude,
+                        CURRENT_WEATHER_PARTS, deadline.remaining(TimeUnit.NANOSECONDS),
+                        TimeUnit.NANOSECONDS).getCurrentWeather();
+            } else if (cityId != null) {
+                cw = owm.currentWeatherByCityCode(cityId,
+                        deadline.remaining(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+            } else {
+                cw = owm.currentWeatherByCoordinates((float) latitude, (float) longitude,
+                        deadline.remaining(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+            }
+        } catch (JSONException ex) {
+            throw new IOException("Could not parse weather data from the OpenWeatherMap API " +
+                    "for latitude " + latitude + " and longitude " + longitude, ex);
+        }
+        return toResult(cw, cityId, latitude, longitude, deadline);
+    }
+
+    /**
+     * Result of a current weather response. If city IDs are used, the city ID of the response is
+     * stored for the location and the result is shared with other locations in the same city.
+     * @param cityId city ID that was queried, or {@code null} if coordinates were queried.
+     * @throws InterruptedIOException if the response is missing since the deadline passed
+     * @throws IOException if the response is missing or not valid.
+     */
+    private OpenWeatherMapApiResult toResult(CurrentWeather cw, Long cityId, double latitude,
+            double longitude, Deadline deadline) throws IOException {
+        if (cw != null && cw.isValid()) {
+            OpenWeatherMapApiResult result = new OpenWeatherMapApiResult(cw);
+            if (cityIds != null && cw.hasCityCode() && cw.getCityCode() > 0) {
+                if (cityId == null) {
+                    cityIds.put(latitude, longitude, cw.getCityCode());
+                }
+                putCityResult(cw.getCityCode(), result);
+            }
+            return result;
+        } else if (deadline.isExpired()) {
+            throw new InterruptedIOException("Deadline exceeded while getting weather data from "
+                    + "the OpenWeatherMap API for latitude " + latitude + " and longitude " + longitude);
+        } else {
+            throw new IOException("Could not get weather data from the OpenWeatherMap API " +
+                    "for latitude " + latitude + " and longitude " + longitude);
+        }
+    }
+
+    /**
+     * Recent result for a city, shared by all locations that resolve to that city. Results
+     * expire a fixed time after they were received, regardless of the observation time.
+     * @return result or {@code null} if no recent result is available.
+     */
+    private OpenWeatherMapApiResult getCityResult(long cityId) {
+        synchronized (cityResults) {
+            CityResult cityResult = cityResults.get(cityId);
+            if (cityResult == null) {
+                return null;
+            }
+            // wall clock time keeps running while the device sleeps, but may be set back
+            long age = System.currentTimeMillis() - cityResult.receivedTime;
+            return age >= 0 && age < CITY_RESULT_TTL_MILLIS ? cityResult.result : null;
+        }
+    }
+
+    private void putCityResult(long cityId, OpenWeatherMapApiResult result) {
+        synchronized (cityResults) {
+            cityResults.put(cityId, new CityResult(result, System.currentTimeMillis()));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (cityIds != null) {
+            cityIds.flush();
+        }
+        if (cityIndex != null) {
+            cityIndex.close();
+        }
+    }
+
+    @Override
+    public WeatherForecast loadForecast(double latitude, double longitude, long horizon,
+            TimeUnit unit) throws IOException {
+        return loadForecast(latitude, longitude, horizon, unit, Deadline.NONE);
+    }
+
+    @Override
+    public WeatherForecast loadForecast(double latitude, double longitude, long horizon,
+            TimeUnit unit, Deadline deadline) throws IOException {
+        deadline.check();
+        double timestamp = System.currentTimeMillis() / 1000d;
+        HourlyForecast forecast;
+        int step;
+        try {
+            if (useOneCall) {
+                forecast = owm.oneCallByCoordinates((float) latitude, (float) longitude,
+                        FORECAST_PARTS, deadline.remaining(TimeUnit.NANOSECONDS),
+                        TimeUnit.NANOSECONDS).getHourlyForecast();
+                step = ONE_CALL_FORECAST_STEP;
+            } else {
+                forecast = owm.hourlyForecastByCoordinates((float) latitude, (float) longitude,
+                        deadline.remaining(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+                step = FORECAST_STEP;
+            }
+        } catch (JSONException ex) {
+            throw new IOException("Could not parse forecast from the OpenWeatherMap API " +
+                    "for latitude " + latitude + " and longitude " + longitude, ex);
+        }
+        return toForecast(forecast, step, timestamp, horizon, unit, latitude, longitude, deadline);
+    }
+
+    /**
+     * Loads the current weather and the hourly forecast with a single request if the One Call
+     * API is used. Otherwise, each data type is loaded from its own endpoint.
+     */
+    @Override
+    public WeatherData loadWeather(WeatherRequestPlanner.Endpoint endpoint,
+            Set<WeatherRequestPlanner.DataType> types, double latitude, double longitude,
+            long horizon, TimeUnit unit, Deadline deadline) throws IOException {
+        if (!useOneCall) {
+            return WeatherApi.super.loadWeather(endpoint, types, latitude, longitude, horizon,
+                    unit, deadline);
+        }
+        boolean withCurrent = types.contains(CURRENT);
+        boolean withForecast = types.contains(HOURLY_FORECAST);
+        List<String> parts = new ArrayList<>(2);
+        if (withCurrent) {
+            parts.add(OpenWeatherMap.ONE_CALL_CURRENT);
+        }
+        if (withForecast) {
+            parts.add(OpenWeatherMap.ONE_CALL_HOURLY);
+        }
+        if (parts.isEmpty()) {
+            return new WeatherData(null, null);
+        }
+
+        deadline.check();
+        double timestamp = System.currentTimeMillis() / 1000d;
+        OneCallWeather weather;
+        try {
+            weather = owm.oneCallByCoordinates((float) latitude, (float) longitude, parts,
+                    deadline.remaining(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+        } catch (JSONException ex) {
+            throw new IOException("Could not parse weather data from the OpenWeatherMap API " +
+                    "for latitude " + latitude + " and longitude " + longitude, ex);
+        }
+        return new WeatherData(
+                withCurrent
+                        ? toResult(weather.getCurrentWeather(), null, latitude, longitude, deadline)
+                        : null,
+                withForecast
+                        ? toForecast(weather.getHourlyForecast(), ONE_CALL_FORECAST_STEP,
+                                timestamp, horizon, unit, latitude, longitude, deadline)
+                        : null);
+    }
+
+    /**
+     * Forecast of a forecast response, up to the given horizon after the timestamp.
+     * @throws InterruptedIOException if the response is missing since the deadline passed
+     * @throws IOException if the response is missing or not valid.
+     */
+    private static WeatherForecast toForecast(HourlyForecast forecast, int step,
+            double timestamp, long horizon, TimeUnit unit, double latitude, double longitude,
+            Deadline deadline) throws IOException {
+        if (forecast == null || !forecast.isValid()) {
+            if (deadline.isExpired()) {
+                throw new InterruptedIOException("Deadline exceeded while getting forecast from "
+                        + "the OpenWeatherMap API for latitude " + latitude + " and longitude " + longitude);
+            }
+            throw new IOException("Could not get forecast from the OpenWeatherMap API " +
+                    "for latitude " + latitude + " and longitude " + longitude);
+        }
+
+        long endTime = (long) timestamp + unit.toSeconds(horizon);
+        int size = forecast.getForecastListSize();
+        WeatherForecast.Builder builder = new WeatherForecast.Builder(SOURCE_NAME, timestamp, step, size);
+        long previousTime = Long.MIN_VALUE;
+        for (int i = 0; i < size; i++) {
+            HourlyForecast.Forecast point = forecast.getForecastInstance(i);
+            if (!point.hasDateTime()) {
+                continue;
+            }
+            long time = point.getDateTime().getTime() / 1000L;
+            if (time > endTime) {
+                break;
+            }
+            if (time <= previousTime) {
+                continue;
+            }
+            previousTime = time;
+
+            HourlyForecast.Forecast.Main main = point.getMainInstance();
+            HourlyForecast.Forecast.Clouds clouds = point.getCloudsInstance();
+            builder.add(time,
+                    main != null ? main.getTemperature() : Float.NaN,
+                    main != null ? main.getPressure() : Float.NaN,
+                    main != null ? main.getHumidity() : Float.NaN,
+                    clouds != null ? clouds.getPercentageOfClouds() : Float.NaN,
+                    computeForecastPrecipitation(point.getRainInstance(), point.getSnowInstance(), step),
+                    point.hasWeatherInstance()
+                            ? translateWeatherCode(point.getWeatherInstance(0).getWeatherCode())
+                            : WeatherCondition.UNKNOWN);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Precipitation of a forecast step. OpenWeatherMap leaves out rain and snow if there is
+     * none, so missing values are zero.
+     */
+    private static float computeForecastPrecipitation(CurrentWeather.Rain rain, CurrentWeather.Snow snow, int step) {
+        float total = 0f;
+        if (rain != null) {
+            float value = step == FORECAST_STEP ? rain.getRain3h() : rain.getRain1h();
+            if (!Float.isNaN(value)) {
+                total += value;
+            }
+        }
+        if (snow != null) {
+            float value = step == FORECAST_STEP ? snow.getSnow3h() : snow.getSnow1h();
+            if (!Float.isNaN(value)) {
+                total += value;
+            }
+        }
+        return total;
+    }
+
+    /** Result for a city with the time that it was received. */
+    private static class CityResult {
+        private final OpenWeatherMapApiResult result;
+        private final long receivedTime;
+
+        private CityResult(OpenWeatherMapApiResult result, long receivedTime) {
+            this.result = result;
+            this.receivedTime = receivedTime;
+        }
+    }
+
+    private static class OpenWeatherMapApiResult implements WeatherApiResult {
+        private final double timestamp;
+        private final Double observationTime;
+        private final Float temperature;
+        private final Integer sunSet;
+        private final Float pressure;
+        private final Float humidity;
+        private final Float precipitation;
+        private final Integer precipitationPeriod;
+        private final Integer sunRise;
+        private final CurrentWeather cw;
+
+        OpenWeatherMapApiResult(CurrentWeather cw) {
+            this.cw = cw;
+            this.timestamp = System.currentTimeMillis() / 1000d;
+            this.observationTime = cw.hasDateTime() ? cw.getDateTime().getTime() / 1000d : null;
+
+            CurrentWeather.Main main = cw.getMainInstance();
+            if (main != null) {
+                temperature = main.hasTemperature() ? main.getTemperature() : null;
+                pressure = main.hasPressure() ? main.getPressure() : null;
+                humidity = main.hasHumidity() ? main.getHumidity() : null;
+            } else {
+                temperature = null;
+                pressure = null;
+                humidity = null;
+            }
+
+            CurrentWeather.Sys sys = cw.getSysInstance();
+            if (sys != null) {
+                sunRise = getTimeOfDayFromDate(sys.getSunriseTime());
+                sunSet = getTimeOfDayFromDate(sys.getSunsetTime());
+            } else {
+                sunRise = null;
+                sunSet = null;
+            }
+
+            CurrentWeather.Rain rain = cw.getRainInstance();
+            CurrentWeather.Snow snow = cw.getSnowInstance();
+            if (has1hPrecipitationOnly(rain, snow)) {
+                // The One Call API only reports precipitation of the last hour
+                precipitation = compute1hPrecipitation(rain, snow);
+                precipitationPeriod = 1;
+            } else {
+                precipitation = compute3hPrecipitation(rain, snow);
+                precipitationPeriod = precipitation != null ? 3 : null;
+            }
+        }
+
+        @Override
+        public double getTimestamp() {
+            return timestamp;
+        }
+
+        @Override
+        public Double getObservationTime() {
+            return observationTime;
+        }
+
+        @Override
+        public Float getTemperature() {
+            return temperature;
+        }
+
+        @Override
+        public Float getPressure() {
+            return pressure;
+        }
+
+        @Override
+        public Float getHumidity() {
+            return humidity;
+        }
+
+        @Override
+        public Float getCloudiness() {
+            CurrentWeather.Clouds clouds = cw.getCloudsInstance();
+            return clouds != null && clouds.hasPercentageOfClouds() ? clouds.getPercentageOfClouds() : null;
+        }
+
+        @Override
+        public Float getPrecipitation() {
+            return precipitation;
+        }
+
+        @Override
+        public Integer getPrecipitationPeriod() {
+            return precipitationPeriod;
+        }
+
+        @NonNull
+        @Override
+        public WeatherCondition getWeatherCondition() {
+            if (!cw.hasWeatherInstance()) {
+                return WeatherCondition.UNKNOWN;
+            }
+            // Get weather code of primary weather condition instance
+            int code = cw.getWeatherInstance(0).getWeatherCode();
+            return translateWeatherCode(code);
+        }
+
+        @Override
+        public Integer getSunRise() {
+            return sunRise;
+        }
+
+        @Override
+        public Integer getSunSet() {
+            return sunSet;
+        }
+
+        @Override
+        public String toString() {
+            return cw.toString();
+        }
+    }
+
+    @Override
+    public String getSourceName() {
+        return SOURCE_NAME;
+    }
+
+    /** Records OpenWeatherMap request performance in weather metrics. */
+    private static class MetricsListener implements OpenWeatherMap.RequestListener {
+        private final WeatherMetrics metrics;
+
+        MetricsListener(WeatherMetrics metrics) {
+            this.metrics = metrics;
+        }
+
+        @Override
+        public void onResponse(int code, long bytes, long durationNanos, boolean fromCache) {
+            metrics.recordResponse(code, bytes, durationNanos, fromCache);
+        }
+
+        @Override
+        public void onFailure(IOException ex, long durationNanos) {
+            metrics.recordNetworkFailure();
+        }
+
+        @Override
+        public void onParsed(long durationNanos) {
+            metrics.parseLatency.record(durationNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private static boolean has1hPrecipitationOnly(CurrentWeather.Rain rain, CurrentWeather.Snow snow) {
+        boolean has1h = (rain != null && rain.hasRain1h()) || (snow != null && snow.hasSnow1h());
+        boolean has3h = (rain != null && rain.hasRain3h()) || (snow != null && snow.hasSnow3h());
+        return has1h && !has3h;
+    }
+
+    private static Float compute1hPrecipitation(CurrentWeather.Rain rain, CurrentWeather.Snow snow) {
+        BigDecimal totalPrecipitation = BigDecimal.ZERO;
+        if (rain != null && rain.hasRain1h()) {
+            totalPrecipitation = totalPrecipitation.add(new BigDecimal(String.valueOf(rain.getRain1h())));
+        }
+
+        if (snow != null && snow.hasSnow1h()) {
+            totalPrecipitation = totalPrecipitation.add(new BigDecimal(String.valueOf(snow.getSnow1h())));
+        }
+        return totalPrecipitation.floatValue();
+    }
+
+    private static Float compute3hPrecipitation(CurrentWeather.Rain rain, CurrentWeather.Snow snow) {
+        if (rain != null || snow != null) {
+            BigDecimal totalPrecipitation = BigDecimal.ZERO;
+            if (rain != null && rain.hasRain3h()) {
+                totalPrecipitation = totalPrecipitation.add(new BigDecimal(String.valueOf(rain.getRain3h())));
+            }
+
+            if (snow != null && snow.hasSnow3h()) {
+                totalPrecipitation = totalPrecipitation.add(new BigDecimal(String.valueOf(snow.getSnow3h())));
+            }
+            return totalPrecipitation.floatValue();
+        } else {
+            return null;
+        }
+    }
+
+    private static WeatherCondition translateWeatherCode(int code) {
+        if (code >= 200 && code < 300) {
+            return WeatherCondition.THUNDER;
+        } else if (code >= 300 && code < 400) {
+            return WeatherCondition.DRIZZLE;
+        } else if (code >= 500 && code < 600) {
+            return WeatherCondition.RAINY;
+        } else if (code >= 600 && code < 700) {
+            return WeatherCondition.SNOWY;
+        } else if (code == 701 || code == 721 || code == 741) {
+            return WeatherCondition.FOGGY;
+        } else if (code == 800) {
+            return WeatherCondition.CLEAR;
+        } else if (code > 800 && code < 900) {
+            return WeatherCondition.CLOUDY;
+        } else if (code == 900 || code == 901 || code == 902 || code == 905 || code >= 957) {
+            // tornado, tropical storm, hurricane, windy and high wind to hurricane
+            return WeatherCondition.STORM;
+        } else if (code == 906) {
+            // hail
+            return WeatherCondition.ICY;
+        } else {
+            return WeatherCondition.OTHER;
+        }
+    }
+
+    /**
+     * Get the time of day in minutes precision from a date object
+     * in the current time zone of the device.
+     * @param date a date object
+     * @return whole minutes from midnight in current timezone
+     */
+    private static Integer getTimeOfDayFromDate(Date date) {
+        if (date == null || date.getTime() == 0) {
+            return null;
+        }
+
+        return SolarCalculator.toTimeOfDay(date.getTime(), TimeZone.getDefault());
+    }
+}
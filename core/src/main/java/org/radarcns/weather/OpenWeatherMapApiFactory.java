@@ -0,0 +1,101 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.weather;
+
+import net.aksingh.owmjapis.OpenWeatherMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import okhttp3.OkHttpClient;
+
+public class OpenWeatherMapApiFactory implements WeatherApiFactory {
+    private static final Logger logger = LoggerFactory.getLogger(OpenWeatherMapApiFactory.class);
+
+    public static final String SOURCE_OPENWEATHERMAP = "openweathermap";
+    public static final String OPENWEATHERMAP_URL = "weather_api_openweathermap_url";
+    /** Whether to use the One Call API, {@code "true"} or {@code "false"}. */
+    public static final String OPENWEATHERMAP_ONE_CALL = "weather_api_openweathermap_one_call";
+    /**
+     * Whether to resolve locations to OpenWeatherMap city IDs and query by city ID afterwards,
+     * {@code "true"} or {@code "false"}.
+     */
+    public static final String OPENWEATHERMAP_CITY_IDS = "weather_api_openweathermap_city_ids";
+    /** Cell size in degrees of locations that resolve to the same city ID, about 1 km. */
+    private static final double CITY_ID_CELL_SIZE = 0.01;
+    private static final int CITY_ID_MAX_ENTRIES = 4096;
+    private static final String CITY_ID_FILE = "openweathermap_city_ids.bin";
+    /** Optional offline city index, created with {@link CityListImporter}. */
+    public static final String CITY_INDEX_FILE = "openweathermap_city_index.bin";
+
+    @Override
+    public String getSourceName() {
+        return SOURCE_OPENWEATHERMAP;
+    }
+
+    @Override
+    public Map<String, String> getDefaultConfig() {
+        Map<String, String> config = new HashMap<>();
+        config.put(OPENWEATHERMAP_URL, OpenWeatherMap.URL_API);
+        config.put(OPENWEATHERMAP_ONE_CALL, "false");
+        config.put(OPENWEATHERMAP_CITY_IDS, "false");
+        return Collections.unmodifiableMap(config);
+    }
+
+    @Override
+    public WeatherApi create(String apiKey, Map<String, String> config, OkHttpClient client,
+            WeatherMetrics metrics) {
+        String url = config.get(OPENWEATHERMAP_URL);
+        if (url == null || url.isEmpty()) {
+            url = OpenWeatherMap.URL_API;
+        } else if (!url.endsWith("/")) {
+            url += "/";
+        }
+        boolean useOneCall = Boolean.parseBoolean(config.get(OPENWEATHERMAP_ONE_CALL));
+        CityIdCache cityIds = null;
+        CityIndex cityIndex = null;
+        if (Boolean.parseBoolean(config.get(OPENWEATHERMAP_CITY_IDS))) {
+            String directory = config.get(STORAGE_DIRECTORY);
+            cityIds = new CityIdCache(CITY_ID_CELL_SIZE, CITY_ID_MAX_ENTRIES,
+                    directory != null ? new File(directory, CITY_ID_FILE) : null);
+            if (directory != null) {
+                cityIndex = openCityIndex(new File(directory, CITY_INDEX_FILE));
+            }
+        }
+        return new OpenWeatherMapApi(url, apiKey, client, metrics, useOneCall, cityIds, cityIndex);
+    }
+
+    private static CityIndex openCityIndex(File indexFile) {
+        if (!indexFile.exists()) {
+            return null;
+        }
+        try {
+            CityIndex index = CityIndex.open(indexFile);
+            logger.info("Using offline index of {} cities", index.size());
+            return index;
+        } catch (IOException ex) {
+            logger.warn("Cannot open city index {}: {}", indexFile, ex.toString());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.weather;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs independent weather requests concurrently and waits for all of them with a single
+ * deadline. The total duration is then close to that of the slowest request, instead of the sum
+ * of all requests. Requests to the same host share the connection pool of the HTTP client, and
+ * are multiplexed over a single connection if the host supports HTTP/2.
+ *
+ * <p>Requests should be submitted and awaited from a single thread.
+ */
+public class ParallelFetch {
+    private final Executor executor;
+    private final Deadline deadline;
+    private final List<FutureTask<?>> tasks = new ArrayList<>();
+
+    /**
+     * Fetch stage.
+     * @param executor executor to run requests on
+     * @param deadline deadline that all requests share
+     */
+    public ParallelFetch(Executor executor, Deadline deadline) {
+        this.executor = executor;
+        this.deadline = deadline;
+    }
+
+    /**
+     * Start a request. If the executor does not accept it, it runs on the calling thread.
+     * @param request request to run, which should itself respect the deadline
+     * @param <T> type of result
+     * @return future result of the request
+     */
+    public <T> Future<T> submit(Callable<T> request) {
+        FutureTask<T> task = new FutureTask<>(request);
+        tasks.add(task);
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException ex) {
+            task.run();
+        }
+        return task;
+    }
+
+    /**
+     * Wait for all requests to finish, at most until the deadline. Requests that are still
+     * running after the deadline are cancelled.
+     * @return {@code true} if all requests finished, successfully or not.
+     */
+    public boolean awaitAll() {
+        boolean isComplete = true;
+        for (FutureTask<?> task : tasks) {
+            if (!isComplete) {
+                task.cancel(true);
+                continue;
+            }
+            try {
+                if (deadline.isSet()) {
+                    task.get(deadline.remaining(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+                } else {
+                    task.get();
+                }
+            } catch (ExecutionException | CancellationException ex) {
+                // failure is reported by getResult
+            } catch (TimeoutException ex) {
+                isComplete = false;
+                task.cancel(true);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                isComplete = false;
+                task.cancel(true);
+            }
+        }
+        return isComplete;
+    }
+
+    /** Number of requests that were submitted. */
+    public int size() {
+        return tasks.size();
+    }
+
+    /**
+     * Number of requests that failed or were cancelled. Requests that are still running are not
+     * counted.
+     * @return number of failed requests
+     */
+    public int getFailureCount() {
+        int failures = 0;
+        for (FutureTask<?> task : tasks) {
+            if (task.isCancelled()) {
+                failures++;
+            } else if (task.isDone()) {
+                try {
+                    task.get();
+                } catch (ExecutionException ex) {
+                    failures++;
+                } catch (InterruptedException ex) {
+                    // cannot occur for a finished task
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * Result of a finished request.
+     * @param future future returned by {@link #submit(Callable)}
+     * @param <T> type of result
+     * @return result of the request
+     * @throws InterruptedIOException if the request was cancelled at the deadline
+     * @throws IOException if the request failed
+     */
+    public static <T> T getResult(Future<T> future) throws IOException {
+        if (!future.isDone()) {
+            throw new IllegalStateException("Request has not finished");
+        }
+        try {
+            return future.get();
+        } catch (CancellationException ex) {
+            throw new InterruptedIOException("Deadline exceeded before the request finished");
+        } catch (InterruptedException ex) {
+            // cannot occur for a finished future
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while getting the request result");
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else {
+                throw new IOException("Request failed", cause);
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.weather;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deterministic per-device phase offset for weather queries. Devices in a study usually share
+ * the same query interval, so their queries tend to coincide and exceed the rate limit of the
+ * shared API key. Each device instead queries at a fixed offset within a spread window, derived
+ * from a hash of its identifier. The window is limited to the query interval, so a spread that is
+ * at least as wide as the interval distributes the queries of many devices uniformly over the
+ * whole interval. The offset of a single device does not change across restarts.
+ */
+public final class QueryJitter {
+    private final long phase;
+    private final long spread;
+
+    /**
+     * Jitter for given device.
+     * @param id device identifier, for example the source ID. If {@code null}, no offset is used.
+     * @param spread width of the window to spread queries over, zero to disable jitter
+     * @param unit unit of the spread
+     */
+    public QueryJitter(String id, long spread, TimeUnit unit) {
+        this.spread = Math.max(unit.toMillis(spread), 0L);
+        this.phase = id != null ? hash(id) >>> 1 : 0L;
+    }
+
+    /**
+     * Offset of this device within the spread window, limited to given period.
+     * @param period maximum window, for example the query interval, or zero for no limit
+     * @param unit unit of the period and of the result
+     * @return offset
+     */
+    public long getOffset(long period, TimeUnit unit) {
+        return unit.convert(offset(unit.toMillis(period)), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Offset of this device within the spread window, limited to given period.
+     * @param period maximum window in milliseconds, or zero for no limit
+     */
+    private long offset(long period) {
+        long window = period > 0 ? Math.min(spread, period) : spread;
+        return window > 0 ? phase % window : 0L;
+    }
+
+    /**
+     * Next query time on a fixed grid of the query interval, shifted by the offset of this device.
+     * The grid is anchored at the Unix Epoch and the offset is taken within the query interval,
+     * so devices with different offsets query at different times regardless of when they
+     * started. The result is the first grid time that is more than half an interval after the
+     * current time, so intervals between queries stay close to the query interval.
+     * @param now current time in milliseconds
+     * @param interval query interval in milliseconds
+     * @return next query time in milliseconds
+     */
+    public long nextGridTime(long now, long interval) {
+        if (interval <= 0) {
+            return now;
+        }
+        long offset = offset(interval);
+        long earliest = now + interval / 2 - offset;
+        return (earliest / interval + 1) * interval + offset;
+    }
+
+    /**
+     * Shift a query time by the offset of this device, within at most the given period.
+     * This spreads queries that are aligned to a shared event, like a provider update.
+     * @param time query time in milliseconds
+     * @param period maximum shift in milliseconds
+     * @return shifted query time
+     */
+    public long shift(long time, long period) {
+        return time + offset(period);
+    }
+
+    /** 64-bit FNV-1a hash of a string, with a final bit mix for a uniform distribution. */
+    private static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.weather;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spaces out operations to a maximum rate. Threads that exceed the rate sleep until their turn.
+ */
+class RateLimiter {
+    private final long intervalNanos;
+    private long nextPermitTime;
+
+    /**
+     * Rate limiter with given rate.
+     * @param permitsPerSecond maximum number of permits per second, or a non-positive number for
+     *                         no limit.
+     */
+    RateLimiter(double permitsPerSecond) {
+        this.intervalNanos = permitsPerSecond > 0
+                ? (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond)
+                : 0L;
+        this.nextPermitTime = System.nanoTime();
+    }
+
+    /**
+     * Wait until the next permit is available.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    void acquire() throws InterruptedException {
+        if (intervalNanos == 0L) {
+            return;
+        }
+        long permitTime;
+        synchronized (this) {
+            permitTime = Math.max(System.nanoTime(), nextPermitTime);
+            nextPermitTime = permitTime + intervalNanos;
+        }
+        long waitTime = permitTime - System.nanoTime();
+        if (waitTime > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitTime);
+        }
+    }
+}
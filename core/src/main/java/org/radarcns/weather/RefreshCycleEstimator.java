@@ -0,0 +1,190 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.weather;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Estimates when a weather provider publishes new observations, from the observation times of
+ * earlier results. The provider is assumed to publish a new observation every period, some
+ * delay after it was observed. The age of a result when it is retrieved is then between that
+ * delay and the delay plus the period. The minimum and maximum age over recent results give a
+ * first estimate of both. Since observation times are a whole number of periods apart, the period
+ * is then refined using the differences between observation times, smallest first. The latest
+ * observation time gives the phase.
+ *
+ * <p>This class is not thread-safe.
+ */
+public class RefreshCycleEstimator {
+    private static final int MIN_SAMPLES = 4;
+
+    private final long[] ages;
+    private final long[] observationTimes;
+    private final long minPeriod;
+    private final long maxPeriod;
+    private final long margin;
+    private int count;
+    private int next;
+    private long lastFetchTime = Long.MIN_VALUE;
+    private long lastObservationTime;
+
+    /**
+     * Estimator using a given number of recent results.
+     * @param windowSize number of recent results to estimate with
+     * @param minPeriod minimum plausible refresh period
+     * @param maxPeriod maximum plausible refresh period
+     * @param margin time after the expected publication to query at
+     * @param unit unit of the periods and margin
+     */
+    public RefreshCycleEstimator(int windowSize, long minPeriod, long maxPeriod, long margin,
+            TimeUnit unit) {
+        if (windowSize < MIN_SAMPLES) {
+            throw new IllegalArgumentException("Window size must be at least " + MIN_SAMPLES);
+        }
+        this.ages = new long[windowSize];
+        this.observationTimes = new long[windowSize];
+        this.minPeriod = unit.toMillis(minPeriod);
+        this.maxPeriod = unit.toMillis(maxPeriod);
+        this.margin = unit.toMillis(margin);
+    }
+
+    /**
+     * Record a result retrieved from the provider. Results that were retrieved before the last
+     * recorded result, or that have no observation time, are ignored. This way, results that are
+     * served from a cache repeatedly are only counted once.
+     * @param result weather result
+     */
+    public void record(WeatherApiResult result) {
+        Double observationTime = result.getObservationTime();
+        if (observationTime == null) {
+            return;
+        }
+        long fetchTime = (long) (result.getTimestamp() * 1000d);
+        if (fetchTime <= lastFetchTime) {
+            return;
+        }
+        lastFetchTime = fetchTime;
+        lastObservationTime = (long) (observationTime * 1000d);
+        ages[next] = fetchTime - lastObservationTime;
+        observationTimes[next] = lastObservationTime;
+        next = (next + 1) % ages.length;
+        if (count < ages.length) {
+            count++;
+        }
+    }
+
+    /**
+     * Whether enough results were recorded to give a plausible refresh period.
+     * @return {@code true} if the estimates can be used
+     */
+    public boolean isReady() {
+        if (count < MIN_SAMPLES) {
+            return false;
+        }
+        long period = getPeriodMillis();
+        return period >= minPeriod && period <= maxPeriod;
+    }
+
+    /**
+     * Estimated time between two observations of the provider.
+     * @param unit unit of the result
+     * @return period, or zero if no results were recorded
+     */
+    public long getPeriod(TimeUnit unit) {
+        return unit.convert(getPeriodMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Estimated time between an observation and its publication by the provider.
+     * @param unit unit of the result
+     * @return delay, or zero if no results were recorded
+     */
+    public long getPublicationDelay(TimeUnit unit) {
+        return unit.convert(count > 0 ? minAge() : 0L, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Time to query at next, to get a new observation as soon as possible after it is expected
+     * to be published. This is the last expected publication before the target time. If no new
+     * publication is expected before then, it is the first expected publication after it.
+     * If the estimates are not ready, the target time itself is returned.
+     * @param now current time in milliseconds
+     * @param target time in milliseconds to query at if no alignment is done
+     * @return time in milliseconds to query at
+     */
+    public long nextQueryTime(long now, long target) {
+        if (!isReady() || target <= now) {
+            return target;
+        }
+        long period = getPeriodMillis();
+        long anchor = lastObservationTime + minAge() + margin;
+        if (target < anchor) {
+            return target;
+        }
+        long aligned = anchor + (target - anchor) / period * period;
+        if (aligned <= now) {
+            aligned += period;
+        }
+        return aligned;
+    }
+
+    private long getPeriodMillis() {
+        if (count == 0) {
+            return 0L;
+        }
+        long max = Long.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            if (ages[i] > max) {
+                max = ages[i];
+            }
+        }
+        long period = max - minAge();
+        if (period <= 0L) {
+            return period;
+        }
+
+        long[] sorted = Arrays.copyOf(observationTimes, count);
+        Arrays.sort(sorted);
+        long[] differences = new long[count - 1];
+        for (int i = 1; i < count; i++) {
+            differences[i - 1] = sorted[i] - sorted[i - 1];
+        }
+        Arrays.sort(differences);
+        long totalDifference = 0L;
+        long totalPeriods = 0L;
+        for (long difference : differences) {
+            long periods = (difference + period / 2) / period;
+            if (periods > 0) {
+                totalDifference += difference;
+                totalPeriods += periods;
+                period = totalDifference / totalPeriods;
+            }
+        }
+        return period;
+    }
+
+    private long minAge() {
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            if (ages[i] < min) {
+                min = ages[i];
+            }
+        }
+        return min;
+    }
+}
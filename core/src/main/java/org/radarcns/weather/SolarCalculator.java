@@ -0,0 +1,219 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.weather;
+
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Computes sunrise and sunset on the device, without network access. Results are cached per
+ * day and per grid cell, and computed for the center of the cell. With the default cell size of
+ * 0.1 degrees, the error due to the cell size is below half a minute.
+ *
+ * <p>The computation follows the sunrise equation with the standard correction of -0.833
+ * degrees for atmospheric refraction and the size of the solar disc. It is accurate to within a
+ * few minutes outside of the polar regions. This class is thread-safe.
+ */
+public class SolarCalculator {
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+    private static final double JULIAN_DATE_UNIX_EPOCH = 2440587.5;
+    private static final double JULIAN_DATE_J2000 = 2451545.0;
+    private static final double SIN_SUN_ALTITUDE = Math.sin(Math.toRadians(-0.833));
+    private static final double SIN_EARTH_TILT = Math.sin(Math.toRadians(23.4397));
+
+    private final double cellSize;
+    private final long latitudeCells;
+    private final long longitudeCells;
+    private final int maxEntries;
+    private final ConcurrentMap<Long, SunTimes> cache;
+
+    /** Calculator with a cell size of 0.1 degrees, caching up to 1024 cell-days. */
+    public SolarCalculator() {
+        this(0.1, 1024);
+    }
+
+    /**
+     * Calculator with given cache parameters.
+     * @param cellSize size of a grid cell in degrees
+     * @param maxEntries maximum number of cell-days to cache
+     */
+    public SolarCalculator(double cellSize, int maxEntries) {
+        if (cellSize <= 0 || cellSize > 90) {
+            throw new IllegalArgumentException("Cell size must be between 0 and 90 degrees");
+        }
+        this.cellSize = cellSize;
+        this.latitudeCells = (long) Math.ceil(180d / cellSize) + 1;
+        this.longitudeCells = (long) Math.ceil(360d / cellSize) + 1;
+        this.maxEntries = maxEntries;
+        this.cache = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Sunrise and sunset on the local day that contains given time.
+     * @param latitude WGS84 latitude
+     * @param longitude WGS84 longitude
+     * @param timeMillis time in milliseconds since the Unix Epoch
+     * @param timeZone time zone that determines the local day
+     * @return sunrise and sunset
+     */
+    public SunTimes getSunTimes(double latitude, double longitude, long timeMillis, TimeZone timeZone) {
+        long localMillis = timeMillis + timeZone.getOffset(timeMillis);
+        long epochDay = (localMillis - floorMod(localMillis, DAY_MILLIS)) / DAY_MILLIS;
+        long latitudeIndex = (long) Math.floor((latitude + 90d) / cellSize);
+        long longitudeIndex = (long) Math.floor((longitude + 180d) / cellSize);
+        Long key = (epochDay * latitudeCells + latitudeIndex) * longitudeCells + longitudeIndex;
+
+        SunTimes times = cache.get(key);
+        if (times == null) {
+            times = compute((latitudeIndex + 0.5d) * cellSize - 90d,
+                    (longitudeIndex + 0.5d) * cellSize - 180d, epochDay);
+            if (cache.size() >= maxEntries) {
+                // entries are only valid for one day, so there is no need for a precise policy
+                cache.clear();
+            }
+            cache.put(key, times);
+        }
+        return times;
+    }
+
+    /**
+     * Sunrise and sunset in the device time zone, as minutes after local midnight.
+     * @param latitude WGS84 latitude
+     * @param longitude WGS84 longitude
+     * @param timeMillis time in milliseconds since the Unix Epoch
+     * @return sunrise and sunset
+     */
+    public SunTimes getSunTimes(double latitude, double longitude, long timeMillis) {
+        return getSunTimes(latitude, longitude, timeMillis, TimeZone.getDefault());
+    }
+
+    /**
+     * Compute sunrise and sunset without caching.
+     * @param latitude WGS84 latitude
+     * @param longitude WGS84 longitude
+     * @param epochDay day since the Unix Epoch
+     * @return sunrise and sunset around the solar noon of given day
+     */
+    public static SunTimes compute(double latitude, double longitude, long epochDay) {
+        // days since J2000 at noon UTC, corrected for the longitude
+        double meanSolarTime = epochDay + JULIAN_DATE_UNIX_EPOCH + 0.5 - JULIAN_DATE_J2000
+                + 0.0008 - longitude / 360d;
+        double meanAnomaly = Math.toRadians((357.5291 + 0.98560028 * meanSolarTime) % 360d);
+        double center = 1.9148 * Math.sin(meanAnomaly) + 0.0200 * Math.sin(2 * meanAnomaly)
+                + 0.0003 * Math.sin(3 * meanAnomaly);
+        double eclipticLongitude = Math.toRadians(
+                (Math.toDegrees(meanAnomaly) + center + 180d + 102.9372) % 360d);
+        double transit = JULIAN_DATE_J2000 + meanSolarTime + 0.0053 * Math.sin(meanAnomaly)
+                - 0.0069 * Math.sin(2 * eclipticLongitude);
+
+        double sinDeclination = Math.sin(eclipticLongitude) * SIN_EARTH_TILT;
+        double cosDeclination = Math.sqrt(1 - sinDeclination * sinDeclination);
+        double latitudeRadians = Math.toRadians(latitude);
+        double cosHourAngle = (SIN_SUN_ALTITUDE - Math.sin(latitudeRadians) * sinDeclination)
+                / (Math.cos(latitudeRadians) * cosDeclination);
+
+        if (cosHourAngle > 1d) {
+            return new SunTimes(Long.MIN_VALUE, Long.MIN_VALUE, false);
+        } else if (cosHourAngle < -1d) {
+            return new SunTimes(Long.MIN_VALUE, Long.MIN_VALUE, true);
+        }
+        double hourAngle = Math.toDegrees(Math.acos(cosHourAngle)) / 360d;
+        return new SunTimes(toEpochMillis(transit - hourAngle), toEpochMillis(transit + hourAngle), false);
+    }
+
+    private static long toEpochMillis(double julianDate) {
+        return Math.round((julianDate - JULIAN_DATE_UNIX_EPOCH) * DAY_MILLIS);
+    }
+
+    /** Sunrise and sunset of a single day. */
+    public static final class SunTimes {
+        private final long sunrise;
+        private final long sunset;
+        private final boolean isPolarDay;
+
+        private SunTimes(long sunrise, long sunset, boolean isPolarDay) {
+            this.sunrise = sunrise;
+            this.sunset = sunset;
+            this.isPolarDay = isPolarDay;
+        }
+
+        /** Whether the sun rises and sets on this day. */
+        public boolean hasSunriseAndSunset() {
+            return sunrise != Long.MIN_VALUE;
+        }
+
+        /** Whether the sun stays above the horizon all day. */
+        public boolean isPolarDay() {
+            return isPolarDay;
+        }
+
+        /** Sunrise in milliseconds since the Unix Epoch, or {@code Long.MIN_VALUE} if none. */
+        public long getSunrise() {
+            return sunrise;
+        }
+
+        /** Sunset in milliseconds since the Unix Epoch, or {@code Long.MIN_VALUE} if none. */
+        public long getSunset() {
+            return sunset;
+        }
+
+        /**
+         * Sunrise as minutes after local midnight, as used in {@link WeatherApiResult}.
+         * @param timeZone local time zone
+         * @return minutes after midnight or {@code null} if the sun does not rise.
+         */
+        public Integer getSunRiseTimeOfDay(TimeZone timeZone) {
+            return toTimeOfDay(sunrise, timeZone);
+        }
+
+        /**
+         * Sunset as minutes after local midnight, as used in {@link WeatherApiResult}.
+         * @param timeZone local time zone
+         * @return minutes after midnight or {@code null} if the sun does not set.
+         */
+        public Integer getSunSetTimeOfDay(TimeZone timeZone) {
+            return toTimeOfDay(sunset, timeZone);
+        }
+
+        @Override
+        public String toString() {
+            return "SunTimes{sunrise=" + sunrise + ", sunset=" + sunset + ", isPolarDay=" + isPolarDay + '}';
+        }
+    }
+
+    /**
+     * Time of day in minutes after local midnight.
+     * @param timeMillis time in milliseconds since the Unix Epoch
+     * @param timeZone local time zone
+     * @return minutes after midnight, or {@code null} if the time is {@code Long.MIN_VALUE}.
+     */
+    static Integer toTimeOfDay(long timeMillis, TimeZone timeZone) {
+        if (timeMillis == Long.MIN_VALUE) {
+            return null;
+        }
+        long localMillis = floorMod(timeMillis + timeZone.getOffset(timeMillis), DAY_MILLIS);
+        return (int) (localMillis / TimeUnit.MINUTES.toMillis(1));
+    }
+
+    /** Modulo that is never negative. Math.floorMod is not available on older Android versions. */
+    private static long floorMod(long value, long divisor) {
+        long mod = value % divisor;
+        return mod < 0 ? mod + divisor : mod;
+    }
+}
@@ -0,0 +1,484 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.weather;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Weather API that caches results by grid cell. All locations in the same cell share one
+ * result until it expires. If a cell has no result, a result of a neighbouring cell whose center
+ * is close enough to the requested location is used instead.
+ *
+ * <p>Reads are lock-free. Concurrent misses in the same cell are coalesced into a single request
+ * to the underlying weather API. This class is thread-safe, so one instance can be shared by all
+ * participants of a server-side deployment.
+ *
+ * <p>Forecasts are cached per cell as well, usually with a shorter time to live, so that many
+ * future time points can be read without further requests.
+ */
+public class SpatialWeatherCache implements WeatherApi {
+    private static final Logger logger = LoggerFactory.getLogger(SpatialWeatherCache.class);
+
+    private final WeatherApi weatherApi;
+    private final double cellSize;
+    private final double neighbourDistance;
+    private final long ttlNanos;
+    private final long forecastTtlNanos;
+    private final int maxEntries;
+    private final WeatherMetrics metrics;
+    private final NanoClock clock;
+
+    private final ConcurrentMap<Long, Entry> entries;
+    private final ConcurrentMap<Long, FutureTask<Entry>> loading;
+    private final ConcurrentMap<Long, ForecastEntry> forecasts;
+    private final ConcurrentMap<Long, FutureTask<ForecastEntry>> forecastLoading;
+    private final AtomicLong lookups;
+    private final AtomicLong loads;
+
+    /**
+     * Spatial cache with given parameters.
+     * @param weatherApi weather API to load results from
+     * @param cellSize size of a grid cell in degrees
+     * @param ttl time that a result stays valid
+     * @param unit unit of the time to live
+     * @param maxEntries maximum number of cells to keep
+     * @param metrics metrics to record cache hits in, may be {@code null}
+     */
+    public SpatialWeatherCache(WeatherApi weatherApi, double cellSize, long ttl, TimeUnit unit,
+            int maxEntries, WeatherMetrics metrics) {
+        this(weatherApi, cellSize, ttl, ttl, unit, maxEntries, metrics);
+    }
+
+    /**
+     * Spatial cache with given parameters.
+     * @param weatherApi weather API to load results from
+     * @param cellSize size of a grid cell in degrees
+     * @param ttl time that a result stays valid
+     * @param forecastTtl time that a forecast stays valid
+     * @param unit unit of the times to live
+     * @param maxEntries maximum number of cells to keep, for results and forecasts each
+     * @param metrics metrics to record cache hits in, may be {@code null}
+     */
+    public SpatialWeatherCache(WeatherApi weatherApi, double cellSize, long ttl, long forecastTtl,
+            TimeUnit unit, int maxEntries, WeatherMetrics metrics) {
+        this(weatherApi, cellSize, ttl, forecastTtl, unit, maxEntries, metrics, NanoClock.SYSTEM);
+    }
+
+    /**
+     * Spatial cache with given parameters.
+     * @param weatherApi weather API to load results from
+     * @param cellSize size of a grid cell in degrees
+     * @param ttl time that a result stays valid
+     * @param forecastTtl time that a forecast stays valid
+     * @param unit unit of the times to live
+     * @param maxEntries maximum number of cells to keep, for results and forecasts each
+     * @param metrics metrics to record cache hits in, may be {@code null}
+     * @param clock clock to expire results with. It should keep running while the device
+     *              sleeps, so that results do not outlive their time to live.
+     */
+    public SpatialWeatherCache(WeatherApi weatherApi, double cellSize, long ttl, long forecastTtl,
+            TimeUnit unit, int maxEntries, WeatherMetrics metrics, NanoClock clock) {
+        if (cellSize <= 0 || cellSize > 90) {
+            throw new IllegalArgumentException("Cell size must be between 0 and 90 degrees");
+        }
+        this.weatherApi = weatherApi;
+        this.cellSize = cellSize;
+        this.neighbourDistance = 0.75 * cellSize;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.forecastTtlNanos = unit.toNanos(forecastTtl);
+        this.maxEntries = maxEntries;
+        this.metrics = metrics;
+        this.clock = clock;
+        this.entries = new ConcurrentHashMap<>();
+        this.loading = new ConcurrentHashMap<>();
+        this.forecasts = new ConcurrentHashMap<>();
+        this.forecastLoading = new ConcurrentHashMap<>();
+        this.lookups = new AtomicLong();
+        this.loads = new AtomicLong();
+    }
+
+    @Override
+    public WeatherApiResult loadCurrentWeather(double latitude, double longitude)
+            throws IOException {
+        return loadCurrentWeather(latitude, longitude, Deadline.NONE);
+    }
+
+    /**
+     * Load the current weather from cache, or from the underlying weather API if needed. If
+     * another thread is already loading the same cell, this waits for that result at most until
+     * the deadline.
+     */
+    @Override
+    public WeatherApiResult loadCurrentWeather(double latitude, double longitude,
+            Deadline deadline) throws IOException {
+        lookups.incrementAndGet();
+        long now = clock.nanoTime();
+        long latitudeIndex = latitudeIndex(latitude);
+        long longitudeIndex = longitudeIndex(longitude);
+        final Long key = cellKey(latitudeIndex, longitudeIndex);
+
+        Entry entry = entries.get(key);
+        if (entry == null || entry.isExpired(now)) {
+            entry = nearestNeighbour(latitude, longitude, latitudeIndex, longitudeIndex, now);
+        }
+        if (entry != null) {
+            if (metrics != null) {
+                metrics.recordCacheHit();
+            }
+            return entry.result;
+        }
+        return load(key, latitude, longitude, deadline).result;
+    }
+
+    /**
+     * Get a cached result for the cell of given location, even if it has expired.
+     * @param latitude WGS84 latitude
+     * @param longitude WGS84 longitude
+     * @return cached result or {@code null} if the cell has no result.
+     */
+    public WeatherApiResult getCached(double latitude, double longitude) {
+        Entry entry = entries.get(cellKey(latitudeIndex(latitude), longitudeIndex(longitude)));
+        return entry != null ? entry.result : null;
+    }
+
+    private Entry load(final Long key, final double latitude, final double longitude,
+            final Deadline deadline) throws IOException {
+        FutureTask<Entry> task = new FutureTask<>(() -> {
+            loads.incrementAndGet();
+            Entry newEntry = new Entry(weatherApi.loadCurrentWeather(latitude, longitude, deadline),
+                    clock.nanoTime() + ttlNanos);
+            entries.put(key, newEntry);
+            return newEntry;
+        });
+        FutureTask<Entry> existingTask = loading.putIfAbsent(key, task);
+        if (existingTask == null) {
+            try {
+                task.run();
+            } finally {
+                loading.remove(key, task);
+            }
+            if (entries.size() > maxEntries) {
+                evict();
+            }
+        } else {
+            task = existingTask;
+        }
+        return await(task, deadline);
+    }
+
+    /**
+     * Load the forecast from cache, or from the underlying weather API if needed. Cached
+     * forecasts are only used for the same cell and only if they were loaded with at least the
+     * same horizon.
+     */
+    @Override
+    public WeatherForecast loadForecast(double latitude, double longitude, long horizon,
+            TimeUnit unit) throws IOException {
+        return loadForecast(latitude, longitude, horizon, unit, Deadline.NONE);
+    }
+
+    @Override
+    public WeatherForecast loadForecast(final double latitude, final double longitude,
+            final long horizon, final TimeUnit unit, final Deadline deadline) throws IOException {
+        lookups.incrementAndGet();
+        final long horizonSeconds = unit.toSeconds(horizon);
+        final Long key = cellKey(latitudeIndex(latitude), longitudeIndex(longitude));
+
+        ForecastEntry entry = forecasts.get(key);
+        if (entry != null && !entry.isExpired(clock.nanoTime()) && entry.horizon >= horizonSeconds) {
+            if (metrics != null) {
+                metrics.recordCacheHit();
+            }
+            return entry.forecast.truncate((long) (System.currentTimeMillis() / 1000d) + horizonSeconds);
+        }
+
+        FutureTask<ForecastEntry> task = new FutureTask<>(() -> {
+            loads.incrementAndGet();
+            ForecastEntry newEntry = new ForecastEntry(
+                    weatherApi.loadForecast(latitude, longitude, horizon, unit, deadline),
+                    horizonSeconds, clock.nanoTime() + forecastTtlNanos);
+            forecasts.put(key, newEntry);
+            return newEntry;
+        });
+        FutureTask<ForecastEntry> existingTask = forecastLoading.putIfAbsent(key, task);
+        if (existingTask == null) {
+            try {
+                task.run();
+            } finally {
+                forecastLoading.remove(key, task);
+            }
+            if (forecasts.size() > maxEntries) {
+                evictForecasts();
+            }
+        } else {
+            task = existingTask;
+        }
+        WeatherForecast forecast = await(task, deadline).forecast;
+        return forecast.truncate((long) (System.currentTimeMillis() / 1000d) + horizonSeconds);
+    }
+
+    /**
+     * Load weather data from a single endpoint of the underlying weather API, and cache all
+     * parts that it returns. Unlike the other load methods, this always calls the weather API,
+     * since the call is planned with {@link #getLastUpdated(double, double, long, TimeUnit)}.
+     * Concurrent calls are not coalesced.
+     */
+    @Override
+    public WeatherData loadWeather(WeatherRequestPlanner.Endpoint endpoint,
+            Set<WeatherRequestPlanner.DataType> types, double latitude, double longitude,
+            long horizon, TimeUnit unit, Deadline deadline) throws IOException {
+        lookups.incrementAndGet();
+        loads.incrementAndGet();
+        WeatherData data = weatherApi.loadWeather(endpoint, types, latitude, longitude, horizon,
+                unit, deadline);
+        Long key = cellKey(latitudeIndex(latitude), longitudeIndex(longitude));
+        if (data.getCurrent() != null) {
+            entries.put(key, new Entry(data.getCurrent(), clock.nanoTime() + ttlNanos));
+            if (entries.size() > maxEntries) {
+                evict();
+            }
+        }
+        if (data.getForecast() != null) {
+            forecasts.put(key, new ForecastEntry(data.getForecast(), unit.toSeconds(horizon),
+                    clock.nanoTime() + forecastTtlNanos));
+            if (forecasts.size() > maxEntries) {
+                evictForecasts();
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Time that each type of weather data in the cell of given location was retrieved, to plan
+     * requests with a {@link WeatherRequestPlanner}. Only data that has not expired is included,
+     * and forecasts only if they reach the given horizon.
+     * @param latitude WGS84 latitude
+     * @param longitude WGS84 longitude
+     * @param horizon how far ahead a forecast should reach
+     * @param unit unit of the horizon
+     * @return retrieval time in milliseconds since the Unix Epoch per data type
+     */
+    public Map<WeatherRequestPlanner.DataType, Long> getLastUpdated(double latitude,
+            double longitude, long horizon, TimeUnit unit) {
+        Map<WeatherRequestPlanner.DataType, Long> lastUpdated = new EnumMap<>(
+                WeatherRequestPlanner.DataType.class);
+        long now = clock.nanoTime();
+        Long key = cellKey(latitudeIndex(latitude), longitudeIndex(longitude));
+        Entry entry = entries.get(key);
+        if (entry != null && entry.result != null && !entry.isExpired(now)) {
+            lastUpdated.put(WeatherRequestPlanner.DataType.CURRENT,
+                    (long) (entry.result.getTimestamp() * 1000d));
+        }
+        ForecastEntry forecast = forecasts.get(key);
+        if (forecast != null && !forecast.isExpired(now)
+                && forecast.horizon >= unit.toSeconds(horizon)) {
+            lastUpdated.put(WeatherRequestPlanner.DataType.HOURLY_FORECAST,
+                    (long) (forecast.forecast.getTimestamp() * 1000d));
+        }
+        return lastUpdated;
+    }
+
+    /**
+     * Wait for a load to finish, at most until the deadline.
+     * @throws InterruptedIOException if the deadline passed
+     * @throws IOException if the load failed
+     */
+    private static <T> T await(FutureTask<T> task, Deadline deadline) throws IOException {
+        try {
+            if (deadline.isSet()) {
+                return task.get(deadline.remaining(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+            } else {
+                return task.get();
+            }
+        } catch (TimeoutException ex) {
+            throw new InterruptedIOException("Deadline exceeded while waiting for weather of "
+                    + "another request");
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading weather", ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else {
+                throw new IOException("Failed to load weather", cause);
+            }
+        }
+    }
+
+    private Entry nearestNeighbour(double latitude, double longitude, long latitudeIndex,
+            long longitudeIndex, long now) {
+        Entry nearest = null;
+        double nearestDistance = neighbourDistance;
+        // a degree of longitude shrinks towards the poles
+        double longitudeScale = Math.cos(Math.toRadians(latitude));
+        for (long i = latitudeIndex - 1; i <= latitudeIndex + 1; i++) {
+            for (long j = longitudeIndex - 1; j <= longitudeIndex + 1; j++) {
+                if (i == latitudeIndex && j == longitudeIndex) {
+                    continue;
+                }
+                Entry entry = entries.get(cellKey(i, j));
+                if (entry == null || entry.isExpired(now)) {
+                    continue;
+                }
+                double distance = Math.max(
+                        Math.abs((i + 0.5d) * cellSize - 90d - latitude),
+                        Math.abs((j + 0.5d) * cellSize - 180d - longitude) * longitudeScale);
+                if (distance <= nearestDistance) {
+                    nearest = entry;
+                    nearestDistance = distance;
+                }
+            }
+        }
+        return nearest;
+    }
+
+    /** Remove expired forecasts, and if that is not sufficient, arbitrary other forecasts. */
+    private void evictForecasts() {
+        long now = clock.nanoTime();
+        Iterator<ForecastEntry> iterator = forecasts.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().isExpired(now)) {
+                iterator.remove();
+            }
+        }
+        iterator = forecasts.values().iterator();
+        while (forecasts.size() > maxEntries && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    /** Remove expired entries, and if that is not sufficient, arbitrary other entries. */
+    private void evict() {
+        long now = clock.nanoTime();
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().isExpired(now)) {
+                iterator.remove();
+            }
+        }
+        iterator = entries.values().iterator();
+        while (entries.size() > maxEntries && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+        logger.debug("Evicted weather cache to {} entries", entries.size());
+    }
+
+    private long latitudeIndex(double latitude) {
+        return (long) Math.floor((latitude + 90d) / cellSize);
+    }
+
+    private long longitudeIndex(double longitude) {
+        return (long) Math.floor((longitude + 180d) / cellSize);
+    }
+
+    private static Long cellKey(long latitudeIndex, long longitudeIndex) {
+        return (latitudeIndex << 32) | (longitudeIndex & 0xFFFFFFFFL);
+    }
+
+    /** Number of lookups per request to the underlying weather API. */
+    public double getDeduplicationRatio() {
+        long numLoads = loads.get();
+        return numLoads > 0 ? lookups.get() / (double) numLoads : 0d;
+    }
+
+    /** Number of lookups. */
+    public long getLookupCount() {
+        return lookups.get();
+    }
+
+    /** Number of requests made to the underlying weather API. */
+    public long getLoadCount() {
+        return loads.get();
+    }
+
+    /** Remove all cached results and forecasts. */
+    public void clear() {
+        entries.clear();
+        forecasts.clear();
+    }
+
+    /** Number of cells with a cached result. */
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public void warmUp() throws IOException {
+        weatherApi.warmUp();
+    }
+
+    @Override
+    public List<WeatherRequestPlanner.Endpoint> getEndpoints() {
+        return weatherApi.getEndpoints();
+    }
+
+    @Override
+    public String getSourceName() {
+        return weatherApi.getSourceName();
+    }
+
+    private static class ForecastEntry {
+        private final WeatherForecast forecast;
+        private final long horizon;
+        private final long expiryTime;
+
+        private ForecastEntry(WeatherForecast forecast, long horizon, long expiryTime) {
+            this.forecast = forecast;
+            this.horizon = horizon;
+            this.expiryTime = expiryTime;
+        }
+
+        private boolean isExpired(long now) {
+            return now - expiryTime > 0;
+        }
+    }
+
+    private static class Entry {
+        private final WeatherApiResult result;
+        private final long expiryTime;
+
+        private Entry(WeatherApiResult result, long expiryTime) {
+            this.result = result;
+            this.expiryTime = expiryTime;
+        }
+
+        private boolean isExpired(long now) {
+            return now - expiryTime > 0;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.weather;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.radarcns.weather.WeatherRequestPlanner.DataType.CURRENT;
+import static org.radarcns.weather.WeatherRequestPlanner.DataType.HOURLY_FORECAST;
+
+public interface WeatherApi extends Closeable {
+    /**
+     * Loads current weather at a set of coordinates.
+     * @param latitude WGS84 latitude
+     * @param longitude WGS84 longitude
+     * @throws IOException if loading the current weather fails.
+     */
+    WeatherApiResult loadCurrentWeather(double latitude, double longitude) throws IOException;
+
+    /**
+     * Loads current weather at a set of coordinates, within a deadline. Requests that are still
+     * running when the deadline passes are cancelled. By default, the deadline is only checked
+     * before calling {@link #loadCurrentWeather(double, double)}.
+     * @param latitude WGS84 latitude
+     * @param longitude WGS84 longitude
+     * @param deadline deadline to finish loading by
+     * @throws java.io.InterruptedIOException if the deadline passed before the weather was loaded.
+     * @throws IOException if loading the current weather fails.
+     */
+    default WeatherApiResult loadCurrentWeather(double latitude, double longitude,
+            Deadline deadline) throws IOException {
+        deadline.check();
+        return loadCurrentWeather(latitude, longitude);
+    }
+
+    /**
+     * Loads the weather forecast at a set of coordinates. By default, forecasts are not supported.
+     * @param latitude WGS84 latitude
+     * @param longitude WGS84 longitude
+     * @param horizon how far ahead the forecast should reach. The forecast may end earlier if
+     *                the API does not forecast that far.
+     * @param unit unit of the horizon
+     * @throws IOException if loading the forecast fails or forecasts are not supported.
+     */
+    default WeatherForecast loadForecast(double latitude, double longitude, long horizon,
+            TimeUnit unit) throws IOException {
+        throw new IOException("Weather API " + getSourceName() + " does not support forecasts");
+    }
+
+    /**
+     * Loads the weather forecast at a set of coordinates, within a deadline. By default, the
+     * deadline is only checked before calling
+     * {@link #loadForecast(double, double, long, TimeUnit)}.
+     * @param latitude WGS84 latitude
+     * @param longitude WGS84 longitude
+     * @param horizon how far ahead the forecast should reach. The forecast may end earlier if
+     *                the API does not forecast that far.
+     * @param unit unit of the horizon
+     * @param deadline deadline to finish loading by
+     * @throws java.io.InterruptedIOException if the deadline passed before the forecast was loaded.
+     * @throws IOException if loading the forecast fails.
+     */
+    default WeatherForecast loadForecast(double latitude, double longitude, long horizon,
+            TimeUnit unit, Deadline deadline) throws IOException {
+        deadline.check();
+        return loadForecast(latitude, longitude, horizon, unit);
+    }
+
+    /**
+     * Loads weather data from a single endpoint, as planned by a {@link WeatherRequestPlanner}.
+     * By default, the current weather and the hourly forecast are loaded with separate calls to
+     * {@link #loadCurrentWeather(double, double, Deadline)} and
+     * {@link #loadForecast(double, double, long, TimeUnit, Deadline)}. Daily forecasts are not
+     * loaded.
+     * @param endpoint endpoint to call, one of {@link #getEndpoints()}
+     * @param types data types to load. Types that the endpoint does not provide are ignored.
+     * @param latitude WGS84 latitude
+     * @param longitude WGS84 longitude
+     * @param horizon how far ahead a forecast should reach
+     * @param unit unit of the horizon
+     * @param deadline deadline to finish loading by
+     * @return loaded data
+     * @throws java.io.InterruptedIOException if the deadline passed before the data was loaded.
+     * @throws IOException if loading any of the data fails.
+     */
+    default WeatherData loadWeather(WeatherRequestPlanner.Endpoint endpoint,
+            Set<WeatherRequestPlanner.DataType> types, double latitude, double longitude,
+            long horizon, TimeUnit unit, Deadline deadline) throws IOException {
+        Set<WeatherRequestPlanner.DataType> provides = endpoint.getProvides();
+        WeatherApiResult current = null;
+        WeatherForecast forecast = null;
+        if (types.contains(CURRENT) && provides.contains(CURRENT)) {
+            current = loadCurrentWeather(latitude, longitude, deadline);
+        }
+        if (types.contains(HOURLY_FORECAST) && provides.contains(HOURLY_FORECAST)) {
+            forecast = loadForecast(latitude, longitude, horizon, unit, deadline);
+        }
+        return new WeatherData(current, forecast);
+    }
+
+    /**
+     * Prepares the API for its first request, for example by opening a connection to the
+     * API host. By default, nothing is prepared.
+     * @throws IOException if the API host cannot be reached.
+     */
+    default void warmUp() throws IOException {
+        // nothing to prepare
+    }
+
+    /**
+     * Endpoints of this API, to plan requests with. By default, a single endpoint with the
+     * current weather.
+     * @return endpoints in order of preference
+     * @see WeatherRequestPlanner
+     */
+    default List<WeatherRequestPlanner.Endpoint> getEndpoints() {
+        return Collections.singletonList(new WeatherRequestPlanner.Endpoint("current",
+                WeatherRequestPlanner.DataType.CURRENT));
+    }
+
+    /**
+     * Returns name of the source where the weather data was requested.
+     * @return source name or {@code null} if none is set
+     */
+    String getSourceName();
+
+    /**
+     * Releases resources held by the API, like open files. The HTTP client is not closed, since
+     * it is shared. By default, nothing is released.
+     * @throws IOException if the resources cannot be released.
+     */
+    @Override
+    default void close() throws IOException {
+        // nothing to release
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.weather;
+
+import java.util.Map;
+
+import okhttp3.OkHttpClient;
+
+/**
+ * Factory for a {@link WeatherApi}. Implementations are discovered with a
+ * {@link java.util.ServiceLoader}, so they should be listed in
+ * {@code META-INF/services/org.radarcns.weather.WeatherApiFactory} and have a public no-argument
+ * constructor.
+ */
+public interface WeatherApiFactory {
+    /**
+     * Configuration key of a directory where the weather API may store data across restarts.
+     * It is set by the client rather than by the RADAR configuration, and may be absent.
+     */
+    String STORAGE_DIRECTORY = "weather_api_storage_directory";
+
+    /**
+     * Name of the source, as used in the {@code weather_api_source} configuration.
+     * @return source name
+     */
+    String getSourceName();
+
+    /**
+     * Configuration keys that this weather API uses, with their default values. These keys are
+     * read from the RADAR configuration and passed to
+     * {@link #create(String, Map, OkHttpClient, WeatherMetrics)}.
+     * @return configuration keys with default values
+     */
+    Map<String, String> getDefaultConfig();
+
+    /**
+     * Create a new weather API.
+     * @param apiKey API key for the source
+     * @param config configuration values for the keys in {@link #getDefaultConfig()}
+     * @param client HTTP client to make requests with
+     * @param metrics metrics to record requests in
+     * @return new weather API
+     */
+    WeatherApi create(String apiKey, Map<String, String> config, OkHttpClient client,
+            WeatherMetrics metrics);
+}
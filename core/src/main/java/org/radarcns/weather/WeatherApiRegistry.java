@@ -0,0 +1,119 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.weather;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+/**
+ * Registry of available weather APIs. Each {@link WeatherApiFactory} that is registered as a
+ * service is loaded on first use.
+ */
+public final class WeatherApiRegistry {
+    private static final Logger logger = LoggerFactory.getLogger(WeatherApiRegistry.class);
+
+    private static WeatherApiRegistry instance;
+
+    private final ClassLoader classLoader;
+    private Map<String, WeatherApiFactory> factories;
+
+    /**
+     * Registry that loads factories from given class loader.
+     * @param classLoader class loader to find factories with
+     */
+    public WeatherApiRegistry(ClassLoader classLoader) {
+        this.classLoader = classLoader;
+        this.factories = null;
+    }
+
+    /**
+     * Get the registry that uses the class loader of this library.
+     * @return shared registry
+     */
+    public static synchronized WeatherApiRegistry getInstance() {
+        if (instance == null) {
+            instance = new WeatherApiRegistry(WeatherApiRegistry.class.getClassLoader());
+        }
+        return instance;
+    }
+
+    /**
+     * Get the factory for given source name.
+     * @param sourceName source name as returned by {@link WeatherApiFactory#getSourceName()}
+     * @return factory or {@code null} if no factory is registered with that name.
+     */
+    public WeatherApiFactory getFactory(String sourceName) {
+        if (sourceName == null) {
+            return null;
+        }
+        return loadFactories().get(sourceName);
+    }
+
+    /**
+     * Get all registered factories.
+     * @return unmodifiable collection of factories
+     */
+    public Collection<WeatherApiFactory> getFactories() {
+        return loadFactories().values();
+    }
+
+    /**
+     * Get the names of all registered sources.
+     * @return source names
+     */
+    public List<String> getSourceNames() {
+        return new ArrayList<>(loadFactories().keySet());
+    }
+
+    private synchronized Map<String, WeatherApiFactory> loadFactories() {
+        if (factories == null) {
+            Map<String, WeatherApiFactory> loaded = new HashMap<>();
+            Iterator<WeatherApiFactory> iterator = ServiceLoader.load(
+                    WeatherApiFactory.class, classLoader).iterator();
+            while (true) {
+                WeatherApiFactory factory;
+                try {
+                    if (!iterator.hasNext()) {
+                        break;
+                    }
+                    factory = iterator.next();
+                } catch (ServiceConfigurationError ex) {
+                    logger.error("Cannot load weather API factory", ex);
+                    continue;
+                }
+                WeatherApiFactory previous = loaded.put(factory.getSourceName(), factory);
+                if (previous != null) {
+                    logger.warn("Weather API {} is registered by both {} and {}. Using the latter.",
+                            factory.getSourceName(), previous.getClass(), factory.getClass());
+                }
+            }
+            logger.debug("Loaded weather API factories {}", loaded.keySet());
+            factories = Collections.unmodifiableMap(loaded);
+        }
+        return factories;
+    }
+}
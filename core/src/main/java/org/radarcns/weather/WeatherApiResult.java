@@ -27,6 +27,16 @@ public interface WeatherApiResult {
      */
     double getTimestamp();
 
+    /**
+     * Returns the time that the weather was observed by the provider, in seconds since the Unix
+     * Epoch. Providers update their observations less often than they are queried, so results
+     * with the same observation time usually contain the same data.
+     * @return observation time or {@code null} if unknown, which is the default.
+     */
+    default Double getObservationTime() {
+        return null;
+    }
+
     /**
      * Returns temperature in degrees Celsius. Or null if unknown.
      * @return temperature or {@code null} if none is set
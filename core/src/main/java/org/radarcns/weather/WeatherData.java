@@ -0,0 +1,51 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.weather;
+
+/**
+ * Weather data returned by a single call to a weather API endpoint. Parts that were not
+ * requested, or that the endpoint does not provide, are {@code null}.
+ */
+public final class WeatherData {
+    private final WeatherApiResult current;
+    private final WeatherForecast forecast;
+
+    /**
+     * Weather data.
+     * @param current current weather, may be {@code null}
+     * @param forecast hourly forecast, may be {@code null}
+     */
+    public WeatherData(WeatherApiResult current, WeatherForecast forecast) {
+        this.current = current;
+        this.forecast = forecast;
+    }
+
+    /** Current weather, or {@code null} if it was not loaded. */
+    public WeatherApiResult getCurrent() {
+        return current;
+    }
+
+    /** Hourly forecast, or {@code null} if it was not loaded. */
+    public WeatherForecast getForecast() {
+        return forecast;
+    }
+
+    @Override
+    public String toString() {
+        return "WeatherData{current=" + current + ", forecast=" + forecast + '}';
+    }
+}
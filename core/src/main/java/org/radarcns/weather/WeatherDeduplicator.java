@@ -0,0 +1,100 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.weather;
+
+import org.radarcns.passive.weather.WeatherCondition;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Detects weather results that repeat the previous result. A result is a duplicate if it has the
+ * same provider observation time and the same content as the previous result. Providers refresh
+ * their observations less often than they may be queried, so sending duplicates only adds upload
+ * volume and storage. To show that the pipeline is still running, a duplicate is not suppressed
+ * if the last result that was accepted is older than a maximum suppression time.
+ *
+ * <p>This class is not thread-safe.
+ */
+public class WeatherDeduplicator {
+    private final long maxSuppressionMillis;
+
+    private boolean hasPrevious;
+    private Double previousObservationTime;
+    private long previousHash;
+    private long previousAcceptedTime;
+
+    /**
+     * Deduplicator with given maximum suppression time.
+     * @param maxSuppression maximum time to suppress duplicates for
+     * @param unit unit of the maximum suppression time
+     */
+    public WeatherDeduplicator(long maxSuppression, TimeUnit unit) {
+        this.maxSuppressionMillis = unit.toMillis(maxSuppression);
+    }
+
+    /**
+     * Check whether a result is a duplicate of the previous result. Results that are not
+     * duplicates become the new previous result.
+     * @param result weather result
+     * @param now current time in milliseconds
+     * @return {@code true} if the result is a duplicate that should be suppressed.
+     */
+    public boolean isDuplicate(WeatherApiResult result, long now) {
+        Double observationTime = result.getObservationTime();
+        long hash = contentHash(result);
+        if (hasPrevious
+                && observationTime != null
+                && observationTime.equals(previousObservationTime)
+                && hash == previousHash
+                && now - previousAcceptedTime < maxSuppressionMillis) {
+            return true;
+        }
+        hasPrevious = true;
+        previousObservationTime = observationTime;
+        previousHash = hash;
+        previousAcceptedTime = now;
+        return false;
+    }
+
+    /** Forget the previous result, so that the next result is always accepted. */
+    public void reset() {
+        hasPrevious = false;
+        previousObservationTime = null;
+    }
+
+    /**
+     * Hash of the weather values of a result. The retrieval time, sunrise and sunset are not
+     * included, since they change without a new observation.
+     */
+    static long contentHash(WeatherApiResult result) {
+        long hash = 1125899906842597L;
+        hash = 31 * hash + hash(result.getTemperature());
+        hash = 31 * hash + hash(result.getPressure());
+        hash = 31 * hash + hash(result.getHumidity());
+        hash = 31 * hash + hash(result.getCloudiness());
+        hash = 31 * hash + hash(result.getPrecipitation());
+        Integer period = result.getPrecipitationPeriod();
+        hash = 31 * hash + (period != null ? period : -1);
+        WeatherCondition condition = result.getWeatherCondition();
+        hash = 31 * hash + (condition != null ? condition.ordinal() : -1);
+        return hash;
+    }
+
+    private static int hash(Float value) {
+        return value != null ? Float.floatToIntBits(value) : -1;
+    }
+}
@@ -0,0 +1,553 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.weather;
+
+import net.aksingh.owmjapis.OpenWeatherMap;
+
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.radarcns.passive.weather.LocalWeather;
+import org.radarcns.passive.weather.LocationType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+
+/**
+ * Batch enrichment of location traces with weather data. The input is a CSV file with rows of
+ * {@code time,latitude,longitude}, with time in seconds since the Unix Epoch. An optional header
+ * row is skipped. The output is an Avro file of {@link LocalWeather} records, one per input row.
+ *
+ * <p>The input is streamed in chunks. Rows in the same grid cell share a single weather query,
+ * made at the center of the cell. Queries run on a bounded executor with an optional rate limit.
+ * After each chunk, the output is flushed and the progress is stored in a checkpoint file next to
+ * the output, so that an interrupted run resumes where it stopped.
+ *
+ * <p>{@link WeatherApi} only gives the weather at the time of the query. Rows that are older than
+ * {@link Builder#maxAge(long)} or that lie in the future at the time their chunk is processed are
+ * skipped rather than labelled with the current weather, and counted in
+ * {@link Summary#getSkippedRows()}. Sunrise and sunset are computed locally for the day of each
+ * row.
+ */
+public class WeatherEnrichment {
+    private static final Logger logger = LoggerFactory.getLogger(WeatherEnrichment.class);
+
+    private static final String CHECKPOINT_LINES = "lines";
+    private static final String CHECKPOINT_OUTPUT_LENGTH = "outputLength";
+
+    private final WeatherApi weatherApi;
+    private final double cellSize;
+    private final long maxAgeMillis;
+    private final int chunkSize;
+    private final int parallelism;
+    private final RateLimiter rateLimiter;
+    private final ExecutorService executor;
+    private final LocationType locationType;
+    private final Map<CellKey, CachedResult> cache;
+    private final SolarCalculator solarCalculator;
+    private final TimeZone timeZone;
+
+    private WeatherEnrichment(Builder builder) {
+        this.weatherApi = builder.weatherApi;
+        this.cellSize = builder.cellSize;
+        this.maxAgeMillis = TimeUnit.SECONDS.toMillis(builder.maxAge);
+        this.chunkSize = builder.chunkSize;
+        this.parallelism = builder.parallelism;
+        this.rateLimiter = new RateLimiter(builder.requestsPerSecond);
+        this.executor = builder.executor;
+        this.locationType = builder.locationType;
+        this.timeZone = builder.timeZone;
+        this.solarCalculator = new SolarCalculator();
+        final int cacheSize = builder.cacheSize;
+        this.cache = new LinkedHashMap<CellKey, CachedResult>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CellKey, CachedResult> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Enrich all rows of the input file. If a checkpoint of a previous run with the same output
+     * exists, processing resumes after the last checkpoint.
+     * @param input CSV input file
+     * @param output Avro output file
+     * @return summary of the run
+     * @throws IOException if the input cannot be read or the output cannot be written
+     * @throws InterruptedException if the run is interrupted. A later run will resume from the
+     *                              last checkpoint.
+     */
+    public Summary run(File input, File output) throws IOException, InterruptedException {
+        File checkpointFile = new File(output.getPath() + ".checkpoint");
+        Properties checkpoint = readCheckpoint(checkpointFile, output);
+        long skipLines = Long.parseLong(checkpoint.getProperty(CHECKPOINT_LINES, "0"));
+
+        ExecutorService runExecutor = executor != null
+                ? executor : Executors.newFixedThreadPool(parallelism);
+
+        Summary summary = new Summary();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                     new FileInputStream(input), StandardCharsets.UTF_8));
+             DataFileWriter<LocalWeather> writer = openWriter(output, checkpoint)) {
+            long lineNumber = 0;
+            String line;
+            while (lineNumber < skipLines && reader.readLine() != null) {
+                lineNumber++;
+            }
+            if (skipLines > 0) {
+                logger.info("Resuming enrichment of {} after line {}", input, skipLines);
+            }
+
+            List<Row> chunk = new ArrayList<>(chunkSize);
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                Row row = Row.parse(line);
+                if (row != null) {
+                    chunk.add(row);
+                } else if (lineNumber > 1) {
+                    logger.warn("Skipping invalid line {}: {}", lineNumber, line);
+                    summary.invalidRows++;
+                }
+                if (chunk.size() >= chunkSize) {
+                    processChunk(chunk, writer, runExecutor, summary);
+                    chunk.clear();
+                    writer.flush();
+                    writeCheckpoint(checkpointFile, lineNumber, output.length());
+                }
+            }
+            if (!chunk.isEmpty()) {
+                processChunk(chunk, writer, runExecutor, summary);
+            }
+            writer.flush();
+            writeCheckpoint(checkpointFile, lineNumber, output.length());
+        } finally {
+            if (runExecutor != executor) {
+                runExecutor.shutdownNow();
+            }
+        }
+
+        logger.info("Enriched {} with weather: {}", input, summary);
+        return summary;
+    }
+
+    private void processChunk(List<Row> chunk, DataFileWriter<LocalWeather> writer,
+            ExecutorService runExecutor, Summary summary) throws IOException, InterruptedException {
+        long now = System.currentTimeMillis();
+        // results of this chunk, so that cache evictions cannot drop them before they are written
+        Map<CellKey, WeatherApiResult> results = new HashMap<>();
+        Map<CellKey, Future<WeatherApiResult>> queries = new HashMap<>();
+        for (Row row : chunk) {
+            if (!isInWindow(row, now)) {
+                continue;
+            }
+            final CellKey key = cellKey(row);
+            if (results.containsKey(key) || queries.containsKey(key)) {
+                continue;
+            }
+            CachedResult cached = cache.get(key);
+            if (cached != null && now - cached.receivedTime <= maxAgeMillis) {
+                results.put(key, cached.result);
+            } else {
+                queries.put(key, runExecutor.submit(() -> {
+                    rateLimiter.acquire();
+                    return weatherApi.loadCurrentWeather(
+                            key.getLatitude(cellSize), key.getLongitude(cellSize));
+                }));
+            }
+        }
+        summary.queries += queries.size();
+
+        for (Map.Entry<CellKey, Future<WeatherApiResult>> query : queries.entrySet()) {
+            try {
+                WeatherApiResult result = query.getValue().get();
+                results.put(query.getKey(), result);
+                cache.put(query.getKey(), new CachedResult(result, System.currentTimeMillis()));
+            } catch (ExecutionException ex) {
+                // failures are not cached, so a later chunk retries the query
+                logger.warn("Failed to load weather for {}: {}", query.getKey(), ex.getCause().toString());
+                summary.failedQueries++;
+            }
+        }
+
+        for (Row row : chunk) {
+            if (!isInWindow(row, now)) {
+                summary.skippedRows++;
+                continue;
+            }
+            WeatherApiResult result = results.get(cellKey(row));
+            if (result == null) {
+                summary.failedRows++;
+                continue;
+            }
+            // the API result has sunrise and sunset of the query day, not of the row
+            long timeMillis = (long) (row.time * 1000d);
+            SolarCalculator.SunTimes sunTimes = solarCalculator.getSunTimes(
+                    row.latitude, row.longitude, timeMillis, timeZone);
+            writer.append(new LocalWeather(
+                    row.time,
+                    result.getTimestamp(),
+                    sunTimes.getSunRiseTimeOfDay(timeZone),
+                    sunTimes.getSunSetTimeOfDay(timeZone),
+                    result.getTemperature(),
+                    result.getPressure(),
+                    result.getHumidity(),
+                    result.getCloudiness(),
+                    result.getPrecipitation(),
+                    result.getPrecipitationPeriod(),
+                    result.getWeatherCondition(),
+                    weatherApi.getSourceName(),
+                    locationType));
+            summary.rows++;
+        }
+    }
+
+    /** Whether the current weather at time {@code now} applies to given row. */
+    private boolean isInWindow(Row row, long now) {
+        long timeMillis = (long) (row.time * 1000d);
+        return timeMillis <= now && now - timeMillis <= maxAgeMillis;
+    }
+
+    private CellKey cellKey(Row row) {
+        return new CellKey(
+                (long) Math.floor(row.latitude / cellSize),
+                (long) Math.floor(row.longitude / cellSize));
+    }
+
+    private static DataFileWriter<LocalWeather> openWriter(File output, Properties checkpoint)
+            throws IOException {
+        DataFileWriter<LocalWeather> writer = new DataFileWriter<>(
+                new SpecificDatumWriter<>(LocalWeather.class));
+        String outputLength = checkpoint.getProperty(CHECKPOINT_OUTPUT_LENGTH);
+        if (outputLength != null && output.exists()) {
+            // discard any records written after the last checkpoint
+            try (RandomAccessFile file = new RandomAccessFile(output, "rw")) {
+                file.setLength(Long.parseLong(outputLength));
+            }
+            return writer.appendTo(output);
+        } else {
+            writer.setCodec(CodecFactory.deflateCodec(6));
+            return writer.create(LocalWeather.getClassSchema(), output);
+        }
+    }
+
+    private static Properties readCheckpoint(File checkpointFile, File output) throws IOException {
+        Properties properties = new Properties();
+        if (checkpointFile.exists() && output.exists()) {
+            try (InputStream in = new FileInputStream(checkpointFile)) {
+                properties.load(in);
+            }
+        }
+        return properties;
+    }
+
+    private static void writeCheckpoint(File checkpointFile, long lines, long outputLength)
+            throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(CHECKPOINT_LINES, Long.toString(lines));
+        properties.setProperty(CHECKPOINT_OUTPUT_LENGTH, Long.toString(outputLength));
+
+        File tmpFile = new File(checkpointFile.getPath() + ".tmp");
+        try (OutputStream out = new FileOutputStream(tmpFile)) {
+            properties.store(out, null);
+        }
+        if (!tmpFile.renameTo(checkpointFile)
+                && !(checkpointFile.delete() && tmpFile.renameTo(checkpointFile))) {
+            throw new IOException("Cannot write checkpoint " + checkpointFile);
+        }
+    }
+
+    /**
+     * Enrich a CSV file of locations with weather data.
+     * @param args weather API source, API key, input CSV file and output Avro file
+     * @throws Exception if the enrichment fails
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length != 4) {
+            System.err.println("Usage: WeatherEnrichment <source> <api-key> <input.csv> <output.avro>");
+            System.exit(1);
+        }
+        WeatherApiFactory factory = WeatherApiRegistry.getInstance().getFactory(args[0]);
+        if (factory == null) {
+            System.err.println("Unknown weather API source " + args[0] + ". Use one of "
+                    + WeatherApiRegistry.getInstance().getSourceNames());
+            System.exit(1);
+        }
+        OkHttpClient client = OpenWeatherMap.sharedHttpClient();
+        WeatherApi api = factory.create(args[1], factory.getDefaultConfig(), client, null);
+        new Builder(api).build().run(new File(args[2]), new File(args[3]));
+        client.dispatcher().executorService().shutdown();
+        client.connectionPool().evictAll();
+    }
+
+    /** Builder for a weather enrichment job. */
+    public static class Builder {
+        private final WeatherApi weatherApi;
+        private double cellSize = 0.1d;
+        private long maxAge = 3600L;
+        private int chunkSize = 10_000;
+        private int parallelism = 8;
+        private double requestsPerSecond = 0d;
+        private ExecutorService executor;
+        private LocationType locationType = LocationType.GPS;
+        private int cacheSize = 100_000;
+        private TimeZone timeZone = TimeZone.getDefault();
+
+        public Builder(WeatherApi weatherApi) {
+            this.weatherApi = Objects.requireNonNull(weatherApi);
+        }
+
+        /** Size of the grid cells that share a weather query, in degrees. Defaults to 0.1. */
+        public Builder cellSize(double degrees) {
+            this.cellSize = degrees;
+            return this;
+        }
+
+        /**
+         * Maximum age of input rows and of cached query results, in seconds. Since the weather
+         * API only gives the current weather, older rows are skipped. Defaults to 3600.
+         */
+        public Builder maxAge(long seconds) {
+            this.maxAge = seconds;
+            return this;
+        }
+
+        /** Number of rows to process between checkpoints. Defaults to 10,000. */
+        public Builder chunkSize(int rows) {
+            this.chunkSize = rows;
+            return this;
+        }
+
+        /**
+         * Number of concurrent weather queries, if no executor is set. Defaults to 8.
+         */
+        public Builder parallelism(int parallelism) {
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /** Maximum number of weather queries per second. Defaults to no limit. */
+        public Builder rateLimit(double requestsPerSecond) {
+            this.requestsPerSecond = requestsPerSecond;
+            return this;
+        }
+
+        /**
+         * Executor to run weather queries on. It is not shut down after a run. By default, a
+         * fixed thread pool of size {@link #parallelism(int)} is used. Since at most
+         * {@link #chunkSize(int)} queries are submitted at a time, an executor from
+         * {@link WeatherExecutors#newFanOutExecutor(int)} can be used to run all queries of a
+         * chunk concurrently. Set a {@link #rateLimit(double)} in that case.
+         */
+        public Builder executor(ExecutorService executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /** Location type to set in the output records. Defaults to GPS. */
+        public Builder locationType(LocationType locationType) {
+            this.locationType = locationType;
+            return this;
+        }
+
+        /** Number of query results to keep in memory across chunks. Defaults to 100,000. */
+        public Builder cacheSize(int entries) {
+            this.cacheSize = entries;
+            return this;
+        }
+
+        /**
+         * Time zone of the participants, to compute sunrise and sunset as local time of day.
+         * Defaults to the system time zone.
+         */
+        public Builder timeZone(TimeZone timeZone) {
+            this.timeZone = Objects.requireNonNull(timeZone);
+            return this;
+        }
+
+        public WeatherEnrichment build() {
+            if (cellSize <= 0 || maxAge <= 0 || chunkSize <= 0 || parallelism <= 0
+                    || cacheSize < chunkSize) {
+                throw new IllegalStateException("Cell size, maximum age, chunk size and"
+                        + " parallelism must be positive and cache size at least the chunk size");
+            }
+            return new WeatherEnrichment(this);
+        }
+    }
+
+    /** Summary of an enrichment run. */
+    public static class Summary {
+        private long rows;
+        private long invalidRows;
+        private long failedRows;
+        private long skippedRows;
+        private long queries;
+        private long failedQueries;
+
+        /** Number of records written. */
+        public long getRows() {
+            return rows;
+        }
+
+        /** Number of input rows that could not be parsed. */
+        public long getInvalidRows() {
+            return invalidRows;
+        }
+
+        /** Number of input rows without weather data. */
+        public long getFailedRows() {
+            return failedRows;
+        }
+
+        /** Number of input rows outside the time window of the weather API. */
+        public long getSkippedRows() {
+            return skippedRows;
+        }
+
+        /** Number of weather queries made. */
+        public long getQueries() {
+            return queries;
+        }
+
+        /** Number of weather queries that failed. */
+        public long getFailedQueries() {
+            return failedQueries;
+        }
+
+        /** Number of rows per weather query. */
+        public double getDeduplicationRatio() {
+            return queries > 0 ? (rows + failedRows) / (double) queries : 0d;
+        }
+
+        @Override
+        public String toString() {
+            return "Summary{rows=" + rows
+                    + ", invalidRows=" + invalidRows
+                    + ", failedRows=" + failedRows
+                    + ", skippedRows=" + skippedRows
+                    + ", queries=" + queries
+                    + ", failedQueries=" + failedQueries
+                    + ", deduplicationRatio=" + getDeduplicationRatio()
+                    + '}';
+        }
+    }
+
+    private static class Row {
+        private final double time;
+        private final double latitude;
+        private final double longitude;
+
+        private Row(double time, double latitude, double longitude) {
+            this.time = time;
+            this.latitude = latitude;
+            this.longitude = longitude;
+        }
+
+        /** Parse a CSV row, or return null if the row is not valid. */
+        private static Row parse(String line) {
+            String[] values = line.split(",", 4);
+            if (values.length < 3) {
+                return null;
+            }
+            try {
+                double latitude = Double.parseDouble(values[1].trim());
+                double longitude = Double.parseDouble(values[2].trim());
+                if (Math.abs(latitude) > 90d || Math.abs(longitude) > 180d) {
+                    return null;
+                }
+                return new Row(Double.parseDouble(values[0].trim()), latitude, longitude);
+            } catch (NumberFormatException ex) {
+                return null;
+            }
+        }
+    }
+
+    private static class CachedResult {
+        private final WeatherApiResult result;
+        private final long receivedTime;
+
+        private CachedResult(WeatherApiResult result, long receivedTime) {
+            this.result = result;
+            this.receivedTime = receivedTime;
+        }
+    }
+
+    private static class CellKey {
+        private final long latitudeIndex;
+        private final long longitudeIndex;
+
+        private CellKey(long latitudeIndex, long longitudeIndex) {
+            this.latitudeIndex = latitudeIndex;
+            this.longitudeIndex = longitudeIndex;
+        }
+
+        private double getLatitude(double cellSize) {
+            return (latitudeIndex + 0.5d) * cellSize;
+        }
+
+        private double getLongitude(double cellSize) {
+            return (longitudeIndex + 0.5d) * cellSize;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            CellKey other = (CellKey) o;
+            return latitudeIndex == other.latitudeIndex
+                    && longitudeIndex == other.longitudeIndex;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Long.hashCode(latitudeIndex) + Long.hashCode(longitudeIndex);
+        }
+
+        @Override
+        public String toString() {
+            return "cell(" + latitudeIndex + ", " + longitudeIndex + ")";
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.weather;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors for running many blocking weather API calls concurrently.
+ */
+public final class WeatherExecutors {
+    private static final Logger logger = LoggerFactory.getLogger(WeatherExecutors.class);
+
+    private static final Method NEW_VIRTUAL_THREAD_EXECUTOR = findVirtualThreadExecutor();
+
+    private WeatherExecutors() {
+        // utility class
+    }
+
+    /**
+     * Whether the runtime supports virtual threads (Java 21 or later).
+     * @return {@code true} if virtual threads are available
+     */
+    public static boolean hasVirtualThreads() {
+        return NEW_VIRTUAL_THREAD_EXECUTOR != null;
+    }
+
+    /**
+     * Executor for fanning out blocking weather API calls. On Java 21 or later, each task runs in
+     * its own virtual thread, so the number of concurrent calls is not limited by the number of
+     * platform threads. On older runtimes, a thread pool with at most {@code maxThreads} threads
+     * is used, and further tasks are queued.
+     * @param maxThreads maximum number of platform threads if virtual threads are not available
+     * @return new executor. The caller should shut it down after use.
+     */
+    public static ExecutorService newFanOutExecutor(int maxThreads) {
+        if (NEW_VIRTUAL_THREAD_EXECUTOR != null) {
+            try {
+                return (ExecutorService) NEW_VIRTUAL_THREAD_EXECUTOR.invoke(null);
+            } catch (IllegalAccessException | InvocationTargetException ex) {
+                logger.warn("Cannot create virtual thread executor, using a thread pool instead", ex);
+            }
+        }
+        return newBoundedExecutor(maxThreads);
+    }
+
+    /**
+     * Thread pool with at most {@code maxThreads} daemon threads. Idle threads stop after a
+     * minute and further tasks are queued.
+     * @param maxThreads maximum number of threads
+     * @return new executor. The caller should shut it down after use.
+     */
+    public static ExecutorService newBoundedExecutor(int maxThreads) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads, maxThreads,
+                1, TimeUnit.MINUTES, new LinkedBlockingQueue<>(), new WeatherThreadFactory());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static Method findVirtualThreadExecutor() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException ex) {
+            return null;
+        }
+    }
+
+    private static class WeatherThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "weather-api-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.weather;
+
+import org.radarcns.passive.weather.WeatherCondition;
+
+import java.util.Arrays;
+
+/**
+ * Weather forecast as a time series, independent of the weather API that provided it. Values are
+ * stored in primitive arrays ordered by time, so that many time points can be read without
+ * allocations. Unknown values are {@code NaN}.
+ *
+ * <p>Precipitation of a time point is the total precipitation in millimeter during the
+ * precipitation period that ends at that time point.
+ *
+ * <p>Instances are immutable. Use {@link Builder} to create one.
+ */
+public final class WeatherForecast {
+    final String source;
+    final double timestamp;
+    final int precipitationPeriod;
+    final int size;
+    final long[] times;
+    final float[] temperature;
+    final float[] pressure;
+    final float[] humidity;
+    final float[] cloudiness;
+    final float[] precipitation;
+    final WeatherCondition[] conditions;
+
+    private WeatherForecast(Builder builder) {
+        this.source = builder.source;
+        this.timestamp = builder.timestamp;
+        this.precipitationPeriod = builder.precipitationPeriod;
+        this.size = builder.size;
+        this.times = Arrays.copyOf(builder.times, size);
+        this.temperature = Arrays.copyOf(builder.temperature, size);
+        this.pressure = Arrays.copyOf(builder.pressure, size);
+        this.humidity = Arrays.copyOf(builder.humidity, size);
+        this.cloudiness = Arrays.copyOf(builder.cloudiness, size);
+        this.precipitation = Arrays.copyOf(builder.precipitation, size);
+        this.conditions = Arrays.copyOf(builder.conditions, size);
+    }
+
+    /** Name of the source that provided the forecast. */
+    public String getSource() {
+        return source;
+    }
+
+    /** Time that the forecast was retrieved, in seconds since the Unix Epoch. */
+    public double getTimestamp() {
+        return timestamp;
+    }
+
+    /** Number of time points. */
+    public int size() {
+        return size;
+    }
+
+    /** Whether the forecast has no time points. */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** Time of the first time point in seconds since the Unix Epoch, or -1 if empty. */
+    public long getStartTime() {
+        return size > 0 ? times[0] : -1L;
+    }
+
+    /** Time of the last time point in seconds since the Unix Epoch, or -1 if empty. */
+    public long getEndTime() {
+        return size > 0 ? times[size - 1] : -1L;
+    }
+
+    /**
+     * Index of the last time point at or before given time.
+     * @param time time in seconds since the Unix Epoch
+     * @return index, or -1 if the time is before the first time point.
+     */
+    public int indexOf(long time) {
+        int index = Arrays.binarySearch(times, 0, size, time);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    /** Time of the time point at given index, in seconds since the Unix Epoch. */
+    public long getTime(int index) {
+        return times[index];
+    }
+
+    /** Temperature in degrees Celsius at given index. */
+    public float getTemperature(int index) {
+        return temperature[index];
+    }
+
+    /** Pressure in hPa at given index. */
+    public float getPressure(int index) {
+        return pressure[index];
+    }
+
+    /** Humidity in percentage at given index. */
+    public float getHumidity(int index) {
+        return humidity[index];
+    }
+
+    /** Cloudiness in percentage at given index. */
+    public float getCloudiness(int index) {
+        return cloudiness[index];
+    }
+
+    /** Precipitation in millimeter during the precipitation period ending at given index. */
+    public float getPrecipitation(int index) {
+        return precipitation[index];
+    }
+
+    /** Length of the period that precipitation is accumulated over, in seconds. */
+    public int getPrecipitationPeriod() {
+        return precipitationPeriod;
+    }
+
+    /** Weather condition at given index, or {@code null} if unknown. */
+    public WeatherCondition getWeatherCondition(int index) {
+        return conditions[index];
+    }
+
+    /**
+     * Forecast containing only time points up to given time.
+     * @param endTime last time to include, in seconds since the Unix Epoch
+     * @return truncated forecast, or this forecast if no time points are after the end time.
+     */
+    public WeatherForecast truncate(long endTime) {
+        int newSize = indexOf(endTime) + 1;
+        if (newSize == size) {
+            return this;
+        }
+        Builder builder = new Builder(source, timestamp, precipitationPeriod, newSize);
+        for (int i = 0; i < newSize; i++) {
+            builder.add(times[i], temperature[i], pressure[i], humidity[i], cloudiness[i],
+                    precipitation[i], conditions[i]);
+        }
+        return builder.build();
+    }
+
+    @Override
+    public String toString() {
+        return "WeatherForecast{"
+                + "source='" + source + '\''
+                + ", timestamp=" + timestamp
+                + ", size=" + size
+                + ", startTime=" + getStartTime()
+                + ", endTime=" + getEndTime()
+                + '}';
+    }
+
+    /** Builds a forecast from time points in increasing order of time. */
+    public static final class Builder {
+        private final String source;
+        private final double timestamp;
+        private final int precipitationPeriod;
+        private int size;
+        private long[] times;
+        private float[] temperature;
+        private float[] pressure;
+        private float[] humidity;
+        private float[] cloudiness;
+        private float[] precipitation;
+        private WeatherCondition[] conditions;
+
+        /**
+         * Forecast builder.
+         * @param source name of the source
+         * @param timestamp time that the forecast was retrieved in seconds since the Unix Epoch
+         * @param precipitationPeriod period that precipitation is accumulated over in seconds
+         * @param capacity expected number of time points
+         */
+        public Builder(String source, double timestamp, int precipitationPeriod, int capacity) {
+            if (precipitationPeriod <= 0) {
+                throw new IllegalArgumentException("Precipitation period must be positive");
+            }
+            this.source = source;
+            this.timestamp = timestamp;
+            this.precipitationPeriod = precipitationPeriod;
+            this.size = 0;
+            int initialCapacity = Math.max(capacity, 1);
+            times = new long[initialCapacity];
+            temperature = new float[initialCapacity];
+            pressure = new float[initialCapacity];
+            humidity = new float[initialCapacity];
+            cloudiness = new float[initialCapacity];
+            precipitation = new float[initialCapacity];
+            conditions = new WeatherCondition[initialCapacity];
+        }
+
+        /**
+         * Add a time point. Unknown values should be {@code NaN}.
+         * @throws IllegalArgumentException if the time is not after the previous time point.
+         */
+        public Builder add(long time, float temperature, float pressure, float humidity,
+                float cloudiness, float precipitation, WeatherCondition condition) {
+            if (size > 0 && time <= times[size - 1]) {
+                throw new IllegalArgumentException("Forecast times must be increasing");
+            }
+            if (size == times.length) {
+                int newCapacity = size * 2;
+                this.times = Arrays.copyOf(this.times, newCapacity);
+                this.temperature = Arrays.copyOf(this.temperature, newCapacity);
+                this.pressure = Arrays.copyOf(this.pressure, newCapacity);
+                this.humidity = Arrays.copyOf(this.humidity, newCapacity);
+                this.cloudiness = Arrays.copyOf(this.cloudiness, newCapacity);
+                this.precipitation = Arrays.copyOf(this.precipitation, newCapacity);
+                this.conditions = Arrays.copyOf(this.conditions, newCapacity);
+            }
+            this.times[size] = time;
+            this.temperature[size] = temperature;
+            this.pressure[size] = pressure;
+            this.humidity[size] = humidity;
+            this.cloudiness[size] = cloudiness;
+            this.precipitation[size] = precipitation;
+            this.conditions[size] = condition;
+            size++;
+            return this;
+        }
+
+        public WeatherForecast build() {
+            return new WeatherForecast(this);
+        }
+    }
+}
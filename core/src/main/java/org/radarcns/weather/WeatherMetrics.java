@@ -0,0 +1,260 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.weather;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Performance metrics of the weather pipeline. All updates are lock-free, so metrics can be
+ * recorded from any thread. Use {@link #snapshot()} to read them.
+ */
+public final class WeatherMetrics {
+    /** Time to get the device location. */
+    public final LatencyHistogram locationLatency = new LatencyHistogram();
+    /** Time of the HTTP request, until the full response body is read. */
+    public final LatencyHistogram httpLatency = new LatencyHistogram();
+    /** Time to parse an API response. */
+    public final LatencyHistogram parseLatency = new LatencyHistogram();
+    /** Time to map an API result to a record. */
+    public final LatencyHistogram mappingLatency = new LatencyHistogram();
+    /** Time to send a record. */
+    public final LatencyHistogram sendLatency = new LatencyHistogram();
+    /** Duration of a full weather cycle, during which the device is kept awake. */
+    public final LatencyHistogram cycleLatency = new LatencyHistogram();
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong networkFailures = new AtomicLong();
+    private final ConcurrentMap<Integer, AtomicLong> httpFailures = new ConcurrentHashMap<>();
+    private final AtomicLong cycles = new AtomicLong();
+    private final AtomicLong skippedCycles = new AtomicLong();
+    private final AtomicLong deadlinesExceeded = new AtomicLong();
+    private final AtomicLong fallbacks = new AtomicLong();
+    private final AtomicLong suppressed = new AtomicLong();
+
+    /**
+     * Record a completed HTTP request.
+     * @param code HTTP status code
+     * @param bytes number of response body bytes received from the network, before
+     *              decompression
+     * @param durationNanos duration of the request
+     * @param fromCache whether the response was served from a cache
+     */
+    public void recordResponse(int code, long bytes, long durationNanos, boolean fromCache) {
+        if (fromCache) {
+            cacheHits.incrementAndGet();
+        } else {
+            requests.incrementAndGet();
+            httpLatency.record(durationNanos, TimeUnit.NANOSECONDS);
+        }
+        if (bytes > 0) {
+            bytesReceived.addAndGet(bytes);
+        }
+        if (code < 200 || code >= 300) {
+            AtomicLong counter = httpFailures.get(code);
+            if (counter == null) {
+                AtomicLong newCounter = new AtomicLong();
+                counter = httpFailures.putIfAbsent(code, newCounter);
+                if (counter == null) {
+                    counter = newCounter;
+                }
+            }
+            counter.incrementAndGet();
+        }
+    }
+
+    /** Record an HTTP request that failed without a response. */
+    public void recordNetworkFailure() {
+        requests.incrementAndGet();
+        networkFailures.incrementAndGet();
+    }
+
+    /** Record a result that was served from a cache, without an HTTP request. */
+    public void recordCacheHit() {
+        cacheHits.incrementAndGet();
+    }
+
+    /** Record the start of a weather cycle. */
+    public void recordCycle() {
+        cycles.incrementAndGet();
+    }
+
+    /** Record a weather cycle that was skipped without producing a record. */
+    public void recordSkippedCycle() {
+        skippedCycles.incrementAndGet();
+    }
+
+    /** Record a weather cycle that did not finish before its deadline. */
+    public void recordDeadlineExceeded() {
+        deadlinesExceeded.incrementAndGet();
+    }
+
+    /** Record a weather cycle that used an earlier result because the API was unavailable. */
+    public void recordFallback() {
+        fallbacks.incrementAndGet();
+    }
+
+    /** Record a result that was not sent because it did not change since the previous result. */
+    public void recordSuppressed() {
+        suppressed.incrementAndGet();
+    }
+
+    /**
+     * Current values of all metrics.
+     * @return snapshot
+     */
+    public Snapshot snapshot() {
+        Map<Integer, Long> failures = new HashMap<>();
+        for (Map.Entry<Integer, AtomicLong> entry : httpFailures.entrySet()) {
+            failures.put(entry.getKey(), entry.getValue().get());
+        }
+        return new Snapshot(locationLatency.snapshot(), httpLatency.snapshot(),
+                parseLatency.snapshot(), mappingLatency.snapshot(), sendLatency.snapshot(),
+                cycleLatency.snapshot(), requests.get(), bytesReceived.get(), cacheHits.get(),
+                networkFailures.get(), failures, cycles.get(), skippedCycles.get(),
+                deadlinesExceeded.get(), fallbacks.get(), suppressed.get());
+    }
+
+    /** Immutable view of the weather metrics. */
+    public static final class Snapshot {
+        public final LatencyHistogram.Snapshot locationLatency;
+        public final LatencyHistogram.Snapshot httpLatency;
+        public final LatencyHistogram.Snapshot parseLatency;
+        public final LatencyHistogram.Snapshot mappingLatency;
+        public final LatencyHistogram.Snapshot sendLatency;
+        public final LatencyHistogram.Snapshot cycleLatency;
+        /** Number of HTTP requests that went over the network. */
+        public final long requests;
+        /** Number of response body bytes received from the network, before decompression. */
+        public final long bytesReceived;
+        /** Number of results served from a cache. */
+        public final long cacheHits;
+        public final long networkFailures;
+        /** Number of failed requests by HTTP status code. */
+        public final Map<Integer, Long> httpFailures;
+        /** Total number of failed requests, with or without HTTP response. */
+        public final long failures;
+        public final long cycles;
+        public final long skippedCycles;
+        /** Number of weather cycles that did not finish before their deadline. */
+        public final long deadlinesExceeded;
+        /** Number of weather cycles that used an earlier result. */
+        public final long fallbacks;
+        /** Number of unchanged results that were not sent. */
+        public final long suppressed;
+
+        private Snapshot(LatencyHistogram.Snapshot locationLatency,
+                LatencyHistogram.Snapshot httpLatency, LatencyHistogram.Snapshot parseLatency,
+                LatencyHistogram.Snapshot mappingLatency, LatencyHistogram.Snapshot sendLatency,
+                LatencyHistogram.Snapshot cycleLatency, long requests, long bytesReceived,
+                long cacheHits, long networkFailures, Map<Integer, Long> httpFailures,
+                long cycles, long skippedCycles, long deadlinesExceeded, long fallbacks,
+                long suppressed) {
+            this.locationLatency = locationLatency;
+            this.httpLatency = httpLatency;
+            this.parseLatency = parseLatency;
+            this.mappingLatency = mappingLatency;
+            this.sendLatency = sendLatency;
+            this.cycleLatency = cycleLatency;
+            this.requests = requests;
+            this.bytesReceived = bytesReceived;
+            this.cacheHits = cacheHits;
+            this.networkFailures = networkFailures;
+            this.httpFailures = Collections.unmodifiableMap(httpFailures);
+            long totalFailures = networkFailures;
+            for (Long count : httpFailures.values()) {
+                totalFailures += count;
+            }
+            this.failures = totalFailures;
+            this.cycles = cycles;
+            this.skippedCycles = skippedCycles;
+            this.deadlinesExceeded = deadlinesExceeded;
+            this.fallbacks = fallbacks;
+            this.suppressed = suppressed;
+        }
+
+        /**
+         * Metrics recorded after an earlier snapshot.
+         * @param earlier earlier snapshot of the same metrics
+         * @return snapshot of the metrics recorded in between
+         */
+        public Snapshot since(Snapshot earlier) {
+            Map<Integer, Long> failuresSince = new HashMap<>();
+            for (Map.Entry<Integer, Long> entry : httpFailures.entrySet()) {
+                Long previous = earlier.httpFailures.get(entry.getKey());
+                long count = entry.getValue() - (previous != null ? previous : 0L);
+                if (count > 0) {
+                    failuresSince.put(entry.getKey(), count);
+                }
+            }
+            return new Snapshot(locationLatency.since(earlier.locationLatency),
+                    httpLatency.since(earlier.httpLatency),
+                    parseLatency.since(earlier.parseLatency),
+                    mappingLatency.since(earlier.mappingLatency),
+                    sendLatency.since(earlier.sendLatency),
+                    cycleLatency.since(earlier.cycleLatency),
+                    requests - earlier.requests,
+                    bytesReceived - earlier.bytesReceived,
+                    cacheHits - earlier.cacheHits,
+                    networkFailures - earlier.networkFailures,
+                    failuresSince,
+                    cycles - earlier.cycles,
+                    skippedCycles - earlier.skippedCycles,
+                    deadlinesExceeded - earlier.deadlinesExceeded,
+                    fallbacks - earlier.fallbacks,
+                    suppressed - earlier.suppressed);
+        }
+
+        /**
+         * Fraction of results that was served from a cache.
+         * @return cache hit ratio, or {@code NaN} if no results were requested.
+         */
+        public double getCacheHitRatio() {
+            long total = cacheHits + requests;
+            return total > 0 ? cacheHits / (double) total : Double.NaN;
+        }
+
+        @Override
+        public String toString() {
+            return "WeatherMetrics{"
+                    + "cycles=" + cycles
+                    + ", skippedCycles=" + skippedCycles
+                    + ", deadlinesExceeded=" + deadlinesExceeded
+                    + ", fallbacks=" + fallbacks
+                    + ", suppressed=" + suppressed
+                    + ", requests=" + requests
+                    + ", bytesReceived=" + bytesReceived
+                    + ", cacheHits=" + cacheHits
+                    + ", networkFailures=" + networkFailures
+                    + ", httpFailures=" + httpFailures
+                    + ", location=" + locationLatency
+                    + ", http=" + httpLatency
+                    + ", parse=" + parseLatency
+                    + ", mapping=" + mappingLatency
+                    + ", send=" + sendLatency
+                    + ", cycle=" + cycleLatency
+                    + '}';
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.weather;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plans the API calls of a weather cycle. Each type of weather data that is needed has a maximum
+ * age. Data that is still fresh is not requested again, and the remaining data is requested with
+ * the fewest endpoint calls, preferring endpoints that combine several data types. Of plans with
+ * the same number of calls, the one that fetches the least unneeded data is chosen.
+ *
+ * <p>This class is not thread-safe.
+ */
+public class WeatherRequestPlanner {
+    /** Maximum number of endpoints to search all combinations of. */
+    private static final int MAX_ENDPOINTS = 16;
+
+    /** Type of weather data. */
+    public enum DataType {
+        CURRENT, HOURLY_FORECAST, DAILY_FORECAST
+    }
+
+    private final List<Endpoint> endpoints;
+    private final Map<DataType, Long> needs;
+
+    /**
+     * Planner for given endpoints.
+     * @param endpoints endpoints that can be called, in order of preference.
+     * @throws IllegalArgumentException if more than 16 endpoints are given.
+     */
+    public WeatherRequestPlanner(Collection<Endpoint> endpoints) {
+        if (endpoints.size() > MAX_ENDPOINTS) {
+            throw new IllegalArgumentException("Cannot plan with more than " + MAX_ENDPOINTS + " endpoints");
+        }
+        this.endpoints = new ArrayList<>(endpoints);
+        this.needs = new EnumMap<>(DataType.class);
+    }
+
+    /**
+     * Declare that a data type is needed.
+     * @param type data type
+     * @param maxAge maximum age of the data before it should be requested again
+     * @param unit unit of the maximum age
+     */
+    public void setNeed(DataType type, long maxAge, TimeUnit unit) {
+        needs.put(type, unit.toMillis(maxAge));
+    }
+
+    /**
+     * Declare that a data type is no longer needed.
+     * @param type data type
+     */
+    public void removeNeed(DataType type) {
+        needs.remove(type);
+    }
+
+    /** Data types that are needed. */
+    public Set<DataType> getNeeds() {
+        return needs.isEmpty() ? EnumSet.noneOf(DataType.class) : EnumSet.copyOf(needs.keySet());
+    }
+
+    /**
+     * Plan the calls that are needed to get all stale data.
+     * @param lastUpdated time in milliseconds that each data type was last retrieved. Data types
+     *                    that are not in the map are considered stale.
+     * @param now current time in milliseconds
+     * @return plan
+     */
+    public Plan plan(Map<DataType, Long> lastUpdated, long now) {
+        EnumSet<DataType> stale = EnumSet.noneOf(DataType.class);
+        for (Map.Entry<DataType, Long> need : needs.entrySet()) {
+            Long updated = lastUpdated.get(need.getKey());
+            if (updated == null || now - updated > need.getValue()) {
+                stale.add(need.getKey());
+            }
+        }
+        if (stale.isEmpty()) {
+            return new Plan(Collections.<Endpoint>emptyList(), stale, needs.size());
+        }
+
+        int required = mask(stale);
+        int[] provided = new int[endpoints.size()];
+        for (int i = 0; i < provided.length; i++) {
+            provided[i] = mask(endpoints.get(i).provides);
+        }
+
+        int bestSelection = -1;
+        int bestCalls = Integer.MAX_VALUE;
+        int bestExtra = Integer.MAX_VALUE;
+        for (int selection = 1; selection < 1 << provided.length; selection++) {
+            int calls = Integer.bitCount(selection);
+            if (calls > bestCalls) {
+                continue;
+            }
+            int covered = 0;
+            int fetched = 0;
+            for (int i = 0; i < provided.length; i++) {
+                if ((selection & (1 << i)) != 0) {
+                    covered |= provided[i];
+                    fetched += Integer.bitCount(provided[i]);
+                }
+            }
+            if ((covered & required) != required) {
+                continue;
+            }
+            int extra = fetched - Integer.bitCount(required);
+            if (calls < bestCalls || extra < bestExtra) {
+                bestSelection = selection;
+                bestCalls = calls;
+                bestExtra = extra;
+            }
+        }
+        if (bestSelection == -1) {
+            throw new IllegalStateException("No endpoints provide data types " + stale);
+        }
+
+        List<Endpoint> calls = new ArrayList<>(bestCalls);
+        for (int i = 0; i < provided.length; i++) {
+            if ((bestSelection & (1 << i)) != 0) {
+                calls.add(endpoints.get(i));
+            }
+        }
+        return new Plan(calls, stale, needs.size());
+    }
+
+    private static int mask(Set<DataType> types) {
+        int mask = 0;
+        for (DataType type : types) {
+            mask |= 1 << type.ordinal();
+        }
+        return mask;
+    }
+
+    /** API endpoint that provides one or more data types in a single call. */
+    public static final class Endpoint {
+        private final String name;
+        private final Set<DataType> provides;
+
+        /**
+         * Endpoint.
+         * @param name name of the endpoint
+         * @param provides data types that a single call provides
+         */
+        public Endpoint(String name, DataType... provides) {
+            if (provides.length == 0) {
+                throw new IllegalArgumentException("Endpoint " + name + " does not provide any data");
+            }
+            this.name = name;
+            EnumSet<DataType> types = EnumSet.noneOf(DataType.class);
+            Collections.addAll(types, provides);
+            this.provides = Collections.unmodifiableSet(types);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Set<DataType> getProvides() {
+            return provides;
+        }
+
+        @Override
+        public String toString() {
+            return name + provides;
+        }
+    }
+
+    /** Calls to make in a weather cycle. */
+    public static final class Plan {
+        private final List<Endpoint> calls;
+        private final Set<DataType> stale;
+        private final int naiveCallCount;
+
+        private Plan(List<Endpoint> calls, Set<DataType> stale, int naiveCallCount) {
+            this.calls = Collections.unmodifiableList(calls);
+            this.stale = Collections.unmodifiableSet(stale);
+            this.naiveCallCount = naiveCallCount;
+        }
+
+        /** Endpoints to call. */
+        public List<Endpoint> getCalls() {
+            return calls;
+        }
+
+        /** Whether the plan makes no calls, because all needed data is fresh. */
+        public boolean isEmpty() {
+            return calls.isEmpty();
+        }
+
+        /** Data types that are stale and will be requested. */
+        public Set<DataType> getStale() {
+            return stale;
+        }
+
+        /** Whether the plan has a call that provides given data type. */
+        public boolean requests(DataType type) {
+            for (Endpoint call : calls) {
+                if (call.provides.contains(type)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /** Number of calls to make. */
+        public int getCallCount() {
+            return calls.size();
+        }
+
+        /** Number of calls to make with one call per needed data type, fresh or not. */
+        public int getNaiveCallCount() {
+            return naiveCallCount;
+        }
+
+        @Override
+        public String toString() {
+            return "Plan{calls=" + calls + ", stale=" + stale + ", naiveCallCount=" + naiveCallCount + '}';
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.weather;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CityIdCacheTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private long now;
+    private File file;
+
+    @Before
+    public void setUp() {
+        file = new File(folder.getRoot(), "city_ids.bin");
+    }
+
+    @Test
+    public void persistsAcrossInstances() {
+        CityIdCache cache = newCache(16);
+        cache.put(52.012, 4.012, 2747891L);
+        cache.put(48.015, 2.015, 2988507L);
+        cache.flush();
+
+        CityIdCache restored = newCache(16);
+        assertEquals(2, restored.size());
+        assertEquals(Long.valueOf(2747891L), restored.get(52.018, 4.018));
+        assertEquals(Long.valueOf(2988507L), restored.get(48.015, 2.015));
+        assertNull(restored.get(52.035, 4.015));
+    }
+
+    @Test
+    public void debouncesWrites() {
+        CityIdCache cache = newCache(16);
+        // the first new cell is written immediately
+        cache.put(52.01, 4.01, 1L);
+        assertTrue(file.exists());
+        long length = file.length();
+
+        // later cells wait for the store interval
+        cache.put(52.03, 4.01, 2L);
+        cache.put(52.05, 4.01, 3L);
+        assertEquals(length, file.length());
+        assertEquals(1, newCache(16).size());
+
+        now += TimeUnit.MINUTES.toNanos(5);
+        cache.put(52.07, 4.01, 4L);
+        assertEquals(4, newCache(16).size());
+
+        // an unchanged cell does not mark the cache as changed
+        cache.put(52.07, 4.01, 4L);
+        cache.put(52.09, 4.01, 5L);
+        assertEquals(4, newCache(16).size());
+        cache.flush();
+        assertEquals(5, newCache(16).size());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        CityIdCache cache = newCache(2);
+        cache.put(52.01, 4.01, 1L);
+        cache.put(52.03, 4.01, 2L);
+        cache.get(52.01, 4.01);
+        cache.put(52.05, 4.01, 3L);
+        cache.flush();
+
+        CityIdCache restored = newCache(2);
+        assertEquals(2, restored.size());
+        assertEquals(Long.valueOf(1L), restored.get(52.01, 4.01));
+        assertNull(restored.get(52.035, 4.015));
+        assertEquals(Long.valueOf(3L), restored.get(52.05, 4.01));
+    }
+
+    @Test
+    public void ignoresUnknownFormat() throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            out.writeInt(99);
+            out.writeInt(1);
+            out.writeLong(1L);
+            out.writeLong(1L);
+        }
+        assertEquals(0, newCache(16).size());
+    }
+
+    @Test
+    public void readsTruncatedFile() throws IOException {
+        CityIdCache cache = newCache(16);
+        cache.put(52.01, 4.01, 1L);
+        cache.put(52.03, 4.01, 2L);
+        cache.flush();
+
+        // cut the last entry in half
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 8);
+        }
+        CityIdCache restored = newCache(16);
+        assertEquals(1, restored.size());
+        assertEquals(Long.valueOf(1L), restored.get(52.01, 4.01));
+    }
+
+    @Test
+    public void clearRemovesFile() {
+        CityIdCache cache = newCache(16);
+        cache.put(52.01, 4.01, 1L);
+        cache.put(52.03, 4.01, 2L);
+        cache.clear();
+        assertFalse(file.exists());
+
+        cache.flush();
+        assertFalse(file.exists());
+        assertEquals(0, newCache(16).size());
+    }
+
+    @Test
+    public void keepsMemoryOnlyCache() {
+        CityIdCache cache = new CityIdCache(0.01, 16, null, 5, TimeUnit.MINUTES, () -> now);
+        cache.put(52.01, 4.01, 1L);
+        cache.flush();
+        assertEquals(Long.valueOf(1L), cache.get(52.01, 4.01));
+    }
+
+    private CityIdCache newCache(int maxEntries) {
+        return new CityIdCache(0.01, maxEntries, file, 5, TimeUnit.MINUTES, () -> now);
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.weather;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class CityIndexTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void importSkipsInvalidCities() throws IOException {
+        File file = importCities("[{\"id\": 1, \"name\": \"A\", \"coord\": {\"lat\": 52.1, \"lon\": 5.1}},"
+                + "{\"id\": 2, \"name\": \"B\"},"
+                + "{\"name\": \"C\", \"coord\": {\"lat\": 1, \"lon\": 1}},"
+                + "{\"id\": 4, \"coord\": {\"lat\": null, \"lon\": 1}}]");
+        try (CityIndex index = CityIndex.open(file)) {
+            assertEquals(1, index.size());
+            assertEquals(1, index.getCityId(0));
+            assertEquals(52.1, index.getLatitude(0), 1e-5);
+            assertEquals(5.1, index.getLongitude(0), 1e-5);
+        }
+    }
+
+    @Test
+    public void findsCityInNeighbouringCell() throws IOException {
+        try (CityIndex index = open(
+                city(1, 52.9, 5.1),
+                city(2, 52.05, 6.05))) {
+            // a city in the same cell does not end the search while a closer one may be next to it
+            assertCity(index, 2, 52.05, 5.95, 100_000);
+        }
+    }
+
+    @Test
+    public void findsDistantCity() throws IOException {
+        try (CityIndex index = open(city(1, 0, 150))) {
+            assertCity(index, 1, 0, 0, 20_000_000);
+            assertCity(index, -1, 0, 0, 1_000_000);
+        }
+    }
+
+    @Test
+    public void respectsMaxDistance() throws IOException {
+        try (CityIndex index = open(city(1, 52, 5))) {
+            assertCity(index, -1, 52, 8, 100_000);
+            assertCity(index, 1, 52, 8, 300_000);
+        }
+    }
+
+    @Test
+    public void wrapsAroundAntimeridian() throws IOException {
+        try (CityIndex index = open(
+                city(1, 10, 179.9),
+                city(2, 10, -179),
+                city(3, -20, -179.95))) {
+            assertCity(index, 1, 10, -179.9, 100_000);
+            assertCity(index, 1, 10, 179.5, 100_000);
+            assertCity(index, 3, -20, 179.95, 20_000);
+        }
+    }
+
+    @Test
+    public void findsCitiesNearPoles() throws IOException {
+        try (CityIndex index = open(
+                city(1, 89.8, 0),
+                city(2, 88.5, 90),
+                city(3, -89.5, 45),
+                city(4, -88, -135))) {
+            // a quarter of the globe away in longitude, but close across the pole
+            assertCity(index, 1, 89.9, 90, 100_000);
+            assertCity(index, 1, 90, -90, 100_000);
+            assertCity(index, 3, -90, -135, 200_000);
+        }
+    }
+
+    @Test
+    public void matchesExhaustiveSearch() throws IOException {
+        Random random = new Random(42L);
+        String[] cities = new String[2000];
+        for (int i = 0; i < cities.length; i++) {
+            cities[i] = city(i, randomLatitude(random), randomLongitude(random));
+        }
+        try (CityIndex index = open(cities)) {
+            for (int i = 0; i < 1000; i++) {
+                double latitude = randomLatitude(random);
+                double longitude = randomLongitude(random);
+                double maxDistance = i % 2 == 0 ? 300_000 : 20_000_000;
+                int expected = findExhaustive(index, latitude, longitude, maxDistance);
+                int actual = index.findNearest(latitude, longitude, maxDistance);
+                String message = String.format(Locale.US, "nearest to %.4f, %.4f within %.0f m",
+                        latitude, longitude, maxDistance);
+                if (expected == -1) {
+                    assertEquals(message, -1, actual);
+                } else {
+                    assertEquals(message,
+                            distance(index, expected, latitude, longitude),
+                            distance(index, actual, latitude, longitude), 1e-6);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void rejectsCorruptIndex() throws IOException {
+        File valid = folder.newFile("valid.bin");
+        CityListImporter.importCityList(stream(list(city(1, 52, 5))), valid, 1d);
+
+        assertCorrupt(valid, 0, 0);
+        assertCorrupt(valid, 4, CityIndex.FORMAT_VERSION + 1);
+        assertCorrupt(valid, 16, 0);
+        assertCorrupt(valid, 24, 2);
+
+        File truncated = copy(valid);
+        try (RandomAccessFile raf = new RandomAccessFile(truncated, "rw")) {
+            raf.setLength(raf.length() - 1);
+        }
+        assertCannotOpen(truncated);
+
+        File header = copy(valid);
+        try (RandomAccessFile raf = new RandomAccessFile(header, "rw")) {
+            raf.setLength(CityIndex.HEADER_SIZE - 1);
+        }
+        assertCannotOpen(header);
+    }
+
+    @Test
+    public void keepsIndexOnFailedImport() throws IOException {
+        File file = importCities(list(city(1, 52, 5)));
+        try {
+            CityListImporter.importCityList(stream("{\"id\": 1}"), file, 1d);
+            fail("City list that is not an array should be rejected");
+        } catch (IOException ex) {
+            // expected
+        }
+        try (CityIndex index = CityIndex.open(file)) {
+            assertEquals(1, index.size());
+        }
+    }
+
+    private CityIndex open(String... cities) throws IOException {
+        return CityIndex.open(importCities(list(cities)));
+    }
+
+    private File importCities(String cityList) throws IOException {
+        File file = new File(folder.getRoot(), "cities.bin");
+        CityListImporter.importCityList(stream(cityList), file,
+                CityListImporter.DEFAULT_CELL_SIZE);
+        return file;
+    }
+
+    private File copy(File source) throws IOException {
+        File target = folder.newFile();
+        try (RandomAccessFile in = new RandomAccessFile(source, "r");
+                RandomAccessFile out = new RandomAccessFile(target, "rw")) {
+            byte[] bytes = new byte[(int) in.length()];
+            in.readFully(bytes);
+            out.write(bytes);
+        }
+        return target;
+    }
+
+    private void assertCorrupt(File valid, int position, int value) throws IOException {
+        File corrupt = copy(valid);
+        try (RandomAccessFile raf = new RandomAccessFile(corrupt, "rw")) {
+            raf.seek(position);
+            raf.writeInt(value);
+        }
+        assertCannotOpen(corrupt);
+    }
+
+    private static void assertCannotOpen(File file) {
+        try (CityIndex index = CityIndex.open(file)) {
+            fail("Opened corrupt index with " + index.size() + " cities");
+        } catch (IOException ex) {
+            // expected
+        }
+    }
+
+    private static void assertCity(CityIndex index, int id, double latitude, double longitude,
+            double maxDistance) {
+        int position = index.findNearest(latitude, longitude, maxDistance);
+        assertEquals(id, position == -1 ? -1 : index.getCityId(position));
+    }
+
+    private static int findExhaustive(CityIndex index, double latitude, double longitude,
+            double maxDistance) {
+        int best = -1;
+        double bestDistance = maxDistance;
+        for (int i = 0; i < index.size(); i++) {
+            double distance = distance(index, i, latitude, longitude);
+            if (distance < bestDistance) {
+                best = i;
+                bestDistance = distance;
+            }
+        }
+        return best;
+    }
+
+    private static double distance(CityIndex index, int position, double latitude,
+            double longitude) {
+        return CityIndex.distance(latitude, longitude,
+                index.getLatitude(position), index.getLongitude(position));
+    }
+
+    private static double randomLatitude(Random random) {
+        return random.nextDouble() * 180d - 90d;
+    }
+
+    private static double randomLongitude(Random random) {
+        return random.nextDouble() * 360d - 180d;
+    }
+
+    private static String city(int id, double latitude, double longitude) {
+        return String.format(Locale.US, "{\"id\": %d, \"coord\": {\"lat\": %.4f, \"lon\": %.4f}}",
+                id, latitude, longitude);
+    }
+
+    private static String list(String... cities) {
+        return "[" + String.join(",", cities) + "]";
+    }
+
+    private static ByteArrayInputStream stream(String value) {
+        return new ByteArrayInputStream(value.getBytes(StandardCharsets.UTF_8));
+    }
+}
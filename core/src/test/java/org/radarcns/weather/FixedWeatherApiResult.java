@@ -0,0 +1,78 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.weather;
+
+import org.radarcns.passive.weather.WeatherCondition;
+
+/** Weather result with fixed values, retrieved at a given time. */
+class FixedWeatherApiResult implements WeatherApiResult {
+    private final double timestamp;
+
+    FixedWeatherApiResult(double timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    @Override
+    public double getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public Float getTemperature() {
+        return 12.5f;
+    }
+
+    @Override
+    public Float getPressure() {
+        return 1013f;
+    }
+
+    @Override
+    public Float getHumidity() {
+        return 80f;
+    }
+
+    @Override
+    public Float getCloudiness() {
+        return 50f;
+    }
+
+    @Override
+    public Float getPrecipitation() {
+        return 0f;
+    }
+
+    @Override
+    public Integer getPrecipitationPeriod() {
+        return 3;
+    }
+
+    @Override
+    public WeatherCondition getWeatherCondition() {
+        return WeatherCondition.CLOUDY;
+    }
+
+    @Override
+    public Integer getSunRise() {
+        return null;
+    }
+
+    @Override
+    public Integer getSunSet() {
+        return null;
+    }
+}
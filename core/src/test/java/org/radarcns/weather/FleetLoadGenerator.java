@@ -0,0 +1,177 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.weather;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+
+/**
+ * Drives a fleet of simulated devices that each query the current weather at their own location.
+ * Devices are spread around a number of cities, like participants of a study. Failed queries are
+ * optionally retried with exponential backoff.
+ */
+class FleetLoadGenerator {
+    /** Maximum distance of a device to its city center in degrees. */
+    private static final double CITY_RADIUS = 0.05;
+
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private int maxRetries;
+    private long backoffNanos;
+    private long timeoutNanos = TimeUnit.SECONDS.toNanos(30);
+
+    /**
+     * Fleet with devices at random locations.
+     * @param devices number of devices
+     * @param cities number of cities that the devices are spread around
+     * @param seed seed of the random locations, so that runs can be compared
+     */
+    FleetLoadGenerator(int devices, int cities, long seed) {
+        Random random = new Random(seed);
+        double[] cityLatitudes = new double[cities];
+        double[] cityLongitudes = new double[cities];
+        for (int i = 0; i < cities; i++) {
+            cityLatitudes[i] = 36d + 24d * random.nextDouble();
+            cityLongitudes[i] = -10d + 40d * random.nextDouble();
+        }
+        latitudes = new double[devices];
+        longitudes = new double[devices];
+        for (int i = 0; i < devices; i++) {
+            int city = random.nextInt(cities);
+            latitudes[i] = cityLatitudes[city] + CITY_RADIUS * (2d * random.nextDouble() - 1d);
+            longitudes[i] = cityLongitudes[city] + CITY_RADIUS * (2d * random.nextDouble() - 1d);
+        }
+    }
+
+    /**
+     * Retry failed queries.
+     * @param maxRetries maximum number of retries per query
+     * @param backoff wait time before the first retry, doubled for every next retry
+     * @param unit unit of the backoff
+     * @return this generator
+     */
+    FleetLoadGenerator retries(int maxRetries, long backoff, TimeUnit unit) {
+        this.maxRetries = maxRetries;
+        this.backoffNanos = unit.toNanos(backoff);
+        return this;
+    }
+
+    /** Maximum duration of a single query, including retries. */
+    FleetLoadGenerator timeout(long timeout, TimeUnit unit) {
+        this.timeoutNanos = unit.toNanos(timeout);
+        return this;
+    }
+
+    /** Number of simulated devices. */
+    int size() {
+        return latitudes.length;
+    }
+
+    /**
+     * Let every device query the current weather once.
+     * @param deviceApi weather API to use for a device, by device index
+     * @param executor executor to run the queries on. It is shut down when all queries are
+     *                 submitted.
+     * @return report of the run
+     * @throws InterruptedException if the run is interrupted
+     */
+    Report run(IntFunction<WeatherApi> deviceApi, ExecutorService executor)
+            throws InterruptedException {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final AtomicLong failures = new AtomicLong();
+        final AtomicLong retryCount = new AtomicLong();
+
+        long startTime = System.nanoTime();
+        for (int i = 0; i < latitudes.length; i++) {
+            final WeatherApi api = deviceApi.apply(i);
+            final double latitude = latitudes[i];
+            final double longitude = longitudes[i];
+            executor.execute(() -> {
+                long queryStart = System.nanoTime();
+                Deadline deadline = Deadline.after(timeoutNanos, TimeUnit.NANOSECONDS);
+                for (int attempt = 0; ; attempt++) {
+                    try {
+                        api.loadCurrentWeather(latitude, longitude, deadline);
+                        latency.recordSince(queryStart);
+                        return;
+                    } catch (IOException ex) {
+                        long backoff = backoffNanos << attempt;
+                        if (attempt >= maxRetries
+                                || deadline.remaining(TimeUnit.NANOSECONDS) <= backoff) {
+                            failures.incrementAndGet();
+                            return;
+                        }
+                        retryCount.incrementAndGet();
+                        try {
+                            TimeUnit.NANOSECONDS.sleep(backoff);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            failures.incrementAndGet();
+                            return;
+                        }
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        if (!executor.awaitTermination(5, TimeUnit.MINUTES)) {
+            executor.shutdownNow();
+            throw new IllegalStateException("Load test did not finish in time");
+        }
+        return new Report(latitudes.length, System.nanoTime() - startTime, latency.snapshot(),
+                failures.get(), retryCount.get());
+    }
+
+    /** Results of a load test run. */
+    static final class Report {
+        final int queries;
+        final long durationNanos;
+        /** Latency of successful queries, including retries. */
+        final LatencyHistogram.Snapshot latency;
+        final long failures;
+        final long retries;
+
+        private Report(int queries, long durationNanos, LatencyHistogram.Snapshot latency,
+                long failures, long retries) {
+            this.queries = queries;
+            this.durationNanos = durationNanos;
+            this.latency = latency;
+            this.failures = failures;
+            this.retries = retries;
+        }
+
+        /** Number of queries per second. */
+        double getThroughput() {
+            return queries * (double) TimeUnit.SECONDS.toNanos(1) / durationNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "{queries=" + queries
+                    + ", duration=" + TimeUnit.NANOSECONDS.toMillis(durationNanos) + "ms"
+                    + ", throughput=" + Math.round(getThroughput()) + "/s"
+                    + ", failures=" + failures
+                    + ", retries=" + retries
+                    + ", p99=" + latency.getPercentileMicros(0.99) + "us"
+                    + ", latency=" + latency + '}';
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.weather;
+
+import net.aksingh.owmjapis.OpenWeatherMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Load test of the OpenWeatherMap client against a local mock server. The fleet size can be
+ * raised with the {@code weather.loadtest.devices} system property.
+ */
+public class FleetLoadTest {
+    private static final Logger logger = LoggerFactory.getLogger(FleetLoadTest.class);
+
+    private static final int DEVICES = Integer.getInteger("weather.loadtest.devices", 2000);
+    private static final int CONCURRENCY = Integer.getInteger("weather.loadtest.concurrency", 64);
+    private static final int CITIES = 25;
+    private static final long SEED = 1L;
+
+    private MockOpenWeatherMapServer server;
+    private OkHttpClient client;
+    private FleetLoadGenerator fleet;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockOpenWeatherMapServer();
+        server.setLatency(20, TimeUnit.MILLISECONDS);
+        client = OpenWeatherMap.sharedHttpClient();
+        fleet = new FleetLoadGenerator(DEVICES, CITIES, SEED);
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    private OpenWeatherMapApi newApi(WeatherMetrics metrics) {
+        return new OpenWeatherMapApi(server.getBaseUrl(), "test", client, metrics, false,
+                null, null);
+    }
+
+    @Test
+    public void devicesWithoutCache() throws Exception {
+        WeatherMetrics metrics = new WeatherMetrics();
+        FleetLoadGenerator.Report report = fleet.run(i -> newApi(metrics),
+                WeatherExecutors.newBoundedExecutor(CONCURRENCY));
+        logger.info("Devices without cache: {}, {}", report, metrics.snapshot());
+
+        assertEquals(0L, report.failures);
+        assertEquals(DEVICES, server.getRequestCount("weather"));
+        assertEquals(DEVICES, metrics.snapshot().requests);
+    }
+
+    @Test
+    public void serverWithSpatialCache() throws Exception {
+        WeatherMetrics metrics = new WeatherMetrics();
+        SpatialWeatherCache cache = new SpatialWeatherCache(newApi(metrics), 0.1, 10,
+                TimeUnit.MINUTES, DEVICES, metrics);
+        FleetLoadGenerator.Report report = fleet.run(i -> cache,
+                WeatherExecutors.newBoundedExecutor(CONCURRENCY));
+        WeatherMetrics.Snapshot snapshot = metrics.snapshot();
+        logger.info("Server with spatial cache: {}, {} API requests, cache hit ratio {},"
+                        + " {} lookups per API request", report, server.getRequestCount("weather"),
+                snapshot.getCacheHitRatio(), cache.getDeduplicationRatio());
+
+        assertEquals(0L, report.failures);
+        // every city spans at most four cells of 0.1 degrees
+        assertTrue(server.getRequestCount("weather") <= 4 * CITIES);
+        assertEquals(server.getRequestCount("weather"), cache.getLoadCount());
+    }
+
+    @Test
+    public void rateLimitedWithRetries() throws Exception {
+        server.setRateLimit(DEVICES / 4);
+        server.setErrorRate(0.02);
+        FleetLoadGenerator.Report withoutRetries = fleet.run(i -> newApi(null),
+                WeatherExecutors.newBoundedExecutor(CONCURRENCY));
+        long rateLimited = server.getRateLimitedCount();
+        logger.info("Rate limited without retries: {}, {} requests refused, {} server errors",
+                withoutRetries, rateLimited, server.getErrorCount());
+
+        server.resetCounts();
+        FleetLoadGenerator.Report withRetries = fleet.retries(5, 200, TimeUnit.MILLISECONDS)
+                .run(i -> newApi(null), WeatherExecutors.newBoundedExecutor(CONCURRENCY));
+        logger.info("Rate limited with retries: {}, {} requests refused, {} server errors",
+                withRetries, server.getRateLimitedCount(), server.getErrorCount());
+
+        assertTrue(withoutRetries.failures > 0);
+        assertTrue(withRetries.failures < withoutRetries.failures);
+        assertEquals(DEVICES - withRetries.failures, server.getRequestCount("weather"));
+    }
+}
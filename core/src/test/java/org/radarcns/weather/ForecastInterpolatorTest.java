@@ -0,0 +1,150 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.weather;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.radarcns.passive.weather.WeatherCondition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests and benchmark of the forecast interpolator. The benchmark generates a whole day of
+ * 5-minute points from a 3-hourly forecast. The number of benchmark iterations can be set with
+ * the {@code weather.benchmark.iterations} system property.
+ */
+public class ForecastInterpolatorTest {
+    private static final Logger logger = LoggerFactory.getLogger(ForecastInterpolatorTest.class);
+
+    private static final int ITERATIONS = Integer.getInteger("weather.benchmark.iterations", 20000);
+    private static final int FORECAST_STEP = 3 * 60 * 60;
+    private static final int FORECAST_SIZE = 40;
+    private static final int STEP = 5 * 60;
+    private static final int POINTS_PER_DAY = 24 * 60 * 60 / STEP;
+    private static final long START_TIME = 1500000000L;
+    private static final ForecastInterpolator.Variable[] VARIABLES =
+            ForecastInterpolator.Variable.values();
+
+    private WeatherForecast forecast;
+
+    @Before
+    public void setUp() {
+        WeatherForecast.Builder builder = new WeatherForecast.Builder("test", START_TIME,
+                FORECAST_STEP, FORECAST_SIZE);
+        for (int i = 0; i < FORECAST_SIZE; i++) {
+            builder.add(START_TIME + (long) i * FORECAST_STEP, 10f + i % 8, 1000f + i, 80f - i,
+                    (i * 10) % 100, i % 3 == 0 ? 0f : 1.5f, WeatherCondition.UNKNOWN);
+        }
+        forecast = builder.build();
+    }
+
+    @Test
+    public void interpolateLinearly() {
+        long midpoint = START_TIME + FORECAST_STEP / 2;
+        assertEquals(10.5f, ForecastInterpolator.interpolate(forecast,
+                ForecastInterpolator.Variable.TEMPERATURE, midpoint), 1e-4f);
+        assertEquals(1000.5f, ForecastInterpolator.interpolate(forecast,
+                ForecastInterpolator.Variable.PRESSURE, midpoint), 1e-3f);
+        assertTrue(Float.isNaN(ForecastInterpolator.interpolate(forecast,
+                ForecastInterpolator.Variable.TEMPERATURE, START_TIME - 1)));
+
+        float[] out = new float[POINTS_PER_DAY];
+        ForecastInterpolator.interpolate(forecast, ForecastInterpolator.Variable.HUMIDITY,
+                START_TIME, STEP, out, 0, out.length);
+        for (int k = 0; k < out.length; k++) {
+            assertEquals(ForecastInterpolator.interpolate(forecast,
+                    ForecastInterpolator.Variable.HUMIDITY, START_TIME + (long) k * STEP),
+                    out[k], 1e-3f);
+        }
+    }
+
+    @Test
+    public void redistributePrecipitationPreservesTotal() {
+        float[] out = new float[POINTS_PER_DAY];
+        // the first step that is fully covered ends at the first forecast time
+        ForecastInterpolator.redistributePrecipitation(forecast, START_TIME + STEP, STEP,
+                out, 0, out.length);
+        float total = 0f;
+        for (float value : out) {
+            assertTrue(value >= 0f);
+            total += value;
+        }
+        // the output covers exactly the forecast periods 1 to 8
+        float expected = 0f;
+        for (int i = 1; i <= 8; i++) {
+            expected += i % 3 == 0 ? 0f : 1.5f;
+        }
+        assertEquals(expected, total, 1e-3f);
+    }
+
+    @Test
+    public void benchmarkDayOfFiveMinutePoints() {
+        float[][] out = new float[VARIABLES.length + 1][POINTS_PER_DAY];
+        // warm up the JIT
+        generateDays(out, ITERATIONS / 4);
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long allocatedBefore = allocatedBytes(threads);
+        long startTime = System.nanoTime();
+        generateDays(out, ITERATIONS);
+        long duration = System.nanoTime() - startTime;
+        long allocated = allocatedBytes(threads) - allocatedBefore;
+
+        logger.info("Generated a day of {} points for {} values in {} us on average, allocating"
+                        + " {} bytes in {} iterations", POINTS_PER_DAY, out.length,
+                TimeUnit.NANOSECONDS.toMicros(duration) / (double) ITERATIONS,
+                allocated >= 0 ? allocated : "unknown", ITERATIONS);
+
+        // a whole day should take microseconds; this bound only catches gross regressions
+        assertTrue(duration / ITERATIONS < TimeUnit.MILLISECONDS.toNanos(1));
+        if (allocated >= 0) {
+            // allow for incidental allocations by the JVM itself
+            assertTrue("Interpolation allocated " + allocated + " bytes", allocated < 4096);
+        }
+    }
+
+    private void generateDays(float[][] out, int iterations) {
+        for (int n = 0; n < iterations; n++) {
+            long dayStart = START_TIME + (long) (n % 4) * 24 * 60 * 60;
+            for (int v = 0; v < VARIABLES.length; v++) {
+                ForecastInterpolator.interpolate(forecast, VARIABLES[v], dayStart, STEP,
+                        out[v], 0, POINTS_PER_DAY);
+            }
+            ForecastInterpolator.redistributePrecipitation(forecast, dayStart, STEP,
+                    out[VARIABLES.length], 0, POINTS_PER_DAY);
+        }
+    }
+
+    /** Bytes allocated by the current thread, or -1 if the JVM does not support measuring it. */
+    private static long allocatedBytes(ThreadMXBean threads) {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+            if (sunThreads.isThreadAllocatedMemorySupported()
+                    && sunThreads.isThreadAllocatedMemoryEnabled()) {
+                return sunThreads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1L;
+    }
+}
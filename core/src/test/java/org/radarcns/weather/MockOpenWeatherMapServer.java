@@ -0,0 +1,288 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.weather;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Local HTTP server that mimics the OpenWeatherMap API with recorded responses. It serves the
+ * {@code weather}, {@code forecast}, {@code forecast/daily} and {@code onecall} endpoints. The
+ * response latency, the fraction of server errors and a rate limit per second can be
+ * configured, to test clients under load without using the real API.
+ */
+class MockOpenWeatherMapServer implements Closeable {
+    private static final String BASE_PATH = "/data/2.5/";
+    private static final byte[] RATE_LIMITED_BODY = ("{\"cod\":429,\"message\":\"Your account is "
+            + "temporary blocked due to exceeding of requests limitation of your subscription "
+            + "type.\"}").getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SERVER_ERROR_BODY = "{\"cod\":500,\"message\":\"Internal error\"}"
+            .getBytes(StandardCharsets.UTF_8);
+    private static final byte[] UNAUTHORIZED_BODY = "{\"cod\":401,\"message\":\"Invalid API key.\"}"
+            .getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NOT_FOUND_BODY = "{\"cod\":\"404\",\"message\":\"Not found\"}"
+            .getBytes(StandardCharsets.UTF_8);
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService responseScheduler;
+    private final Map<String, byte[]> payloads;
+
+    private volatile long latencyNanos;
+    private volatile double errorRate;
+    private volatile int rateLimit;
+
+    private final Object rateLock = new Object();
+    private long rateWindowStart;
+    private int rateWindowCount;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong rateLimited = new AtomicLong();
+    private final ConcurrentMap<String, AtomicLong> endpointRequests = new ConcurrentHashMap<>();
+    private final Queue<String> queries = new ConcurrentLinkedQueue<>();
+    private volatile boolean logQueries;
+
+    /**
+     * Start a server on a free port of the loopback interface.
+     * @throws IOException if the server cannot be started or the recorded responses cannot be
+     *                     read.
+     */
+    MockOpenWeatherMapServer() throws IOException {
+        payloads = new HashMap<>();
+        payloads.put("weather", readResource("/owm/weather.json"));
+        payloads.put("forecast", readResource("/owm/forecast.json"));
+        payloads.put("forecast/daily", readResource("/owm/forecast_daily.json"));
+        payloads.put("onecall", readResource("/owm/onecall.json"));
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(4, runnable -> {
+            Thread thread = new Thread(runnable, "mock-owm-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        responseScheduler = Executors.newScheduledThreadPool(4, runnable -> {
+            Thread thread = new Thread(runnable, "mock-owm-delay-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+        server.createContext(BASE_PATH, this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /** Base URL of the API, to pass to the OpenWeatherMap client. */
+    String getBaseUrl() {
+        return "http://" + server.getAddress().getHostString() + ":"
+                + server.getAddress().getPort() + BASE_PATH;
+    }
+
+    /** Delay every response by given time. Delayed responses do not occupy a server thread. */
+    void setLatency(long latency, TimeUnit unit) {
+        latencyNanos = unit.toNanos(latency);
+    }
+
+    /** Fraction of requests that fail with HTTP status 500, between 0 and 1. */
+    void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * Maximum number of requests per second. Further requests in the same second fail with
+     * HTTP status 429, like the OpenWeatherMap API does.
+     * @param requestsPerSecond rate limit, or 0 for no limit.
+     */
+    void setRateLimit(int requestsPerSecond) {
+        this.rateLimit = requestsPerSecond;
+    }
+
+    /** Total number of requests received. */
+    long getRequestCount() {
+        return requests.get();
+    }
+
+    /** Number of requests received for given endpoint, e.g. {@code weather}. */
+    long getRequestCount(String endpoint) {
+        AtomicLong count = endpointRequests.get(endpoint);
+        return count != null ? count.get() : 0L;
+    }
+
+    /** Number of requests that failed with HTTP status 500. */
+    long getErrorCount() {
+        return errors.get();
+    }
+
+    /** Number of requests that were refused with HTTP status 429. */
+    long getRateLimitedCount() {
+        return rateLimited.get();
+    }
+
+    /** Keep the query strings of all requests, see {@link #getQueries()}. */
+    void setQueryLogging(boolean logQueries) {
+        this.logQueries = logQueries;
+    }
+
+    /** Query strings of the requests received while query logging was enabled. */
+    List<String> getQueries() {
+        return new ArrayList<>(queries);
+    }
+
+    /** Reset all request counts and the query log. */
+    void resetCounts() {
+        requests.set(0L);
+        errors.set(0L);
+        rateLimited.set(0L);
+        endpointRequests.clear();
+        queries.clear();
+    }
+
+    private void handle(final HttpExchange exchange) {
+        requests.incrementAndGet();
+        String path = exchange.getRequestURI().getPath().substring(BASE_PATH.length());
+        String query = exchange.getRequestURI().getRawQuery();
+        if (logQueries) {
+            queries.add(query != null ? query : "");
+        }
+
+        final int code;
+        final byte[] body;
+        if (query == null || !query.contains("appId=")) {
+            code = 401;
+            body = UNAUTHORIZED_BODY;
+        } else if (!payloads.containsKey(path)) {
+            code = 404;
+            body = NOT_FOUND_BODY;
+        } else if (isRateLimited()) {
+            rateLimited.incrementAndGet();
+            code = 429;
+            body = RATE_LIMITED_BODY;
+        } else if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+            errors.incrementAndGet();
+            code = 500;
+            body = SERVER_ERROR_BODY;
+        } else {
+            AtomicLong count = endpointRequests.get(path);
+            if (count == null) {
+                AtomicLong newCount = new AtomicLong();
+                count = endpointRequests.putIfAbsent(path, newCount);
+                if (count == null) {
+                    count = newCount;
+                }
+            }
+            count.incrementAndGet();
+            code = 200;
+            body = payloads.get(path);
+        }
+
+        long delay = latencyNanos;
+        if (delay > 0) {
+            responseScheduler.schedule(() -> respond(exchange, code, body), delay,
+                    TimeUnit.NANOSECONDS);
+        } else {
+            respond(exchange, code, body);
+        }
+    }
+
+    private boolean isRateLimited() {
+        int limit = rateLimit;
+        if (limit <= 0) {
+            return false;
+        }
+        synchronized (rateLock) {
+            long now = System.nanoTime();
+            if (now - rateWindowStart >= TimeUnit.SECONDS.toNanos(1)) {
+                rateWindowStart = now;
+                rateWindowCount = 0;
+            }
+            rateWindowCount++;
+            return rateWindowCount > limit;
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int code, byte[] body) {
+        try {
+            String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            byte[] content = body;
+            if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.length);
+                try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+                    gzip.write(body);
+                }
+                content = bytes.toByteArray();
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            }
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(code, content.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(content);
+            }
+        } catch (IOException ex) {
+            // the client went away
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static byte[] readResource(String name) throws IOException {
+        try (InputStream in = MockOpenWeatherMapServer.class.getResourceAsStream(name)) {
+            if (in == null) {
+                throw new IOException("Missing recorded response " + name);
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int numRead;
+            while ((numRead = in.read(buffer)) != -1) {
+                bytes.write(buffer, 0, numRead);
+            }
+            return bytes.toByteArray();
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        responseScheduler.shutdownNow();
+        executor.shutdownNow();
+    }
+}
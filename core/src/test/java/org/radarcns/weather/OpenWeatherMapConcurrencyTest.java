@@ -0,0 +1,167 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.weather;
+
+import net.aksingh.owmjapis.CurrentWeather;
+import net.aksingh.owmjapis.OpenWeatherMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Stress test of a single OpenWeatherMap client that is shared by many threads. Each thread
+ * derives its own options from the shared client, and the server checks that every request
+ * carries the options of the thread that sent it.
+ */
+public class OpenWeatherMapConcurrencyTest {
+    private static final Logger logger = LoggerFactory.getLogger(OpenWeatherMapConcurrencyTest.class);
+
+    private static final int THREADS = 32;
+    private static final int CALLS_PER_THREAD = 50;
+    private static final String[] UNITS = {OpenWeatherMap.UNITS_METRIC, OpenWeatherMap.UNITS_IMPERIAL};
+    private static final String[] LANGUAGES = {OpenWeatherMap.LANGUAGE_ENGLISH,
+            OpenWeatherMap.LANGUAGE_DUTCH, OpenWeatherMap.LANGUAGE_GERMAN};
+
+    private MockOpenWeatherMapServer server;
+    private OpenWeatherMap owm;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockOpenWeatherMapServer();
+        server.setLatency(5, TimeUnit.MILLISECONDS);
+        owm = new OpenWeatherMap(server.getBaseUrl(), OpenWeatherMap.UNITS_METRIC,
+                OpenWeatherMap.LANGUAGE_ENGLISH, "shared", OpenWeatherMap.sharedHttpClient());
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void sharedClientKeepsOptionsPerThread() throws Exception {
+        server.setQueryLogging(true);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<Integer>> results = new ArrayList<>(THREADS);
+        for (int i = 0; i < THREADS; i++) {
+            final int thread = i;
+            results.add(executor.submit(() -> {
+                start.await();
+                int valid = 0;
+                for (int call = 0; call < CALLS_PER_THREAD; call++) {
+                    // derive the options again on every call, racing with the other threads
+                    OpenWeatherMap client = owm.withApiKey("key-" + thread)
+                            .withUnits(UNITS[thread % UNITS.length])
+                            .withLang(LANGUAGES[thread % LANGUAGES.length]);
+                    CurrentWeather weather = client.currentWeatherByCoordinates(
+                            52f + thread / 100f, 4f + call / 100f);
+                    if (weather != null && weather.isValid() && weather.getCityCode() == 2759794L) {
+                        valid++;
+                    }
+                }
+                return valid;
+            }));
+        }
+        start.countDown();
+        for (Future<Integer> result : results) {
+            assertEquals(CALLS_PER_THREAD, (int) result.get(1, TimeUnit.MINUTES));
+        }
+        executor.shutdown();
+
+        Map<String, Integer> callsPerKey = new HashMap<>();
+        for (String query : server.getQueries()) {
+            Map<String, String> params = parseQuery(query);
+            String key = params.get("appId");
+            assertNotNull("Request without API key: " + query, key);
+            int thread = Integer.parseInt(key.substring("key-".length()));
+            assertEquals(query, UNITS[thread % UNITS.length], params.get("units"));
+            assertEquals(query, LANGUAGES[thread % LANGUAGES.length], params.get("lang"));
+            Integer count = callsPerKey.get(key);
+            callsPerKey.put(key, count != null ? count + 1 : 1);
+        }
+        assertEquals(THREADS, callsPerKey.size());
+        for (Integer count : callsPerKey.values()) {
+            assertEquals(CALLS_PER_THREAD, (int) count);
+        }
+
+        // deriving clients does not change the shared client
+        assertEquals("shared", owm.getApiKey());
+        assertEquals(OpenWeatherMap.UNITS_METRIC, owm.getUnits());
+        assertEquals(OpenWeatherMap.LANGUAGE_ENGLISH, owm.getLang());
+    }
+
+    @Test
+    public void throughputScalesWithThreads() throws Exception {
+        server.setLatency(20, TimeUnit.MILLISECONDS);
+        int calls = 400;
+        // warm up the connection pool and the JIT
+        measureThroughput(THREADS, calls);
+
+        double single = measureThroughput(1, calls / 8);
+        double multi = measureThroughput(THREADS, calls);
+        logger.info("Throughput with 1 thread: {} calls/s, with {} threads: {} calls/s",
+                Math.round(single), THREADS, Math.round(multi));
+        // requests wait for the server latency, so they should overlap almost completely
+        assertTrue("Throughput did not scale: " + single + " vs " + multi, multi > 4 * single);
+    }
+
+    private double measureThroughput(int threads, int calls) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<CurrentWeather>> results = new ArrayList<>(calls);
+        long startTime = System.nanoTime();
+        for (int i = 0; i < calls; i++) {
+            final float longitude = 4f + i / 1000f;
+            results.add(executor.submit(() -> owm.currentWeatherByCoordinates(52f, longitude)));
+        }
+        for (Future<CurrentWeather> result : results) {
+            CurrentWeather weather = result.get(1, TimeUnit.MINUTES);
+            assertTrue(weather != null && weather.isValid());
+        }
+        long duration = System.nanoTime() - startTime;
+        executor.shutdown();
+        return calls * (double) TimeUnit.SECONDS.toNanos(1) / duration;
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> params = new HashMap<>();
+        for (String param : query.split("&")) {
+            int split = param.indexOf('=');
+            if (split > 0) {
+                params.put(param.substring(0, split), param.substring(split + 1));
+            }
+        }
+        return params;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.weather;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Simulates the weather queries of a fleet of devices that share a query interval, and compares
+ * the peak-to-mean ratio of requests per minute with different jitter spreads. Devices start
+ * within a few minutes of each other, as after an app update or at the start of a study.
+ */
+public class QueryJitterSimulationTest {
+    private static final Logger logger = LoggerFactory.getLogger(QueryJitterSimulationTest.class);
+
+    private static final int DEVICES = Integer.getInteger("weather.simulation.devices", 20000);
+    private static final long INTERVAL = TimeUnit.HOURS.toMillis(3);
+    private static final long BUCKET = TimeUnit.MINUTES.toMillis(1);
+    private static final long DURATION = TimeUnit.DAYS.toMillis(1);
+    private static final long START_TIME = 1500000000000L;
+    private static final long STARTUP_WINDOW = TimeUnit.MINUTES.toMillis(10);
+
+    @Test
+    public void spreadOverQueryInterval() {
+        // fixed interval from the start of each device, as scheduled without jitter
+        double baseline = peakToMeanRatio(0L);
+        double narrow = peakToMeanRatio(TimeUnit.MINUTES.toMillis(10));
+        // spread wider than the query interval, as recommended for large deployments
+        double wide = peakToMeanRatio(TimeUnit.DAYS.toMillis(1));
+        logger.info("Peak-to-mean ratio of requests per minute for {} devices:"
+                + " {} without jitter, {} with a spread of 10 minutes, {} with a spread of"
+                + " one day", DEVICES, baseline, narrow, wide);
+
+        // a 10-minute window of a 3-hour interval concentrates all queries in 1/18 of the time
+        assertTrue("Expected devices without jitter to cluster queries: " + baseline,
+                baseline > 10);
+        assertTrue("Expected narrow spread to cluster queries: " + narrow, narrow > 10);
+        assertTrue("Expected wide spread to distribute queries: " + wide, wide < 2);
+        assertTrue("Expected wide spread to reduce the peak at least fivefold: " + baseline
+                + " without jitter, " + wide + " with jitter", wide * 5 < baseline);
+    }
+
+    /**
+     * Simulate a day of queries of all devices, which start within the startup window.
+     * @param spread jitter spread in milliseconds, or zero to query at a fixed interval from the
+     *               start of each device.
+     * @return maximum number of requests in a minute divided by the mean number
+     */
+    private static double peakToMeanRatio(long spread) {
+        Random random = new Random(1L);
+        int[] buckets = new int[(int) (DURATION / BUCKET)];
+        // skip the first interval, when not all devices have started yet
+        long windowStart = START_TIME + INTERVAL;
+        long windowEnd = windowStart + DURATION;
+        long total = 0;
+        for (int i = 0; i < DEVICES; i++) {
+            long start = START_TIME + (long) (random.nextDouble() * STARTUP_WINDOW);
+            QueryJitter jitter = spread > 0
+                    ? new QueryJitter("device-" + i, spread, TimeUnit.MILLISECONDS) : null;
+            long time = jitter != null ? jitter.nextGridTime(start, INTERVAL) : start + INTERVAL;
+            while (time < windowEnd) {
+                if (time >= windowStart) {
+                    buckets[(int) ((time - windowStart) / BUCKET)]++;
+                    total++;
+                }
+                time = jitter != null ? jitter.nextGridTime(time, INTERVAL) : time + INTERVAL;
+            }
+        }
+        int peak = 0;
+        for (int count : buckets) {
+            peak = Math.max(peak, count);
+        }
+        return peak * buckets.length / (double) total;
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.weather;
+
+import org.junit.Test;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SolarCalculatorTest {
+    /** Published sunrise and sunset times are rounded to the minute. */
+    private static final long TOLERANCE_MILLIS = TimeUnit.MINUTES.toMillis(3);
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    @Test
+    public void knownSunTimes() {
+        // Amsterdam, summer solstice
+        assertSunTimes(52.37, 4.90, "2020-06-21", "2020-06-21T03:18:00Z", "2020-06-21T20:06:00Z");
+        // London, winter solstice
+        assertSunTimes(51.51, -0.13, "2020-12-21", "2020-12-21T08:04:00Z", "2020-12-21T15:53:00Z");
+        // New York, equinox
+        assertSunTimes(40.71, -74.01, "2020-03-20", "2020-03-20T10:59:00Z", "2020-03-20T23:10:00Z");
+        // Sydney, winter in the southern hemisphere, rising the previous day in UTC
+        assertSunTimes(-33.87, 151.21, "2020-06-21", "2020-06-20T21:00:00Z", "2020-06-21T06:54:00Z");
+    }
+
+    @Test
+    public void polarDay() {
+        // Tromso at midsummer
+        SolarCalculator.SunTimes times = SolarCalculator.compute(69.65, 18.96, epochDay("2020-06-21"));
+        assertFalse(times.hasSunriseAndSunset());
+        assertTrue(times.isPolarDay());
+        assertNull(times.getSunRiseTimeOfDay(UTC));
+        assertNull(times.getSunSetTimeOfDay(UTC));
+    }
+
+    @Test
+    public void polarNight() {
+        // Tromso at midwinter
+        SolarCalculator.SunTimes times = SolarCalculator.compute(69.65, 18.96, epochDay("2020-12-21"));
+        assertFalse(times.hasSunriseAndSunset());
+        assertFalse(times.isPolarDay());
+        assertEquals(Long.MIN_VALUE, times.getSunrise());
+        assertNull(times.getSunSetTimeOfDay(UTC));
+    }
+
+    @Test
+    public void cachesPerCellAndDay() {
+        SolarCalculator calculator = new SolarCalculator(0.1, 16);
+        long noon = Instant.parse("2020-06-21T12:00:00Z").toEpochMilli();
+
+        SolarCalculator.SunTimes times = calculator.getSunTimes(52.01, 4.01, noon, UTC);
+        // same cell, later on the same day
+        assertSame(times, calculator.getSunTimes(52.09, 4.09, noon + TimeUnit.HOURS.toMillis(11), UTC));
+        // neighbouring cells
+        assertNotSame(times, calculator.getSunTimes(52.11, 4.01, noon, UTC));
+        assertNotSame(times, calculator.getSunTimes(52.01, 3.99, noon, UTC));
+        // next day
+        assertNotSame(times, calculator.getSunTimes(52.01, 4.01, noon + TimeUnit.HOURS.toMillis(12), UTC));
+        // the local day of the time zone determines the day
+        TimeZone amsterdam = TimeZone.getTimeZone("Europe/Amsterdam");
+        assertNotSame(times, calculator.getSunTimes(52.01, 4.01, noon + TimeUnit.HOURS.toMillis(11), amsterdam));
+
+        // results are computed for the cell center
+        SolarCalculator.SunTimes center = SolarCalculator.compute(52.05, 4.05, epochDay("2020-06-21"));
+        assertEquals(center.getSunrise(), times.getSunrise());
+        assertEquals(center.getSunset(), times.getSunset());
+    }
+
+    @Test
+    public void timeOfDayInTimeZone() {
+        long time = Instant.parse("2020-06-21T03:18:00Z").toEpochMilli();
+        assertEquals(Integer.valueOf(3 * 60 + 18), SolarCalculator.toTimeOfDay(time, UTC));
+        assertEquals(Integer.valueOf(5 * 60 + 18), SolarCalculator.toTimeOfDay(time,
+                TimeZone.getTimeZone("Europe/Amsterdam")));
+        // before midnight UTC is the previous day
+        assertEquals(Integer.valueOf(23 * 60), SolarCalculator.toTimeOfDay(
+                Instant.parse("2020-06-20T23:00:00Z").toEpochMilli(), UTC));
+    }
+
+    private static void assertSunTimes(double latitude, double longitude, String date,
+            String sunrise, String sunset) {
+        SolarCalculator.SunTimes times = SolarCalculator.compute(latitude, longitude, epochDay(date));
+        assertTrue(times.hasSunriseAndSunset());
+        assertEquals(Instant.parse(sunrise).toEpochMilli(), times.getSunrise(), TOLERANCE_MILLIS);
+        assertEquals(Instant.parse(sunset).toEpochMilli(), times.getSunset(), TOLERANCE_MILLIS);
+    }
+
+    private static long epochDay(String date) {
+        return LocalDate.parse(date).toEpochDay();
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.weather;
+
+import org.junit.Test;
+import org.radarcns.passive.weather.WeatherCondition;
+
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.radarcns.weather.WeatherRequestPlanner.DataType.CURRENT;
+import static org.radarcns.weather.WeatherRequestPlanner.DataType.HOURLY_FORECAST;
+
+public class SpatialWeatherCacheTest {
+    private long now;
+    private final AtomicInteger loads = new AtomicInteger();
+
+    private final WeatherApi api = new WeatherApi() {
+        @Override
+        public WeatherApiResult loadCurrentWeather(double latitude, double longitude)
+                throws IOException {
+            loads.incrementAndGet();
+            return null;
+        }
+
+        @Override
+        public String getSourceName() {
+            return "test";
+        }
+    };
+
+    @Test
+    public void expiresWithGivenClock() throws IOException {
+        SpatialWeatherCache cache = new SpatialWeatherCache(api, 0.1, 10, 10, TimeUnit.MINUTES,
+                16, null, () -> now);
+        cache.loadCurrentWeather(52.01, 4.01);
+        cache.loadCurrentWeather(52.02, 4.02);
+        assertEquals(1, loads.get());
+
+        // time passes on the given clock only, as during deep sleep
+        now += TimeUnit.MINUTES.toNanos(11);
+        cache.loadCurrentWeather(52.02, 4.02);
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void neighbourDistanceScalesWithLatitude() throws IOException {
+        SpatialWeatherCache cache = new SpatialWeatherCache(api, 0.1, 10, 10, TimeUnit.MINUTES,
+                16, null, () -> now);
+        // 0.13 degrees longitude from the neighbouring cell center is too far at the equator
+        cache.loadCurrentWeather(0.05, 3.95);
+        cache.loadCurrentWeather(0.05, 4.08);
+        assertEquals(2, loads.get());
+
+        // but at 60 degrees latitude it spans only half the distance
+        cache.loadCurrentWeather(60.05, 3.95);
+        cache.loadCurrentWeather(60.05, 4.08);
+        assertEquals(3, loads.get());
+    }
+
+    @Test
+    public void cachesAllPartsOfCombinedCall() throws IOException {
+        double timestamp = System.currentTimeMillis() / 1000d;
+        final WeatherApiResult result = new FixedWeatherApiResult(timestamp);
+        final WeatherForecast forecast = new WeatherForecast.Builder("test", timestamp, 1, 1)
+                .add((long) timestamp + 3600, 12f, 1013f, 80f, 50f, 0f, WeatherCondition.CLOUDY)
+                .build();
+        WeatherApi combinedApi = new WeatherApi() {
+            @Override
+            public WeatherApiResult loadCurrentWeather(double latitude, double longitude) {
+                loads.incrementAndGet();
+                return result;
+            }
+
+            @Override
+            public WeatherData loadWeather(WeatherRequestPlanner.Endpoint endpoint,
+                    Set<WeatherRequestPlanner.DataType> types, double latitude, double longitude,
+                    long horizon, TimeUnit unit, Deadline deadline) {
+                loads.incrementAndGet();
+                return new WeatherData(result, forecast);
+            }
+
+            @Override
+            public String getSourceName() {
+                return "test";
+            }
+        };
+        SpatialWeatherCache cache = new SpatialWeatherCache(combinedApi, 0.1, 15, 10,
+                TimeUnit.MINUTES, 16, null, () -> now);
+        WeatherRequestPlanner.Endpoint oneCall = new WeatherRequestPlanner.Endpoint("onecall",
+                CURRENT, HOURLY_FORECAST);
+
+        assertEquals(EnumSet.noneOf(WeatherRequestPlanner.DataType.class),
+                cache.getLastUpdated(52.01, 4.01, 24, TimeUnit.HOURS).keySet());
+        cache.loadWeather(oneCall, EnumSet.of(CURRENT, HOURLY_FORECAST), 52.01, 4.01,
+                24, TimeUnit.HOURS, Deadline.NONE);
+        assertEquals(1, loads.get());
+        assertEquals(EnumSet.of(CURRENT, HOURLY_FORECAST),
+                cache.getLastUpdated(52.02, 4.02, 24, TimeUnit.HOURS).keySet());
+        // a forecast that does not reach far enough is stale
+        assertEquals(EnumSet.of(CURRENT),
+                cache.getLastUpdated(52.02, 4.02, 48, TimeUnit.HOURS).keySet());
+
+        // both parts are served from the cache
+        assertSame(result, cache.loadCurrentWeather(52.02, 4.02));
+        assertSame(forecast, cache.loadForecast(52.02, 4.02, 24, TimeUnit.HOURS));
+        assertEquals(1, loads.get());
+
+        // the forecast expires earlier than the current weather
+        now += TimeUnit.MINUTES.toNanos(11);
+        assertEquals(EnumSet.of(CURRENT),
+                cache.getLastUpdated(52.02, 4.02, 24, TimeUnit.HOURS).keySet());
+    }
+}
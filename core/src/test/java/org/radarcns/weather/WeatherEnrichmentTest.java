@@ -0,0 +1,193 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.weather;
+
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.radarcns.passive.weather.LocalWeather;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WeatherEnrichmentTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final AtomicInteger loads = new AtomicInteger();
+    private final AtomicInteger failuresLeft = new AtomicInteger();
+    private long now;
+    private File input;
+    private File output;
+
+    private final WeatherApi api = new WeatherApi() {
+        @Override
+        public WeatherApiResult loadCurrentWeather(double latitude, double longitude)
+                throws IOException {
+            loads.incrementAndGet();
+            if (failuresLeft.getAndDecrement() > 0) {
+                throw new IOException("Service unavailable");
+            }
+            return new FixedWeatherApiResult(System.currentTimeMillis() / 1000d);
+        }
+
+        @Override
+        public String getSourceName() {
+            return "test";
+        }
+    };
+
+    @Before
+    public void setUp() throws IOException {
+        now = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+        input = folder.newFile("locations.csv");
+        output = new File(folder.getRoot(), "weather.avro");
+    }
+
+    @Test
+    public void skipsRowsOutsideWindow() throws Exception {
+        writeInput(false,
+                "time,latitude,longitude",
+                row(now - 60, 52.01, 4.01),
+                row(now - 120, 52.02, 4.02),
+                row(now - 180, 52.03, 4.03),
+                row(now - 60, 48.01, 2.01),
+                row(now - TimeUnit.DAYS.toSeconds(2), 52.01, 4.01),
+                row(now + TimeUnit.DAYS.toSeconds(1), 52.01, 4.01),
+                "not,a,location");
+
+        WeatherEnrichment.Summary summary = new WeatherEnrichment.Builder(api)
+                .build()
+                .run(input, output);
+
+        assertEquals(4, summary.getRows());
+        assertEquals(2, summary.getSkippedRows());
+        assertEquals(1, summary.getInvalidRows());
+        assertEquals(0, summary.getFailedRows());
+        // one query per grid cell, none for skipped rows
+        assertEquals(2, summary.getQueries());
+        assertEquals(4, countRecords());
+    }
+
+    @Test
+    public void retriesFailedQueriesInLaterChunk() throws Exception {
+        failuresLeft.set(1);
+        writeInput(false,
+                row(now - 60, 52.01, 4.01),
+                row(now - 60, 52.02, 4.02),
+                row(now - 60, 52.01, 4.01),
+                row(now - 60, 48.01, 2.01));
+
+        WeatherEnrichment.Summary summary = new WeatherEnrichment.Builder(api)
+                .chunkSize(2)
+                .cacheSize(2)
+                .build()
+                .run(input, output);
+
+        assertEquals(1, summary.getFailedQueries());
+        assertEquals(2, summary.getFailedRows());
+        assertEquals(2, summary.getRows());
+        assertEquals(3, summary.getQueries());
+    }
+
+    @Test
+    public void keepsCacheHitsWhenCacheIsFull() throws Exception {
+        writeInput(false,
+                row(now - 60, 10.05, 10.05),
+                row(now - 60, 20.05, 20.05),
+                row(now - 60, 30.05, 30.05),
+                // hit on the first cell, then two new cells that fill the cache
+                row(now - 60, 10.05, 10.05),
+                row(now - 60, 40.05, 40.05),
+                row(now - 60, 50.05, 50.05));
+
+        WeatherEnrichment.Summary summary = new WeatherEnrichment.Builder(api)
+                .chunkSize(3)
+                .cacheSize(3)
+                .build()
+                .run(input, output);
+
+        assertEquals(6, summary.getRows());
+        assertEquals(0, summary.getFailedRows());
+        assertEquals(5, summary.getQueries());
+        assertEquals(5, loads.get());
+    }
+
+    @Test
+    public void resumesFromCheckpoint() throws Exception {
+        writeInput(false,
+                row(now - 60, 52.01, 4.01),
+                row(now - 60, 52.11, 4.11),
+                row(now - 60, 52.21, 4.21));
+
+        WeatherEnrichment enrichment = new WeatherEnrichment.Builder(api)
+                .chunkSize(2)
+                .build();
+        assertEquals(3, enrichment.run(input, output).getRows());
+        assertTrue(new File(output.getPath() + ".checkpoint").exists());
+
+        // a partial record written after the last checkpoint by an interrupted run
+        try (OutputStream out = new FileOutputStream(output, true)) {
+            out.write(new byte[] {1, 2, 3, 4, 5});
+        }
+        writeInput(true,
+                row(now - 30, 52.31, 4.31),
+                row(now - 30, 52.41, 4.41));
+
+        WeatherEnrichment.Summary summary = enrichment.run(input, output);
+        assertEquals(2, summary.getRows());
+        assertEquals(5, countRecords());
+    }
+
+    private void writeInput(boolean append, String... lines) throws IOException {
+        try (Writer writer = new OutputStreamWriter(
+                new FileOutputStream(input, append), StandardCharsets.UTF_8)) {
+            for (String line : lines) {
+                writer.write(line);
+                writer.write('\n');
+            }
+        }
+    }
+
+    private static String row(long time, double latitude, double longitude) {
+        return time + "," + latitude + "," + longitude;
+    }
+
+    private int countRecords() throws IOException {
+        int count = 0;
+        try (DataFileReader<LocalWeather> reader = new DataFileReader<>(
+                output, new SpecificDatumReader<>(LocalWeather.class))) {
+            for (LocalWeather ignored : reader) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
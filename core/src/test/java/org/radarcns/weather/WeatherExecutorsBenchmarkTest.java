@@ -0,0 +1,82 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.weather;
+
+import net.aksingh.owmjapis.OpenWeatherMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the fan-out executor with a bounded thread pool for many concurrent location
+ * queries against a local mock server. On Java 21 or later, the fan-out executor uses virtual
+ * threads, so queries are not limited by the size of the pool.
+ */
+public class WeatherExecutorsBenchmarkTest {
+    private static final Logger logger = LoggerFactory.getLogger(WeatherExecutorsBenchmarkTest.class);
+
+    private static final int QUERIES = Integer.getInteger("weather.benchmark.queries", 2000);
+    private static final int MAX_THREADS = 64;
+
+    private MockOpenWeatherMapServer server;
+    private WeatherApi api;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockOpenWeatherMapServer();
+        server.setLatency(100, TimeUnit.MILLISECONDS);
+        api = new OpenWeatherMapApi(server.getBaseUrl(), "test",
+                OpenWeatherMap.sharedHttpClient(), null, false, null, null);
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void fanOutExecutor() throws Exception {
+        FleetLoadGenerator fleet = new FleetLoadGenerator(QUERIES, 50, 1L);
+        // warm up connections and the JIT
+        new FleetLoadGenerator(MAX_THREADS, 1, 2L).run(i -> api,
+                WeatherExecutors.newBoundedExecutor(MAX_THREADS));
+
+        FleetLoadGenerator.Report bounded = fleet.run(i -> api,
+                WeatherExecutors.newBoundedExecutor(MAX_THREADS));
+        logger.info("Bounded pool of {} threads: {}", MAX_THREADS, bounded);
+
+        FleetLoadGenerator.Report fanOut = fleet.run(i -> api,
+                WeatherExecutors.newFanOutExecutor(MAX_THREADS));
+        logger.info("Fan-out executor (virtual threads: {}): {}",
+                WeatherExecutors.hasVirtualThreads(), fanOut);
+
+        assertEquals(0L, bounded.failures);
+        assertEquals(0L, fanOut.failures);
+        if (WeatherExecutors.hasVirtualThreads()) {
+            // a bounded pool can complete at most MAX_THREADS queries per server round trip
+            assertTrue(fanOut.getThroughput() > bounded.getThroughput());
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.weather;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.radarcns.weather.WeatherRequestPlanner.DataType.CURRENT;
+import static org.radarcns.weather.WeatherRequestPlanner.DataType.DAILY_FORECAST;
+import static org.radarcns.weather.WeatherRequestPlanner.DataType.HOURLY_FORECAST;
+
+public class WeatherRequestPlannerTest {
+    private static final long NOW = 1_600_000_000_000L;
+
+    private final WeatherRequestPlanner.Endpoint weather = new WeatherRequestPlanner.Endpoint(
+            "weather", CURRENT);
+    private final WeatherRequestPlanner.Endpoint forecast = new WeatherRequestPlanner.Endpoint(
+            "forecast", HOURLY_FORECAST);
+    private final WeatherRequestPlanner.Endpoint daily = new WeatherRequestPlanner.Endpoint(
+            "forecast/daily", DAILY_FORECAST);
+    private final WeatherRequestPlanner.Endpoint oneCall = new WeatherRequestPlanner.Endpoint(
+            "onecall", CURRENT, HOURLY_FORECAST, DAILY_FORECAST);
+    private final Map<WeatherRequestPlanner.DataType, Long> lastUpdated = new EnumMap<>(
+            WeatherRequestPlanner.DataType.class);
+
+    @Test
+    public void prefersCombinedEndpoint() {
+        WeatherRequestPlanner planner = planner(weather, forecast, daily, oneCall);
+
+        WeatherRequestPlanner.Plan plan = planner.plan(lastUpdated, NOW);
+        assertEquals(Collections.singletonList(oneCall), plan.getCalls());
+        assertEquals(2, plan.getNaiveCallCount());
+        assertTrue(plan.requests(CURRENT));
+        assertTrue(plan.requests(HOURLY_FORECAST));
+    }
+
+    @Test
+    public void usesSeparateEndpointsWithoutCombinedEndpoint() {
+        WeatherRequestPlanner planner = planner(weather, forecast, daily);
+
+        WeatherRequestPlanner.Plan plan = planner.plan(lastUpdated, NOW);
+        assertEquals(Arrays.asList(weather, forecast), plan.getCalls());
+        assertEquals(2, plan.getCallCount());
+    }
+
+    @Test
+    public void prefersLeastExtraDataOnTie() {
+        WeatherRequestPlanner.Endpoint currentAndHourly = new WeatherRequestPlanner.Endpoint(
+                "current+hourly", CURRENT, HOURLY_FORECAST);
+        WeatherRequestPlanner planner = planner(oneCall, currentAndHourly);
+
+        WeatherRequestPlanner.Plan plan = planner.plan(lastUpdated, NOW);
+        assertEquals(Collections.singletonList(currentAndHourly), plan.getCalls());
+    }
+
+    @Test
+    public void skipsFreshData() {
+        WeatherRequestPlanner planner = planner(weather, forecast, oneCall);
+        lastUpdated.put(CURRENT, NOW - TimeUnit.MINUTES.toMillis(5));
+
+        WeatherRequestPlanner.Plan plan = planner.plan(lastUpdated, NOW);
+        assertEquals(EnumSet.of(HOURLY_FORECAST), plan.getStale());
+        assertEquals(Collections.singletonList(forecast), plan.getCalls());
+        assertFalse(plan.requests(CURRENT));
+
+        lastUpdated.put(HOURLY_FORECAST, NOW - TimeUnit.MINUTES.toMillis(5));
+        assertTrue(planner.plan(lastUpdated, NOW).isEmpty());
+    }
+
+    @Test
+    public void requestsExpiredData() {
+        WeatherRequestPlanner planner = planner(weather, forecast, oneCall);
+        lastUpdated.put(CURRENT, NOW - TimeUnit.MINUTES.toMillis(16));
+        lastUpdated.put(HOURLY_FORECAST, NOW - TimeUnit.MINUTES.toMillis(5));
+
+        WeatherRequestPlanner.Plan plan = planner.plan(lastUpdated, NOW);
+        assertEquals(EnumSet.of(CURRENT), plan.getStale());
+        assertEquals(Collections.singletonList(weather), plan.getCalls());
+    }
+
+    @Test
+    public void plansNothingWithoutNeeds() {
+        WeatherRequestPlanner planner = new WeatherRequestPlanner(Arrays.asList(weather, forecast));
+        assertTrue(planner.plan(lastUpdated, NOW).isEmpty());
+
+        planner.setNeed(CURRENT, 15, TimeUnit.MINUTES);
+        planner.removeNeed(CURRENT);
+        assertTrue(planner.getNeeds().isEmpty());
+        assertTrue(planner.plan(lastUpdated, NOW).isEmpty());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void failsIfDataIsNotProvided() {
+        planner(weather, daily).plan(lastUpdated, NOW);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTooManyEndpoints() {
+        List<WeatherRequestPlanner.Endpoint> endpoints = new ArrayList<>();
+        for (int i = 0; i < 17; i++) {
+            endpoints.add(new WeatherRequestPlanner.Endpoint("endpoint" + i, CURRENT));
+        }
+        new WeatherRequestPlanner(endpoints);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEndpointWithoutData() {
+        new WeatherRequestPlanner.Endpoint("empty");
+    }
+
+    /** Planner that needs current weather and an hourly forecast. */
+    private static WeatherRequestPlanner planner(WeatherRequestPlanner.Endpoint... endpoints) {
+        WeatherRequestPlanner planner = new WeatherRequestPlanner(Arrays.asList(endpoints));
+        planner.setNeed(CURRENT, 15, TimeUnit.MINUTES);
+        planner.setNeed(HOURLY_FORECAST, 10, TimeUnit.MINUTES);
+        return planner;
+    }
+}
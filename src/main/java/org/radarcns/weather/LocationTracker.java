@@ -0,0 +1,262 @@
+/*
+ * Copyright 2017 The Hyve
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.radarcns.weather;
+
+import android.location.Location;
+import android.location.LocationListener;
+import android.location.LocationManager;
+import android.os.Bundle;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static android.location.LocationManager.GPS_PROVIDER;
+import static android.location.LocationManager.NETWORK_PROVIDER;
+import static android.location.LocationManager.PASSIVE_PROVIDER;
+
+/**
+ * Keeps track of recent locations without using power of its own. Fixes that other apps request
+ * are received through the passive location provider and kept in a small ring buffer. When a
+ * location is needed, the best recent fix is chosen by age and accuracy. Only if no fix is fresh
+ * enough, a single fix is requested from the network provider, which uses little power compared
+ * to GPS.
+ */
+class LocationTracker {
+    private static final Logger logger = LoggerFactory.getLogger(LocationTracker.class);
+
+    /** Accuracy penalty in meters per second of age, about walking speed. */
+    private static final double AGE_PENALTY_METERS_PER_SECOND = 1.5;
+    /** Accuracy assumed for fixes that do not report their accuracy. */
+    private static final float DEFAULT_ACCURACY_METERS = 1000f;
+
+    private final LocationManager locationManager;
+    private final Location[] fixes;
+    private final long passiveInterval;
+    private final LocationListener passiveListener;
+    private int next;
+    private boolean shouldListen;
+    private boolean isStarted;
+
+    /**
+     * Location tracker.
+     * @param locationManager system location manager
+     * @param capacity number of recent fixes to keep
+     * @param passiveInterval minimum time between passive updates
+     * @param unit unit of the passive interval
+     */
+    LocationTracker(LocationManager locationManager, int capacity, long passiveInterval,
+            TimeUnit unit) {
+        this.locationManager = locationManager;
+        this.fixes = new Location[capacity];
+        this.passiveInterval = unit.toMillis(passiveInterval);
+        this.passiveListener = new SimpleLocationListener() {
+            @Override
+            public void onLocationChanged(Location location) {
+                addFix(location);
+            }
+        };
+    }
+
+    /**
+     * Start listening to passive location updates. The buffer is seeded with the last known
+     * locations of the GPS and network providers. If the listener cannot be registered, for
+     * example because the location permission is not granted yet, registering is retried on each
+     * call to {@link #getLocation(long, long, long, TimeUnit, Deadline)}.
+     */
+    synchronized void start() {
+        shouldListen = true;
+        register();
+    }
+
+    /** Register the passive listener if it should listen but is not registered yet. */
+    private synchronized void register() {
+        if (!shouldListen || isStarted) {
+            return;
+        }
+        // seed each provider separately, so a missing provider does not prevent the others
+        addLastKnownFix(GPS_PROVIDER);
+        addLastKnownFix(NETWORK_PROVIDER);
+        try {
+            locationManager.requestLocationUpdates(PASSIVE_PROVIDER, passiveInterval, 0f,
+                    passiveListener, Looper.getMainLooper());
+            isStarted = true;
+        } catch (SecurityException ex) {
+            logger.warn("No permission to listen to location updates: {}", ex.toString());
+        } catch (IllegalArgumentException ex) {
+            logger.warn("Passive location provider is not available: {}", ex.toString());
+        }
+    }
+
+    /** Add the last known fix of given provider, if any. */
+    private void addLastKnownFix(String provider) {
+        try {
+            addFix(locationManager.getLastKnownLocation(provider));
+        } catch (SecurityException ex) {
+            logger.warn("No permission to get the last {} location: {}", provider, ex.toString());
+        } catch (IllegalArgumentException ex) {
+            logger.warn("Location provider {} is not available: {}", provider, ex.toString());
+        }
+    }
+
+    /** Stop listening to passive location updates. */
+    synchronized void stop() {
+        shouldListen = false;
+        if (isStarted) {
+            locationManager.removeUpdates(passiveListener);
+            isStarted = false;
+        }
+    }
+
+    /**
+     * Get a recent location. If no fix is younger than the maximum age, a single network fix
+     * is requested and awaited until the timeout or deadline. If that fails, the most recent
+     * fix is used, if it is younger than the maximum stale age.
+     * @param maxAge maximum age of a fix to use without requesting a new one
+     * @param maxStaleAge maximum age of a fix to use if no new fix can be obtained
+     * @param activeTimeout maximum time to wait for a new fix
+     * @param unit unit of the ages and timeout
+     * @param deadline deadline of the weather cycle
+     * @return location or {@code null} if no sufficiently recent location is available
+     */
+    Location getLocation(long maxAge, long maxStaleAge, long activeTimeout, TimeUnit unit,
+            Deadline deadline) {
+        register();
+        Location location = getBestFix(unit.toMillis(maxAge));
+        if (location != null) {
+            return location;
+        }
+        long timeout = Math.min(unit.toMillis(activeTimeout),
+                deadline.remaining(TimeUnit.MILLISECONDS));
+        location = requestFix(timeout);
+        if (location != null) {
+            return location;
+        }
+        location = getBestFix(unit.toMillis(maxStaleAge));
+        if (location != null) {
+            logger.warn("No fresh location available. Using location of {} seconds old.",
+                    TimeUnit.MILLISECONDS.toSeconds(ageMillis(location)));
+        }
+        return location;
+    }
+
+    /**
+     * Best fix younger than given age, scoring each fix by its accuracy radius plus a penalty
+     * for the distance that may have been travelled since.
+     */
+    private synchronized Location getBestFix(long maxAge) {
+        Location best = null;
+        double bestScore = Double.POSITIVE_INFINITY;
+        for (Location fix : fixes) {
+            if (fix == null) {
+                continue;
+            }
+            long age = ageMillis(fix);
+            if (age > maxAge) {
+                continue;
+            }
+            float accuracy = fix.hasAccuracy() ? fix.getAccuracy() : DEFAULT_ACCURACY_METERS;
+            double score = accuracy + AGE_PENALTY_METERS_PER_SECOND * age / 1000d;
+            if (score < bestScore) {
+                best = fix;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Request a single fix from the network provider and wait for it.
+     * @param timeout maximum time to wait in milliseconds
+     * @return new fix or {@code null} if none was received in time.
+     */
+    private Location requestFix(long timeout) {
+        if (timeout <= 0) {
+            return null;
+        }
+        final CountDownLatch latch = new CountDownLatch(1);
+        final Location[] result = new Location[1];
+        LocationListener listener = new SimpleLocationListener() {
+            @Override
+            public void onLocationChanged(Location location) {
+                addFix(location);
+                result[0] = location;
+                latch.countDown();
+            }
+        };
+        try {
+            if (!locationManager.isProviderEnabled(NETWORK_PROVIDER)) {
+                logger.debug("Network location provider is disabled. Not requesting a new fix.");
+                return null;
+            }
+            locationManager.requestSingleUpdate(NETWORK_PROVIDER, listener, Looper.getMainLooper());
+        } catch (SecurityException ex) {
+            logger.warn("No permission to request a location: {}", ex.toString());
+            return null;
+        } catch (IllegalArgumentException ex) {
+            logger.warn("Network location provider is not available: {}", ex.toString());
+            return null;
+        }
+        try {
+            if (latch.await(timeout, TimeUnit.MILLISECONDS)) {
+                return result[0];
+            }
+            logger.warn("No network location received within {} ms", timeout);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            locationManager.removeUpdates(listener);
+        }
+        return null;
+    }
+
+    private synchronized void addFix(Location location) {
+        if (location == null) {
+            return;
+        }
+        fixes[next] = location;
+        next = (next + 1) % fixes.length;
+    }
+
+    /** Age of a fix, based on the elapsed realtime clock so that it is not affected by clock changes. */
+    private static long ageMillis(Location location) {
+        return TimeUnit.NANOSECONDS.toMillis(
+                SystemClock.elapsedRealtimeNanos() - location.getElapsedRealtimeNanos());
+    }
+
+    /** Location listener that ignores provider status changes. */
+    private abstract static class SimpleLocationListener implements LocationListener {
+        @Override
+        public void onStatusChanged(String provider, int status, Bundle extras) {
+            // not needed
+        }
+
+        @Override
+        public void onProviderEnabled(String provider) {
+            // not needed
+        }
+
+        @Override
+        public void onProviderDisabled(String provider) {
+            // not needed
+        }
+    }
+}
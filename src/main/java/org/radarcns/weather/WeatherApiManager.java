@@ -19,6 +19,8 @@ package org.radarcns.weather;
 import android.content.Context;
 import android.location.Location;
 import android.location.LocationManager;
+import android.os.AsyncTask;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 
 import org.radarcns.android.device.AbstractDeviceManager;
@@ -27,22 +29,36 @@ import org.radarcns.android.device.DeviceStatusListener;
 import org.radarcns.android.util.NetworkConnectedReceiver;
 import org.radarcns.android.util.OfflineProcessor;
 import org.radarcns.kafka.ObservationKey;
+import org.radarcns.monitor.weather.WeatherApiStatistics;
 import org.radarcns.passive.weather.LocalWeather;
 import org.radarcns.passive.weather.LocationType;
 import org.radarcns.topic.AvroTopic;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import okhttp3.OkHttpClient;
 
 import static android.location.LocationManager.GPS_PROVIDER;
 import static android.location.LocationManager.NETWORK_PROVIDER;
+import static org.radarcns.weather.WeatherRequestPlanner.DataType.CURRENT;
+import static org.radarcns.weather.WeatherRequestPlanner.DataType.HOURLY_FORECAST;
 
 public class WeatherApiManager extends AbstractDeviceManager<WeatherApiService, BaseDeviceState> {
     private static final Logger logger = LoggerFactory.getLogger(WeatherApiManager.class);
@@ -54,22 +70,96 @@ public class WeatherApiManager extends AbstractDeviceManager<WeatherApiService,
         LOCATION_TYPES.put(NETWORK_PROVIDER, LocationType.NETWORK);
     }
     private static final String ACTION_UPDATE_WEATHER = "org.radarcns.weather.WeatherApiManager.ACTION_UPDATE_WEATHER";
-    static final String SOURCE_OPENWEATHERMAP = "openweathermap";
+    /** Cell size of cached results in degrees, about 5 km. */
+    private static final double CACHE_CELL_SIZE = 0.05;
+    private static final long CACHE_TTL_MINUTES = 15L;
+    private static final int CACHE_MAX_ENTRIES = 256;
+    private static final long FORECAST_CACHE_TTL_MINUTES = 10L;
+    /** Send a record at least this often, even if the weather did not change. */
+    private static final long MAX_SUPPRESSION_HOURS = 12L;
+    /** Number of recent results to estimate the provider refresh cycle from. */
+    private static final int REFRESH_ESTIMATE_WINDOW = 16;
+    /** Time after an expected provider update to query at. */
+    private static final long REFRESH_MARGIN_SECONDS = 60L;
+    /** Minimum time between two queries when aligning them to provider updates. */
+    private static final long MIN_QUERY_DELAY_SECONDS = 60L;
+    /** Number of recent location fixes to keep. */
+    private static final int LOCATION_BUFFER_SIZE = 8;
+    /** Minimum time between passive location updates. */
+    private static final long LOCATION_PASSIVE_INTERVAL_SECONDS = 60L;
+    /** Maximum age of a location fix to use without requesting a new one. */
+    private static final long LOCATION_MAX_AGE_MINUTES = 30L;
+    /** Maximum age of a location fix to use if no new fix can be obtained. */
+    private static final long LOCATION_MAX_STALE_AGE_MINUTES = 12 * 60L;
+    /** Maximum time to wait for a new location fix. */
+    private static final long LOCATION_REQUEST_TIMEOUT_SECONDS = 20L;
+    /** Radius of a frequent place in meters. */
+    private static final double PLACE_RADIUS_METERS = 1000d;
+    private static final int PLACE_MAX_COUNT = 16;
+    private static final long PLACE_HALF_LIFE_DAYS = 7L;
+    /** Maximum number of frequent places to prefetch weather for. */
+    private static final int PREFETCH_MAX_PLACES = 4;
+    /** Minimum share of the time spent at a place to prefetch weather for it. */
+    private static final double PREFETCH_MIN_SHARE = 0.1;
+    private static final int PREFETCH_MIN_VISITS = 3;
+    private static final long PREFETCH_FORECAST_HOURS = 24L;
 
     private final OfflineProcessor processor;
     private final AvroTopic<ObservationKey, LocalWeather> weatherTopic = createTopic("android_local_weather", LocalWeather.class);
+    private final AvroTopic<ObservationKey, WeatherApiStatistics> statisticsTopic = createTopic("android_local_weather_statistics", WeatherApiStatistics.class);
     private final NetworkConnectedReceiver networkReceiver;
 
-    private LocationManager locationManager;
-    private WeatherApi weatherApi;
+    private final OkHttpClient client;
+    private final File storageDirectory;
+    private final WeatherMetrics metrics = new WeatherMetrics();
+    private final SpatialWeatherCache weatherCache;
+    private final SolarCalculator solarCalculator = new SolarCalculator();
+    private final WeatherDeduplicator deduplicator = new WeatherDeduplicator(MAX_SUPPRESSION_HOURS, TimeUnit.HOURS);
+    private final RefreshCycleEstimator refreshEstimator = new RefreshCycleEstimator(
+            REFRESH_ESTIMATE_WINDOW, 1, TimeUnit.HOURS.toSeconds(6), REFRESH_MARGIN_SECONDS,
+            TimeUnit.SECONDS);
+
+    private final LocationTracker locationTracker;
+    private final FrequentPlaces frequentPlaces = new FrequentPlaces(PLACE_RADIUS_METERS,
+            PLACE_MAX_COUNT, PLACE_HALF_LIFE_DAYS, TimeUnit.DAYS);
+    private String apiSource;
+    private WeatherApiFactory apiFactory;
+    private String apiKey;
+    private Map<String, String> apiConfig;
+    private ApiHandle apiHandle;
+    /** Weather API of the cycle running on the current thread. */
+    private final ThreadLocal<WeatherApi> cycleApi = new ThreadLocal<>();
     private volatile boolean doRequest;
+    private volatile boolean isUnmetered;
+    private volatile boolean isStarted;
+    private volatile long statisticsInterval;
+    private volatile long cycleTimeout;
+    private volatile boolean prewarmConnection;
+    private volatile boolean suppressUnchanged;
+    private volatile boolean alignToUpdates;
+    private volatile boolean prefetchPlaces;
+    private volatile long forecastHours;
+    private volatile long queryInterval;
+    private volatile long scheduledInterval;
+    private volatile long queryJitter;
+    private QueryJitter jitter;
+    private String jitterId;
+    private long jitterSpread;
+    private WeatherMetrics.Snapshot lastStatistics;
+    private long lastStatisticsTime;
 
     public WeatherApiManager(WeatherApiService service, String source, String apiKey,
-            OkHttpClient client) {
+            Map<String, String> apiConfig, OkHttpClient client) {
         super(service);
 
-        locationManager = (LocationManager) service.getSystemService(Context.LOCATION_SERVICE);
+        LocationManager locationManager = (LocationManager) service.getSystemService(Context.LOCATION_SERVICE);
+        locationTracker = locationManager != null
+                ? new LocationTracker(locationManager, LOCATION_BUFFER_SIZE,
+                        LOCATION_PASSIVE_INTERVAL_SECONDS, TimeUnit.SECONDS)
+                : null;
 
+        queryInterval = TimeUnit.SECONDS.toMillis(service.getQueryIntervalSeconds());
+        scheduledInterval = queryInterval;
         processor = new OfflineProcessor.Builder(service)
                 .addProcess(this::processWeather)
                 .requestIdentifier(WEATHER_UPDATE_REQUEST_CODE, ACTION_UPDATE_WEATHER)
@@ -78,13 +168,67 @@ public class WeatherApiManager extends AbstractDeviceManager<WeatherApiService,
                 .build();
 
         networkReceiver = new NetworkConnectedReceiver(service,
-                (isConnected, hasWifiOrEthernet) -> doRequest = isConnected);
+                (isConnected, hasWifiOrEthernet) -> {
+                    doRequest = isConnected;
+                    isUnmetered = hasWifiOrEthernet;
+                });
 
-        if (source.equals(SOURCE_OPENWEATHERMAP)) {
-            weatherApi = new OpenWeatherMapApi(apiKey, client);
-            logger.info("WeatherApiManager created with interval of {} seconds and key {}", service.getQueryIntervalSeconds(), apiKey);
-        } else {
-            logger.error("The weather api '{}' is not recognised. Please set a different weather api source.", source);
+        this.client = client;
+        storageDirectory = service.getFilesDir();
+        statisticsInterval = TimeUnit.SECONDS.toMillis(service.getStatisticsIntervalSeconds());
+        cycleTimeout = TimeUnit.SECONDS.toMillis(service.getCycleTimeoutSeconds());
+        prewarmConnection = service.isPrewarmConnection();
+        suppressUnchanged = service.isSuppressUnchanged();
+        alignToUpdates = service.isAlignToUpdates();
+        prefetchPlaces = service.isPrefetchPlaces();
+        forecastHours = service.getForecastHours();
+        queryJitter = TimeUnit.SECONDS.toMillis(service.getQueryJitterSeconds());
+        weatherCache = new SpatialWeatherCache(new CurrentWeatherApi(), CACHE_CELL_SIZE,
+                CACHE_TTL_MINUTES, FORECAST_CACHE_TTL_MINUTES, TimeUnit.MINUTES,
+                CACHE_MAX_ENTRIES, metrics, SystemClock::elapsedRealtimeNanos);
+        lastStatistics = metrics.snapshot();
+        lastStatisticsTime = System.currentTimeMillis();
+
+        setApiConfiguration(source, apiKey, apiConfig);
+        logger.info("WeatherApiManager created with interval of {} seconds and key {}", service.getQueryIntervalSeconds(), apiKey);
+    }
+
+    /**
+     * Update the weather API source and configuration. If anything changed, the weather API is
+     * replaced by a new instance using the same HTTP client. Queries that are already running
+     * finish using the previous instance. Cached results are discarded if the source changes.
+     * @param source weather API source name
+     * @param apiKey API key
+     * @param apiConfig source-specific configuration
+     */
+    void setApiConfiguration(String source, String apiKey, Map<String, String> apiConfig) {
+        synchronized (this) {
+            if (Objects.equals(source, apiSource)
+                    && Objects.equals(apiKey, this.apiKey)
+                    && Objects.equals(apiConfig, this.apiConfig)) {
+                return;
+            }
+
+            WeatherApiRegistry registry = WeatherApiRegistry.getInstance();
+            WeatherApiFactory factory = registry.getFactory(source);
+            if (factory == null) {
+                logger.error("The weather api '{}' is not recognised. Please set one of the weather api sources {}.", source, registry.getSourceNames());
+            } else if (this.apiSource != null) {
+                logger.info("Switching weather API configuration to source {}", source);
+            }
+            if (this.apiSource != null && !Objects.equals(source, this.apiSource)) {
+                weatherCache.clear();
+            }
+
+            this.apiSource = source;
+            this.apiFactory = factory;
+            this.apiKey = apiKey;
+            this.apiConfig = apiConfig;
+            retireApi();
+        }
+
+        if (isStarted) {
+            AsyncTask.THREAD_POOL_EXECUTOR.execute(this::warmUp);
         }
     }
 
@@ -94,87 +238,778 @@ public class WeatherApiManager extends AbstractDeviceManager<WeatherApiService,
 
         logger.info("Starting WeatherApiManager");
         networkReceiver.register();
+        if (locationTracker != null) {
+            locationTracker.start();
+        }
+        isStarted = true;
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(this::warmUp);
         processor.start();
 
         updateStatus(DeviceStatusListener.Status.CONNECTED);
     }
 
+    /**
+     * Create the weather API if needed, and if connections are prewarmed, open a connection to
+     * its host, so that this is not done during the first scheduled query.
+     */
+    private void warmUp() {
+        ApiHandle handle = acquireApi();
+        if (handle == null) {
+            return;
+        }
+        try {
+            if (prewarmConnection) {
+                handle.api.warmUp();
+            }
+        } catch (IOException ex) {
+            logger.warn("Failed to warm up {} API: {}", handle.api.getSourceName(), ex.toString());
+        } finally {
+            releaseApi(handle);
+        }
+    }
+
+    /**
+     * Get the weather API for use, creating it on first use. The API is not closed until
+     * {@link #releaseApi(ApiHandle)} is called, even if it is replaced in the meantime.
+     * @return weather API or {@code null} if the configured source is not available.
+     */
+    private synchronized ApiHandle acquireApi() {
+        if (apiHandle == null && apiFactory != null) {
+            Map<String, String> config = apiConfig != null
+                    ? new HashMap<>(apiConfig) : new HashMap<String, String>();
+            if (storageDirectory != null) {
+                config.put(WeatherApiFactory.STORAGE_DIRECTORY, storageDirectory.getAbsolutePath());
+            }
+            apiHandle = new ApiHandle(apiFactory.create(apiKey, config, client, metrics));
+        }
+        if (apiHandle != null) {
+            apiHandle.users++;
+        }
+        return apiHandle;
+    }
+
+    /** Use an API that was already acquired in another call as well. */
+    private synchronized void retainApi(ApiHandle handle) {
+        handle.users++;
+    }
+
+    /**
+     * Stop using a weather API. If the API was replaced and this was its last user, it is closed.
+     * @param handle handle returned by {@link #acquireApi()}, may be {@code null}.
+     */
+    private void releaseApi(ApiHandle handle) {
+        if (handle == null) {
+            return;
+        }
+        boolean doClose;
+        synchronized (this) {
+            handle.users--;
+            doClose = handle.isRetired && handle.users == 0;
+        }
+        if (doClose) {
+            closeApi(handle.api);
+        }
+    }
+
+    /**
+     * Replace the current weather API on next use. It is closed as soon as no call uses it.
+     * Must be called while synchronized on this manager.
+     */
+    private void retireApi() {
+        final ApiHandle handle = apiHandle;
+        apiHandle = null;
+        if (handle != null) {
+            handle.isRetired = true;
+            if (handle.users == 0) {
+                AsyncTask.THREAD_POOL_EXECUTOR.execute(() -> closeApi(handle.api));
+            }
+        }
+    }
+
+    private static void closeApi(WeatherApi api) {
+        try {
+            api.close();
+        } catch (IOException ex) {
+            logger.warn("Failed to close {} API: {}", api.getSourceName(), ex.toString());
+        }
+    }
+
+    /**
+     * Get the weather API of the current cycle, or the current weather API.
+     * @return weather API or {@code null} if the configured source is not available.
+     */
+    private WeatherApi peekApi() {
+        WeatherApi api = cycleApi.get();
+        if (api != null) {
+            return api;
+        }
+        synchronized (this) {
+            ApiHandle handle = acquireApi();
+            if (handle == null) {
+                return null;
+            }
+            handle.users--;
+            return handle.api;
+        }
+    }
+
+    /**
+     * Load the weather forecast at given location. Forecasts are cached for a short time per
+     * grid cell, so repeated calls for nearby locations do not make additional requests. If a
+     * forecast horizon is set, each weather cycle loads the forecast at the location of the
+     * participant into the cache.
+     * @param latitude WGS84 latitude
+     * @param longitude WGS84 longitude
+     * @param horizon how far ahead the forecast should reach
+     * @param unit unit of the horizon
+     * @return forecast
+     * @throws IOException if the forecast cannot be loaded
+     */
+    public WeatherForecast loadForecast(double latitude, double longitude, long horizon,
+            TimeUnit unit) throws IOException {
+        return weatherCache.loadForecast(latitude, longitude, horizon, unit);
+    }
+
+    /**
+     * Performance metrics of the weather pipeline.
+     * @return metrics
+     */
+    public WeatherMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Run a single weather cycle. The device is kept awake during the cycle, so all steps share a
+     * single deadline. If the deadline passes, the ongoing request is cancelled and a cached
+     * result is used, if available.
+     */
     public void processWeather() {
+        long cycleStartTime = System.nanoTime();
+        long timeout = cycleTimeout;
+        Deadline deadline = timeout > 0 ? Deadline.after(timeout, TimeUnit.MILLISECONDS) : Deadline.NONE;
+        ApiHandle handle = acquireApi();
+        try {
+            if (handle != null) {
+                cycleApi.set(handle.api);
+            }
+            ParallelFetch prefetch = prefetchFrequentPlaces(deadline, handle);
+            queryWeather(deadline, handle);
+            scheduleNextQuery();
+            if (prefetch != null) {
+                awaitPrefetch(prefetch);
+            }
+        } finally {
+            cycleApi.remove();
+            releaseApi(handle);
+            long wakeTime = System.nanoTime() - cycleStartTime;
+            metrics.cycleLatency.record(wakeTime, TimeUnit.NANOSECONDS);
+            logger.debug("Weather cycle kept device awake for {} ms", TimeUnit.NANOSECONDS.toMillis(wakeTime));
+        }
+        sendStatistics();
+    }
+
+    /**
+     * Schedule the next query just after the provider is expected to publish a new observation,
+     * instead of at a fixed phase. The next query is never later than the query interval, unless
+     * no new observation is expected within that interval. Each device adds its own offset to the
+     * query time, so that devices sharing an API key do not query at the same time. Only called
+     * from the processor thread.
+     */
+    private void scheduleNextQuery() {
+        long interval = queryInterval;
+        long now = System.currentTimeMillis();
+        QueryJitter jitter = getJitter();
+        long next;
+        if (alignToUpdates && refreshEstimator.isReady()) {
+            next = refreshEstimator.nextQueryTime(now, now + interval);
+            if (jitter != null) {
+                next = jitter.shift(next, refreshEstimator.getPeriod(TimeUnit.MILLISECONDS));
+            }
+        } else if (jitter != null) {
+            next = jitter.nextGridTime(now, interval);
+        } else {
+            next = now + interval;
+        }
+        long delay = Math.max(next - now, TimeUnit.SECONDS.toMillis(MIN_QUERY_DELAY_SECONDS));
+        if (delay != scheduledInterval) {
+            logger.debug("Scheduling next weather query in {} seconds", TimeUnit.MILLISECONDS.toSeconds(delay));
+            scheduledInterval = delay;
+            processor.setInterval(delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void queryWeather(Deadline deadline, ApiHandle handle) {
+        metrics.recordCycle();
         if (!doRequest) {
             logger.warn("No internet connection. Skipping weather query.");
         }
 
-        Location location = this.getLastKnownLocation();
+        if (handle == null) {
+            logger.error("No weather API available. Skipping weather query.");
+            metrics.recordSkippedCycle();
+            return;
+        }
+
+        FutureTask<Void> connection = prewarmConnection();
+
+        long startTime = System.nanoTime();
+        Location location = getLocation(deadline);
+        metrics.locationLatency.recordSince(startTime);
         if (location == null) {
             logger.error("Could not retrieve location. No input for Weather API");
+            metrics.recordSkippedCycle();
             return;
         }
+        awaitConnection(connection, deadline);
+        frequentPlaces.record(location.getLatitude(), location.getLongitude(), System.currentTimeMillis());
 
+        WeatherApi weatherApi = handle.api;
+        WeatherApiResult cached = weatherCache.getCached(location.getLatitude(), location.getLongitude());
+        WeatherApiResult result;
+        boolean isFallback = false;
+        long forecastHours = this.forecastHours;
         try {
-            WeatherApiResult result = weatherApi.loadCurrentWeather(location.getLatitude(), location.getLongitude());
+            // a fresh result in the cache is used without calling the API
+            if (forecastHours > 0) {
+                result = loadWeatherAndForecast(handle, location.getLatitude(),
+                        location.getLongitude(), forecastHours, deadline);
+            } else {
+                result = weatherCache.loadCurrentWeather(location.getLatitude(),
+                        location.getLongitude(), deadline);
+            }
+        } catch (IOException ex) {
+            if (deadline.isExpired()) {
+                logger.warn("Weather cycle exceeded its deadline of {} seconds.",
+                        TimeUnit.MILLISECONDS.toSeconds(cycleTimeout));
+                metrics.recordDeadlineExceeded();
+            }
+            result = cached;
+            if (result == null) {
+                logger.error("Could not get weather from {} API.", weatherApi.getSourceName());
+                metrics.recordSkippedCycle();
+                return;
+            }
+            logger.warn("Could not get weather from {} API. Using earlier result from {}.",
+                    weatherApi.getSourceName(), result.getTimestamp());
+            metrics.recordFallback();
+            isFallback = true;
+        }
+        if (!isFallback) {
+            refreshEstimator.record(result);
+        }
+
+        startTime = System.nanoTime();
+        // How location was derived
+        LocationType locationType = LOCATION_TYPES.get(location.getProvider());
+        if (locationType == null) {
+            locationType = LocationType.OTHER;
+        }
+
+        long now = System.currentTimeMillis();
+        if (suppressUnchanged && deduplicator.isDuplicate(result, now)) {
+            logger.info("Weather observation from {} did not change. Not sending it again.",
+                    result.getObservationTime());
+            metrics.recordSuppressed();
+            return;
+        }
+
+        Integer sunRise = isFallback ? null : result.getSunRise();
+        Integer sunSet = isFallback ? null : result.getSunSet();
+        if (sunRise == null || sunSet == null) {
+            // the API did not provide them for today, so compute them locally
+            TimeZone timeZone = TimeZone.getDefault();
+            SolarCalculator.SunTimes sunTimes = solarCalculator.getSunTimes(
+                    location.getLatitude(), location.getLongitude(), now, timeZone);
+            if (sunRise == null) {
+                sunRise = sunTimes.getSunRiseTimeOfDay(timeZone);
+            }
+            if (sunSet == null) {
+                sunSet = sunTimes.getSunSetTimeOfDay(timeZone);
+            }
+        }
+
+        double timestamp = now / 1000d;
+        LocalWeather weatherData = new LocalWeather(
+                result.getTimestamp(),
+                timestamp,
+                sunRise,
+                sunSet,
+                result.getTemperature(),
+                result.getPressure(),
+                result.getHumidity(),
+                result.getCloudiness(),
+                result.getPrecipitation(),
+                result.getPrecipitationPeriod(),
+                result.getWeatherCondition(),
+                weatherApi.getSourceName(),
+                locationType
+        );
+        metrics.mappingLatency.recordSince(startTime);
+
+        logger.info("Weather: {} {} {}", result, sunRise, sunSet);
+        startTime = System.nanoTime();
+        send(weatherTopic, weatherData);
+        metrics.sendLatency.recordSince(startTime);
+        if (logger.isDebugEnabled()) {
+            logger.debug("{}", metrics.snapshot());
+        }
+    }
+
+    /**
+     * Load the current weather and the forecast at the location of the participant. The
+     * requests are planned with {@link #submitRequests} and run concurrently under the cycle
+     * deadline, so the cycle takes about as long as the slowest request. The forecast is stored in
+     * the cache for {@link #loadForecast(double, double, long, TimeUnit)}.
+     * @param handle weather API of the cycle
+     * @param latitude WGS84 latitude
+     * @param longitude WGS84 longitude
+     * @param forecastHours horizon of the forecast
+     * @param deadline deadline of the weather cycle
+     * @return current weather
+     * @throws IOException if the current weather cannot be loaded. A failed forecast is only
+     *                     logged.
+     */
+    private WeatherApiResult loadWeatherAndForecast(ApiHandle handle, double latitude,
+            double longitude, long forecastHours, Deadline deadline) throws IOException {
+        ParallelFetch fetch = new ParallelFetch(AsyncTask.THREAD_POOL_EXECUTOR, deadline);
+        Future<WeatherData> current = submitRequests(fetch, handle, latitude, longitude,
+                forecastHours, deadline);
+        if (!fetch.awaitAll()) {
+            logger.warn("Weather requests did not finish before the deadline");
+        }
+        int failures = fetch.getFailureCount();
+        if (failures > 0) {
+            logger.warn("Failed {} of {} weather requests", failures, fetch.size());
+        }
+        if (current == null) {
+            // the cached current weather is still fresh
+            return weatherCache.loadCurrentWeather(latitude, longitude, deadline);
+        }
+        WeatherApiResult result = ParallelFetch.getResult(current).getCurrent();
+        if (result == null) {
+            throw new IOException("No current weather in response of "
+                    + handle.api.getSourceName() + " API");
+        }
+        return result;
+    }
+
+    /**
+     * Start loading current weather and forecasts for the frequent places of the participant into
+     * the cache, so that later cycles at those places are served from the cache. The requests for
+     * each place are planned with {@link #submitRequests}. All requests run concurrently with each
+     * other and with the query of the current location, sharing the cycle deadline. This is only done on an unmetered connection, and only if the next cycle is
+     * expected before the cached results expire. Only called from the processor thread.
+     * @param deadline deadline of the weather cycle
+     * @param handle weather API of the cycle
+     * @return running requests, or {@code null} if nothing is prefetched.
+     */
+    private ParallelFetch prefetchFrequentPlaces(final Deadline deadline, ApiHandle handle) {
+        long nextCycle = scheduledInterval;
+        if (handle == null || !prefetchPlaces || !doRequest || !isUnmetered
+                || nextCycle >= TimeUnit.MINUTES.toMillis(CACHE_TTL_MINUTES)) {
+            return null;
+        }
+        boolean prefetchForecast = nextCycle < TimeUnit.MINUTES.toMillis(FORECAST_CACHE_TTL_MINUTES);
+        List<FrequentPlaces.Place> places = frequentPlaces.getFrequentPlaces(
+                PREFETCH_MAX_PLACES, PREFETCH_MIN_SHARE, PREFETCH_MIN_VISITS);
+        if (places.isEmpty()) {
+            return null;
+        }
+        logger.debug("Prefetching weather for {} frequent places", places.size());
+        ParallelFetch fetch = new ParallelFetch(AsyncTask.THREAD_POOL_EXECUTOR, deadline);
+        for (FrequentPlaces.Place place : places) {
+            submitRequests(fetch, handle, place.getLatitude(), place.getLongitude(),
+                    prefetchForecast ? PREFETCH_FORECAST_HOURS : 0L, deadline);
+        }
+        return fetch;
+    }
+
+    /**
+     * Plan the requests for the weather at given location, and submit them. Data that is still
+     * fresh in the cache is not requested again, and stale data is requested with as few calls as
+     * the endpoints of the weather API allow. With the One Call API, the current weather and the
+     * forecast are then loaded with a single request. All results are stored in the cache.
+     * @param fetch fetch stage to submit the requests to
+     * @param handle weather API of the cycle
+     * @param latitude WGS84 latitude
+     * @param longitude WGS84 longitude
+     * @param forecastHours horizon of the forecast to load, or zero to load only the current
+     *                      weather
+     * @param deadline deadline of the weather cycle
+     * @return future result of the call that loads the current weather, or {@code null} if the
+     *         cached current weather is still fresh.
+     */
+    private Future<WeatherData> submitRequests(ParallelFetch fetch, ApiHandle handle,
+            final double latitude, final double longitude, final long forecastHours,
+            final Deadline deadline) {
+        List<WeatherRequestPlanner.Endpoint> endpoints = handle.api.getEndpoints();
+        WeatherRequestPlanner planner = new WeatherRequestPlanner(endpoints);
+        planner.setNeed(CURRENT, CACHE_TTL_MINUTES, TimeUnit.MINUTES);
+        if (forecastHours > 0 && provides(endpoints, HOURLY_FORECAST)) {
+            planner.setNeed(HOURLY_FORECAST, FORECAST_CACHE_TTL_MINUTES, TimeUnit.MINUTES);
+        }
+        WeatherRequestPlanner.Plan plan = planner.plan(
+                weatherCache.getLastUpdated(latitude, longitude, forecastHours, TimeUnit.HOURS),
+                System.currentTimeMillis());
+        logger.debug("Weather request plan: {}", plan);
+
+        Future<WeatherData> current = null;
+        for (final WeatherRequestPlanner.Endpoint endpoint : plan.getCalls()) {
+            final Set<WeatherRequestPlanner.DataType> types = EnumSet.copyOf(endpoint.getProvides());
+            types.retainAll(plan.getStale());
+            Future<WeatherData> result = fetch.submit(withApi(handle,
+                    () -> weatherCache.loadWeather(endpoint, types, latitude, longitude,
+                            forecastHours, TimeUnit.HOURS, deadline)));
+            if (types.contains(CURRENT)) {
+                current = result;
+            }
+        }
+        return current;
+    }
+
+    private static boolean provides(List<WeatherRequestPlanner.Endpoint> endpoints,
+            WeatherRequestPlanner.DataType type) {
+        for (WeatherRequestPlanner.Endpoint endpoint : endpoints) {
+            if (endpoint.getProvides().contains(type)) {
+                return true;
+            }
+        }
+        return false;
+    }
 
-            // How location was derived
-            LocationType locationType = LOCATION_TYPES.get(location.getProvider());
-            if (locationType == null) {
-                locationType = LocationType.OTHER;
+    /**
+     * Run a request on another thread with the weather API of the current cycle. The API is not
+     * closed before the request finishes, even if the cycle finished earlier.
+     */
+    private <T> Callable<T> withApi(final ApiHandle handle, final Callable<T> request) {
+        retainApi(handle);
+        return () -> {
+            cycleApi.set(handle.api);
+            try {
+                return request.call();
+            } finally {
+                cycleApi.remove();
+                releaseApi(handle);
             }
+        };
+    }
 
-            double timestamp = System.currentTimeMillis() / 1000d;
-            LocalWeather weatherData = new LocalWeather(
-                    result.getTimestamp(),
-                    timestamp,
-                    result.getSunRise(),
-                    result.getSunSet(),
-                    result.getTemperature(),
-                    result.getPressure(),
-                    result.getHumidity(),
-                    result.getCloudiness(),
-                    result.getPrecipitation(),
-                    result.getPrecipitationPeriod(),
-                    result.getWeatherCondition(),
-                    weatherApi.getSourceName(),
-                    locationType
-            );
+    /**
+     * Wait for prefetch requests to finish, at most until the cycle deadline, and log failures.
+     * @param fetch running prefetch requests
+     */
+    private static void awaitPrefetch(ParallelFetch fetch) {
+        if (!fetch.awaitAll()) {
+            logger.warn("Prefetching weather for frequent places did not finish before the deadline");
+        }
+        int failures = fetch.getFailureCount();
+        if (failures > 0) {
+            logger.warn("Failed to prefetch {} of {} weather requests for frequent places",
+                    failures, fetch.size());
+        }
+    }
 
-            logger.info("Weather: {} {} {}", result, result.getSunRise(), result.getSunSet());
-            send(weatherTopic, weatherData);
-        } catch (IOException e) {
-            logger.error("Could not get weather from {} API.", weatherApi);
+    /**
+     * Get the query jitter of this device. The jitter is derived from the source ID, or from the
+     * user ID if the source is not registered yet. Only called from the processor thread.
+     * @return jitter or {@code null} if jitter is disabled or the device has no identifier yet.
+     */
+    private QueryJitter getJitter() {
+        long spread = queryJitter;
+        BaseDeviceState state = getState();
+        ObservationKey key = state != null ? state.getId() : null;
+        String id = null;
+        if (key != null) {
+            id = key.getSourceId() != null ? key.getSourceId() : key.getUserId();
+        }
+        if (spread <= 0 || id == null) {
+            return null;
         }
+        if (jitter == null || spread != jitterSpread || !id.equals(jitterId)) {
+            jitter = new QueryJitter(id, spread, TimeUnit.MILLISECONDS);
+            jitterId = id;
+            jitterSpread = spread;
+            long offset = jitter.getOffset(queryInterval, TimeUnit.MILLISECONDS);
+            logger.info("Weather queries are offset by {} seconds",
+                    TimeUnit.MILLISECONDS.toSeconds(offset));
+        }
+        return jitter;
     }
 
     /**
-     * Get last known location from GPS, if enabled. If GPS disabled, get location from network.
-     * This location could be outdated if device was turned off and moved to another location.
+     * Open a connection to the weather API host in the background, so that DNS lookup and TLS
+     * setup run while the location is determined. Nothing is done if an idle connection is
+     * still available, since the query reuses it.
+     * @return task that opens the connection, or {@code null} if no connection is opened.
+     */
+    private FutureTask<Void> prewarmConnection() {
+        if (!prewarmConnection || !doRequest
+                || client.connectionPool().idleConnectionCount() > 0) {
+            return null;
+        }
+        FutureTask<Void> task = new FutureTask<>(() -> {
+            warmUp();
+            return null;
+        });
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(task);
+        return task;
+    }
+
+    /**
+     * Wait for a connection that is being opened, so that the weather request reuses it instead
+     * of opening a second connection.
+     * @param connection task that opens the connection, may be {@code null}
+     * @param deadline time to wait until at most
+     */
+    private static void awaitConnection(FutureTask<Void> connection, Deadline deadline) {
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.get(deadline.remaining(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException ex) {
+            logger.debug("Connection to weather API not ready: {}", ex.toString());
+        }
+    }
+
+    /**
+     * Get a recent location. Locations that other apps requested are preferred. Only if none of
+     * them is recent enough, a new network location is requested.
+     * @param deadline deadline of the weather cycle
      * @return Location or null if location could not be determined (not available or no permission)
      */
-    private Location getLastKnownLocation() {
-        if (locationManager == null) {
+    private Location getLocation(Deadline deadline) {
+        if (locationTracker == null) {
             logger.error("Cannot get location without a location manager.");
             updateStatus(DeviceStatusListener.Status.DISCONNECTED);
             return null;
         }
-        Location location;
-        try {
-            location = locationManager.getLastKnownLocation(GPS_PROVIDER);
-            if (location == null) {
-                location = locationManager.getLastKnownLocation(LocationManager.NETWORK_PROVIDER);
-            }
-            return location;
-        } catch (SecurityException ex) {
-            ex.printStackTrace();
+        return locationTracker.getLocation(
+                TimeUnit.MINUTES.toSeconds(LOCATION_MAX_AGE_MINUTES),
+                TimeUnit.MINUTES.toSeconds(LOCATION_MAX_STALE_AGE_MINUTES),
+                LOCATION_REQUEST_TIMEOUT_SECONDS, TimeUnit.SECONDS, deadline);
+    }
+
+    /**
+     * Send statistics of the weather pipeline since the last statistics were sent, if the
+     * statistics interval has passed.
+     */
+    private void sendStatistics() {
+        long interval = statisticsInterval;
+        long now = System.currentTimeMillis();
+        if (interval <= 0 || now - lastStatisticsTime < interval) {
+            return;
+        }
+        WeatherMetrics.Snapshot current = metrics.snapshot();
+        WeatherMetrics.Snapshot window = current.since(lastStatistics);
+
+        double cacheHitRatio = window.getCacheHitRatio();
+        send(statisticsTopic, new WeatherApiStatistics(
+                lastStatisticsTime / 1000d,
+                now / 1000d,
+                (now - lastStatisticsTime) / 1000d,
+                (int) window.cycles,
+                (int) window.skippedCycles,
+                (int) window.requests,
+                // requests are not retried yet
+                0,
+                (int) window.failures,
+                window.bytesReceived,
+                Double.isNaN(cacheHitRatio) ? null : (float) cacheHitRatio,
+                percentileSeconds(window.httpLatency, 0.5),
+                percentileSeconds(window.httpLatency, 0.95),
+                window.cycleLatency.getCount() > 0 ? (float) (window.cycleLatency.getMeanMicros() / 1_000_000d) : null,
+                percentileSeconds(window.cycleLatency, 0.95)));
+
+        lastStatistics = current;
+        lastStatisticsTime = now;
+    }
+
+    private static Float percentileSeconds(LatencyHistogram.Snapshot histogram, double quantile) {
+        if (histogram.getCount() == 0) {
             return null;
         }
+        return histogram.getPercentileMicros(quantile) / 1_000_000f;
     }
 
     void setQueryInterval(long queryInterval, TimeUnit unit) {
-        processor.setInterval(queryInterval, unit);
+        long interval = unit.toMillis(queryInterval);
+        if (interval != this.queryInterval) {
+            this.queryInterval = interval;
+            scheduledInterval = interval;
+            processor.setInterval(queryInterval, unit);
+        }
+    }
+
+    void setStatisticsInterval(long statisticsInterval, TimeUnit unit) {
+        this.statisticsInterval = unit.toMillis(statisticsInterval);
+    }
+
+    /**
+     * Set whether to open a connection to the weather API host at the start of each cycle,
+     * in parallel with determining the location.
+     * @param prewarmConnection whether to open a connection early
+     */
+    void setPrewarmConnection(boolean prewarmConnection) {
+        this.prewarmConnection = prewarmConnection;
+    }
+
+    /**
+     * Set whether to skip sending weather records that repeat the previous record.
+     * @param suppressUnchanged whether to suppress unchanged records
+     */
+    void setSuppressUnchanged(boolean suppressUnchanged) {
+        this.suppressUnchanged = suppressUnchanged;
+    }
+
+    /**
+     * Set whether to align queries to the refresh cycle of the weather provider.
+     * @param alignToUpdates whether to align queries
+     */
+    void setAlignToUpdates(boolean alignToUpdates) {
+        this.alignToUpdates = alignToUpdates;
+    }
+
+    /**
+     * Set the window that queries of different devices are spread over.
+     * @param queryJitter width of the window, or zero to disable jitter
+     * @param unit unit of the window
+     */
+    void setQueryJitter(long queryJitter, TimeUnit unit) {
+        this.queryJitter = unit.toMillis(queryJitter);
+    }
+
+    /**
+     * Set whether to prefetch weather for frequent places on an unmetered connection.
+     * @param prefetchPlaces whether to prefetch weather
+     */
+    void setPrefetchPlaces(boolean prefetchPlaces) {
+        this.prefetchPlaces = prefetchPlaces;
+    }
+
+    /**
+     * Set how far ahead to load the forecast at the location of the participant in each cycle.
+     * @param horizon horizon of the forecast, or zero to load only the current weather
+     * @param unit unit of the horizon
+     */
+    void setForecastHorizon(long horizon, TimeUnit unit) {
+        this.forecastHours = unit.toHours(horizon);
+    }
+
+    /**
+     * Set the maximum duration of a single weather cycle.
+     * @param cycleTimeout timeout, or zero to use only the timeouts of the HTTP client
+     * @param unit unit of the timeout
+     */
+    void setCycleTimeout(long cycleTimeout, TimeUnit unit) {
+        this.cycleTimeout = unit.toMillis(cycleTimeout);
+    }
+
+    /**
+     * Weather API that forwards to the currently configured weather API, so that cached results
+     * stay available when the API configuration changes.
+     */
+    private class CurrentWeatherApi implements WeatherApi {
+        @Override
+        public WeatherApiResult loadCurrentWeather(double latitude, double longitude) throws IOException {
+            return loadCurrentWeather(latitude, longitude, Deadline.NONE);
+        }
+
+        @Override
+        public WeatherApiResult loadCurrentWeather(final double latitude, final double longitude,
+                final Deadline deadline) throws IOException {
+            return call(api -> api.loadCurrentWeather(latitude, longitude, deadline));
+        }
+
+        @Override
+        public WeatherForecast loadForecast(double latitude, double longitude, long horizon,
+                TimeUnit unit) throws IOException {
+            return loadForecast(latitude, longitude, horizon, unit, Deadline.NONE);
+        }
+
+        @Override
+        public WeatherForecast loadForecast(final double latitude, final double longitude,
+                final long horizon, final TimeUnit unit, final Deadline deadline)
+                throws IOException {
+            return call(api -> api.loadForecast(latitude, longitude, horizon, unit, deadline));
+        }
+
+        @Override
+        public WeatherData loadWeather(final WeatherRequestPlanner.Endpoint endpoint,
+                final Set<WeatherRequestPlanner.DataType> types, final double latitude,
+                final double longitude, final long horizon, final TimeUnit unit,
+                final Deadline deadline) throws IOException {
+            return call(api -> api.loadWeather(endpoint, types, latitude, longitude, horizon,
+                    unit, deadline));
+        }
+
+        /**
+         * Call the weather API of the current cycle. Outside a cycle, the current weather API is
+         * used and kept open until the call finishes.
+         */
+        private <T> T call(ApiCall<T> call) throws IOException {
+            WeatherApi api = cycleApi.get();
+            if (api != null) {
+                return call.apply(api);
+            }
+            ApiHandle handle = acquireApi();
+            if (handle == null) {
+                throw new IOException("No weather API available");
+            }
+            try {
+                return call.apply(handle.api);
+            } finally {
+                releaseApi(handle);
+            }
+        }
+
+        @Override
+        public List<WeatherRequestPlanner.Endpoint> getEndpoints() {
+            WeatherApi api = peekApi();
+            return api != null ? api.getEndpoints() : Collections.<WeatherRequestPlanner.Endpoint>emptyList();
+        }
+
+        @Override
+        public void warmUp() throws IOException {
+            WeatherApiManager.this.warmUp();
+        }
+
+        @Override
+        public String getSourceName() {
+            WeatherApi api = peekApi();
+            return api != null ? api.getSourceName() : null;
+        }
+    }
+
+    /** Call to a weather API. */
+    private interface ApiCall<T> {
+        T apply(WeatherApi api) throws IOException;
+    }
+
+    /** Weather API instance with the number of calls that are using it. */
+    private static final class ApiHandle {
+        private final WeatherApi api;
+        private int users;
+        private boolean isRetired;
+
+        private ApiHandle(WeatherApi api) {
+            this.api = api;
+        }
     }
 
     @Override
     public void close() throws IOException {
+        isStarted = false;
         networkReceiver.unregister();
+        if (locationTracker != null) {
+            locationTracker.stop();
+        }
         processor.close();
+        synchronized (this) {
+            retireApi();
+        }
         super.close();
     }
 }
@@ -26,12 +26,14 @@ import org.radarcns.android.device.DeviceServiceProvider;
 
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import static android.Manifest.permission.ACCESS_COARSE_LOCATION;
 import static android.Manifest.permission.ACCESS_FINE_LOCATION;
-import static org.radarcns.weather.WeatherApiManager.SOURCE_OPENWEATHERMAP;
+import static org.radarcns.weather.OpenWeatherMapApiFactory.SOURCE_OPENWEATHERMAP;
 
 public class WeatherApiProvider extends DeviceServiceProvider<BaseDeviceState> {
     private static final String PREFIX =  "org.radarcns.weather.";
@@ -41,10 +43,36 @@ public class WeatherApiProvider extends DeviceServiceProvider<BaseDeviceState> {
     static final String WEATHER_API_SOURCE_KEY =  PREFIX + WEATHER_API_SOURCE;
     private static final String WEATHER_API_KEY =  "weather_api_key";
     static final String WEATHER_API_KEY_KEY =  PREFIX + WEATHER_API_KEY;
+    static final String WEATHER_API_CONFIG_KEY =  PREFIX + "weather_api_config";
+    private static final String WEATHER_STATISTICS_INTERVAL =  "weather_statistics_interval_seconds";
+    static final String WEATHER_STATISTICS_INTERVAL_KEY =  PREFIX + WEATHER_STATISTICS_INTERVAL;
+    private static final String WEATHER_PREWARM_CONNECTION =  "weather_prewarm_connection";
+    static final String WEATHER_PREWARM_CONNECTION_KEY =  PREFIX + WEATHER_PREWARM_CONNECTION;
+    private static final String WEATHER_SUPPRESS_UNCHANGED =  "weather_suppress_unchanged";
+    static final String WEATHER_SUPPRESS_UNCHANGED_KEY =  PREFIX + WEATHER_SUPPRESS_UNCHANGED;
+    private static final String WEATHER_ALIGN_TO_UPDATES =  "weather_align_to_provider_updates";
+    static final String WEATHER_ALIGN_TO_UPDATES_KEY =  PREFIX + WEATHER_ALIGN_TO_UPDATES;
+    private static final String WEATHER_QUERY_JITTER =  "weather_query_jitter_seconds";
+    static final String WEATHER_QUERY_JITTER_KEY =  PREFIX + WEATHER_QUERY_JITTER;
+    private static final String WEATHER_PREFETCH_PLACES =  "weather_prefetch_frequent_places";
+    static final String WEATHER_PREFETCH_PLACES_KEY =  PREFIX + WEATHER_PREFETCH_PLACES;
+    private static final String WEATHER_FORECAST_HOURS =  "weather_forecast_hours";
+    static final String WEATHER_FORECAST_HOURS_KEY =  PREFIX + WEATHER_FORECAST_HOURS;
+    private static final String WEATHER_CYCLE_TIMEOUT =  "weather_cycle_timeout_seconds";
+    static final String WEATHER_CYCLE_TIMEOUT_KEY =  PREFIX + WEATHER_CYCLE_TIMEOUT;
 
     static final long WEATHER_QUERY_INTERVAL_DEFAULT = TimeUnit.HOURS.toSeconds(3);
     static final String WEATHER_API_SOURCE_DEFAULT = SOURCE_OPENWEATHERMAP;
     static final String WEATHER_API_KEY_DEFAULT = "";
+    static final long WEATHER_STATISTICS_INTERVAL_DEFAULT = TimeUnit.DAYS.toSeconds(1);
+    static final long WEATHER_CYCLE_TIMEOUT_DEFAULT = 60L;
+    /** No jitter, so queries keep their fixed phase unless a spread is configured. */
+    static final long WEATHER_QUERY_JITTER_DEFAULT = 0L;
+    static final boolean WEATHER_PREWARM_CONNECTION_DEFAULT = false;
+    static final boolean WEATHER_SUPPRESS_UNCHANGED_DEFAULT = false;
+    static final boolean WEATHER_ALIGN_TO_UPDATES_DEFAULT = false;
+    static final boolean WEATHER_PREFETCH_PLACES_DEFAULT = false;
+    static final long WEATHER_FORECAST_HOURS_DEFAULT = 0L;
 
     @Override
     public String getDescription() {
@@ -103,10 +131,42 @@ public class WeatherApiProvider extends DeviceServiceProvider<BaseDeviceState> {
         bundle.putLong(WEATHER_QUERY_INTERVAL_KEY,
                 config.getLong(WEATHER_QUERY_INTERVAL, WEATHER_QUERY_INTERVAL_DEFAULT));
 
+        bundle.putLong(WEATHER_STATISTICS_INTERVAL_KEY,
+                config.getLong(WEATHER_STATISTICS_INTERVAL, WEATHER_STATISTICS_INTERVAL_DEFAULT));
+
+        bundle.putLong(WEATHER_CYCLE_TIMEOUT_KEY,
+                config.getLong(WEATHER_CYCLE_TIMEOUT, WEATHER_CYCLE_TIMEOUT_DEFAULT));
+
+        bundle.putLong(WEATHER_QUERY_JITTER_KEY,
+                config.getLong(WEATHER_QUERY_JITTER, WEATHER_QUERY_JITTER_DEFAULT));
+
+        bundle.putBoolean(WEATHER_PREWARM_CONNECTION_KEY,
+                config.getBoolean(WEATHER_PREWARM_CONNECTION, WEATHER_PREWARM_CONNECTION_DEFAULT));
+
+        bundle.putBoolean(WEATHER_SUPPRESS_UNCHANGED_KEY,
+                config.getBoolean(WEATHER_SUPPRESS_UNCHANGED, WEATHER_SUPPRESS_UNCHANGED_DEFAULT));
+
+        bundle.putBoolean(WEATHER_ALIGN_TO_UPDATES_KEY,
+                config.getBoolean(WEATHER_ALIGN_TO_UPDATES, WEATHER_ALIGN_TO_UPDATES_DEFAULT));
+
+        bundle.putBoolean(WEATHER_PREFETCH_PLACES_KEY,
+                config.getBoolean(WEATHER_PREFETCH_PLACES, WEATHER_PREFETCH_PLACES_DEFAULT));
+
+        bundle.putLong(WEATHER_FORECAST_HOURS_KEY,
+                config.getLong(WEATHER_FORECAST_HOURS, WEATHER_FORECAST_HOURS_DEFAULT));
+
         bundle.putString(WEATHER_API_KEY_KEY,
                 config.getString(WEATHER_API_KEY, WEATHER_API_KEY_DEFAULT));
 
         bundle.putString(WEATHER_API_SOURCE_KEY,
                 config.getString(WEATHER_API_SOURCE, WEATHER_API_SOURCE_DEFAULT));
+
+        HashMap<String, String> apiConfig = new HashMap<>();
+        for (WeatherApiFactory factory : WeatherApiRegistry.getInstance().getFactories()) {
+            for (Map.Entry<String, String> entry : factory.getDefaultConfig().entrySet()) {
+                apiConfig.put(entry.getKey(), config.getString(entry.getKey(), entry.getValue()));
+            }
+        }
+        bundle.putSerializable(WEATHER_API_CONFIG_KEY, apiConfig);
     }
 }
@@ -17,42 +17,83 @@
 package org.radarcns.weather;
 
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 
 import org.radarcns.android.device.BaseDeviceState;
 import org.radarcns.android.device.DeviceService;
-import org.radarcns.config.ServerConfig;
-import org.radarcns.producer.rest.RestClient;
 
+import java.util.Collections;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
+import okhttp3.ConnectionPool;
+import okhttp3.Dns;
 import okhttp3.OkHttpClient;
 
+import static org.radarcns.weather.WeatherApiProvider.WEATHER_ALIGN_TO_UPDATES_DEFAULT;
+import static org.radarcns.weather.WeatherApiProvider.WEATHER_ALIGN_TO_UPDATES_KEY;
+import static org.radarcns.weather.WeatherApiProvider.WEATHER_API_CONFIG_KEY;
 import static org.radarcns.weather.WeatherApiProvider.WEATHER_API_KEY_DEFAULT;
 import static org.radarcns.weather.WeatherApiProvider.WEATHER_API_KEY_KEY;
 import static org.radarcns.weather.WeatherApiProvider.WEATHER_API_SOURCE_DEFAULT;
 import static org.radarcns.weather.WeatherApiProvider.WEATHER_API_SOURCE_KEY;
+import static org.radarcns.weather.WeatherApiProvider.WEATHER_CYCLE_TIMEOUT_DEFAULT;
+import static org.radarcns.weather.WeatherApiProvider.WEATHER_CYCLE_TIMEOUT_KEY;
+import static org.radarcns.weather.WeatherApiProvider.WEATHER_FORECAST_HOURS_DEFAULT;
+import static org.radarcns.weather.WeatherApiProvider.WEATHER_FORECAST_HOURS_KEY;
+import static org.radarcns.weather.WeatherApiProvider.WEATHER_PREFETCH_PLACES_DEFAULT;
+import static org.radarcns.weather.WeatherApiProvider.WEATHER_PREFETCH_PLACES_KEY;
+import static org.radarcns.weather.WeatherApiProvider.WEATHER_PREWARM_CONNECTION_DEFAULT;
+import static org.radarcns.weather.WeatherApiProvider.WEATHER_PREWARM_CONNECTION_KEY;
 import static org.radarcns.weather.WeatherApiProvider.WEATHER_QUERY_INTERVAL_DEFAULT;
 import static org.radarcns.weather.WeatherApiProvider.WEATHER_QUERY_INTERVAL_KEY;
+import static org.radarcns.weather.WeatherApiProvider.WEATHER_QUERY_JITTER_DEFAULT;
+import static org.radarcns.weather.WeatherApiProvider.WEATHER_QUERY_JITTER_KEY;
+import static org.radarcns.weather.WeatherApiProvider.WEATHER_STATISTICS_INTERVAL_DEFAULT;
+import static org.radarcns.weather.WeatherApiProvider.WEATHER_STATISTICS_INTERVAL_KEY;
+import static org.radarcns.weather.WeatherApiProvider.WEATHER_SUPPRESS_UNCHANGED_DEFAULT;
+import static org.radarcns.weather.WeatherApiProvider.WEATHER_SUPPRESS_UNCHANGED_KEY;
 
 public class WeatherApiService extends DeviceService<BaseDeviceState> {
     private long queryInterval = WEATHER_QUERY_INTERVAL_DEFAULT;
+    private long statisticsInterval = WEATHER_STATISTICS_INTERVAL_DEFAULT;
+    private long cycleTimeout = WEATHER_CYCLE_TIMEOUT_DEFAULT;
+    private long queryJitter = WEATHER_QUERY_JITTER_DEFAULT;
+    private boolean prewarmConnection = WEATHER_PREWARM_CONNECTION_DEFAULT;
+    private boolean suppressUnchanged = WEATHER_SUPPRESS_UNCHANGED_DEFAULT;
+    private boolean alignToUpdates = WEATHER_ALIGN_TO_UPDATES_DEFAULT;
+    private boolean prefetchPlaces = WEATHER_PREFETCH_PLACES_DEFAULT;
+    private long forecastHours = WEATHER_FORECAST_HOURS_DEFAULT;
     private String apiSource = WEATHER_API_SOURCE_DEFAULT;
     private String apiKey = WEATHER_API_KEY_DEFAULT;
+    private Map<String, String> apiConfig = Collections.emptyMap();
     private OkHttpClient client;
 
     @Override
     public void onCreate() {
         super.onCreate();
-        client = RestClient.global()
-                .server(new ServerConfig())
-                .build()
-                .getHttpClient();
+        client = createHttpClient();
+    }
+
+    /**
+     * HTTP client for weather requests only. It does not share connections or configuration with
+     * the RADAR backend client. Weather requests are infrequent and go to a single host, so it
+     * keeps few idle connections and caches DNS lookups across requests.
+     */
+    private static OkHttpClient createHttpClient() {
+        return new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(2, 5, TimeUnit.MINUTES))
+                .dns(new CachingDns(Dns.SYSTEM, 1, TimeUnit.HOURS, SystemClock::elapsedRealtimeNanos))
+                .connectTimeout(15, TimeUnit.SECONDS)
+                .readTimeout(15, TimeUnit.SECONDS)
+                .writeTimeout(15, TimeUnit.SECONDS)
+                .build();
     }
 
     @Override
     protected WeatherApiManager createDeviceManager() {
-        return new WeatherApiManager(this, apiSource, apiKey, client);
+        return new WeatherApiManager(this, apiSource, apiKey, apiConfig, client);
     }
 
     @Override
@@ -64,16 +105,70 @@ public class WeatherApiService extends DeviceService<BaseDeviceState> {
         return queryInterval;
     }
 
+    long getStatisticsIntervalSeconds() {
+        return statisticsInterval;
+    }
+
+    long getCycleTimeoutSeconds() {
+        return cycleTimeout;
+    }
+
+    long getQueryJitterSeconds() {
+        return queryJitter;
+    }
+
+    boolean isPrewarmConnection() {
+        return prewarmConnection;
+    }
+
+    boolean isSuppressUnchanged() {
+        return suppressUnchanged;
+    }
+
+    boolean isAlignToUpdates() {
+        return alignToUpdates;
+    }
+
+    boolean isPrefetchPlaces() {
+        return prefetchPlaces;
+    }
+
+    long getForecastHours() {
+        return forecastHours;
+    }
+
     @Override
     protected void onInvocation(@NonNull Bundle bundle) {
         super.onInvocation(bundle);
         queryInterval = bundle.getLong(WEATHER_QUERY_INTERVAL_KEY);
+        statisticsInterval = bundle.getLong(WEATHER_STATISTICS_INTERVAL_KEY, WEATHER_STATISTICS_INTERVAL_DEFAULT);
+        cycleTimeout = bundle.getLong(WEATHER_CYCLE_TIMEOUT_KEY, WEATHER_CYCLE_TIMEOUT_DEFAULT);
+        queryJitter = bundle.getLong(WEATHER_QUERY_JITTER_KEY, WEATHER_QUERY_JITTER_DEFAULT);
+        prewarmConnection = bundle.getBoolean(WEATHER_PREWARM_CONNECTION_KEY, WEATHER_PREWARM_CONNECTION_DEFAULT);
+        suppressUnchanged = bundle.getBoolean(WEATHER_SUPPRESS_UNCHANGED_KEY, WEATHER_SUPPRESS_UNCHANGED_DEFAULT);
+        alignToUpdates = bundle.getBoolean(WEATHER_ALIGN_TO_UPDATES_KEY, WEATHER_ALIGN_TO_UPDATES_DEFAULT);
+        prefetchPlaces = bundle.getBoolean(WEATHER_PREFETCH_PLACES_KEY, WEATHER_PREFETCH_PLACES_DEFAULT);
+        forecastHours = bundle.getLong(WEATHER_FORECAST_HOURS_KEY, WEATHER_FORECAST_HOURS_DEFAULT);
         apiSource = bundle.getString(WEATHER_API_SOURCE_KEY);
         apiKey = bundle.getString(WEATHER_API_KEY_KEY);
+        @SuppressWarnings("unchecked")
+        Map<String, String> newApiConfig = (Map<String, String>) bundle.getSerializable(WEATHER_API_CONFIG_KEY);
+        if (newApiConfig != null) {
+            apiConfig = newApiConfig;
+        }
 
         WeatherApiManager weatherApiManager = (WeatherApiManager) getDeviceManager();
         if (weatherApiManager != null) {
             weatherApiManager.setQueryInterval(queryInterval, TimeUnit.SECONDS);
+            weatherApiManager.setStatisticsInterval(statisticsInterval, TimeUnit.SECONDS);
+            weatherApiManager.setCycleTimeout(cycleTimeout, TimeUnit.SECONDS);
+            weatherApiManager.setQueryJitter(queryJitter, TimeUnit.SECONDS);
+            weatherApiManager.setPrewarmConnection(prewarmConnection);
+            weatherApiManager.setSuppressUnchanged(suppressUnchanged);
+            weatherApiManager.setAlignToUpdates(alignToUpdates);
+            weatherApiManager.setPrefetchPlaces(prefetchPlaces);
+            weatherApiManager.setForecastHorizon(forecastHours, TimeUnit.HOURS);
+            weatherApiManager.setApiConfiguration(apiSource, apiKey, apiConfig);
         }
     }
 }